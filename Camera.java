@@ -0,0 +1,106 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+
+/**
+ * A Camera looks at part of a world bigger than the window.  It knows where its view is in
+ * the world and how far it is zoomed in, and turns window coordinates into world ones (for
+ * clicks) and world ones into window ones (for painting, through apply()).
+ *
+ * The view can be scrolled and zoomed, but never leaves the world: along an axis where the
+ * whole world fits in the window, the world is centered instead.
+ *
+ * A camera is used by the thread that paints and the Swing thread, so its methods are
+ * synchronized.
+ *
+ */
+public class Camera {
+
+    // Zoom limits: 1 is one window pixel per world pixel
+    public static final double MIN_ZOOM = 1 / 64.0;
+    public static final double MAX_ZOOM = 8;
+
+    private final int worldWidth, worldHeight;
+    private int viewWidth = 1, viewHeight = 1;
+
+    // World position of the top left corner of the window, and window pixels per world pixel
+    private double left = 0, top = 0;
+    private double zoom = 1;
+
+    public Camera(int worldWidth, int worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    } // end Camera
+
+    // Tells the camera the size of the window it paints
+    public synchronized void setViewSize(int width, int height) {
+        viewWidth = Math.max(1, width);
+        viewHeight = Math.max(1, height);
+        clamp();
+    } // end setViewSize
+
+    // Moves the view by the given number of window pixels
+    public synchronized void scrollBy(int dx, int dy) {
+        left += dx / zoom;
+        top += dy / zoom;
+        clamp();
+    } // end scrollBy
+
+    // Zooms in (factor > 1) or out, keeping the world point under the window point (x, y)
+    // where it is
+    public synchronized void zoomAt(int x, int y, double factor) {
+        double worldX = left + x / zoom, worldY = top + y / zoom;
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        left = worldX - x / zoom;
+        top = worldY - y / zoom;
+        clamp();
+    } // end zoomAt
+
+    public int getWorldWidth() {
+        return worldWidth;
+    } // end getWorldWidth
+
+    public int getWorldHeight() {
+        return worldHeight;
+    } // end getWorldHeight
+
+    public synchronized double getZoom() {
+        return zoom;
+    } // end getZoom
+
+    // Returns the world position under the window position x
+    public synchronized int toWorldX(int x) {
+        return (int) Math.floor(left + x / zoom);
+    } // end toWorldX
+
+    public synchronized int toWorldY(int y) {
+        return (int) Math.floor(top + y / zoom);
+    } // end toWorldY
+
+    // Returns the part of the world in the window, in world pixels
+    public synchronized Rectangle getVisibleArea() {
+        int x = (int) Math.floor(left), y = (int) Math.floor(top);
+        return new Rectangle(x, y, (int) Math.ceil(left + viewWidth / zoom) - x + 1,
+                (int) Math.ceil(top + viewHeight / zoom) - y + 1);
+    } // end getVisibleArea
+
+    // Sets up the graphics context so that drawing in world coordinates lands in the window
+    public synchronized void apply(Graphics2D gc) {
+        gc.scale(zoom, zoom);
+        gc.translate(-left, -top);
+    } // end apply
+
+    // Keeps the view inside the world, or centers the world where it is smaller than the view
+    private void clamp() {
+        double shownWidth = viewWidth / zoom, shownHeight = viewHeight / zoom;
+        if (shownWidth >= worldWidth)
+            left = (worldWidth - shownWidth) / 2;
+        else
+            left = Math.max(0, Math.min(left, worldWidth - shownWidth));
+        if (shownHeight >= worldHeight)
+            top = (worldHeight - shownHeight) / 2;
+        else
+            top = Math.max(0, Math.min(top, worldHeight - shownHeight));
+    } // end clamp
+
+} // end class Camera
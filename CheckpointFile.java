@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+
+/**
+ * A CheckpointFile saves the state of a World in binary, so that a game can be put back
+ * exactly as it was (squares, random numbers, speed, score and all) after the program has
+ * stopped.
+ *
+ * The file is:
+ *
+ *   header   int MAGIC, int VERSION
+ *   records  int length of the body, int CRC32 of the body, then the body:
+ *              byte FULL or DELTA, long tick, then the World.State: whole for a FULL
+ *              record, as the changes from the FULL record for a DELTA
+ *
+ * The first record is always a FULL one and every DELTA after it is taken against it, not
+ * against the DELTA before, so reading the file back means decoding the FULL record and the
+ * last DELTA only, whatever the number of records.  A DELTA is mostly how far each square
+ * went, 2 or 3 bytes a square where a FULL record takes 25.
+ *
+ * Every fullEvery saves (DEFAULT_FULL_EVERY unless told otherwise), or when a delta can't be
+ * taken because the game was restarted, a FULL record is written to a new file, forced to
+ * disk and renamed over the old one.  So the file never grows past one FULL record and its
+ * deltas, and after a crash there is always a complete checkpoint.  A record torn by a crash
+ * fails its CRC and is ignored, along with anything after it.
+ *
+ * save() only takes the state, already copied by the world at the end of a tick, and wakes a
+ * writer thread that does the encoding and the disk work.  If the writer is still busy when
+ * the next state comes, the state it hasn't started on is replaced by the newer one.
+ *
+ */
+public class CheckpointFile {
+
+    public static final int MAGIC = 0x4d534350; // "MSCP"
+    // Version 2: a square that moved less than 8 pixels takes one byte for both coordinates
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int BODY_HEADER_SIZE = 1 + 8;
+
+    // Kinds of record
+    private static final byte FULL = 1;
+    private static final byte DELTA = 2;
+
+    // A FULL record every this many saves
+    public static final int DEFAULT_FULL_EVERY = 10;
+
+    // Longest the writer sleeps when there is nothing to do, in nanoseconds
+    private static final long IDLE_NANOS = 100000000L;
+
+    private final File file;
+    private final int fullEvery;
+
+    // The newest state not written yet
+    private final AtomicReference<World.State> pending = new AtomicReference<World.State>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Only used by the writer
+    private FileChannel channel;
+    private World.State base;          // the state of the FULL record in the file
+    private int sinceFull = 0;         // DELTA records after it
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+
+    // Counters
+    private volatile long fullWrites = 0, deltaWrites = 0, bytesWritten = 0;
+
+    public CheckpointFile(File file) {
+        this(file, DEFAULT_FULL_EVERY);
+    } // end CheckpointFile
+
+    // Same as above, with a FULL record every fullEvery saves
+    public CheckpointFile(File file, int fullEvery) {
+        this.file = file;
+        this.fullEvery = Math.max(1, fullEvery);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "CheckpointFile");
+        writer.setDaemon(true);
+        writer.start();
+    } // end CheckpointFile
+
+    // Hands the state to the writer thread and returns straight away
+    public void save(World.State state) {
+        pending.set(state);
+        LockSupport.unpark(writer);
+    } // end save
+
+    // Writes the last state handed in, if it isn't written yet, and stops the writer
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    } // end close
+
+    public long getFullWrites() {
+        return fullWrites;
+    } // end getFullWrites
+
+    public long getDeltaWrites() {
+        return deltaWrites;
+    } // end getDeltaWrites
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    } // end getBytesWritten
+
+    private void writeLoop() {
+        while (true) {
+            World.State state = pending.getAndSet(null);
+            if (state != null) {
+                try {
+                    write(state);
+                } catch (IOException e) {
+                    System.out.println("Checkpoint to " + file + " failed: " + e);
+                    base = null; // start again with a FULL record
+                }
+            }
+            else if (!running)
+                break;
+            else
+                LockSupport.parkNanos(IDLE_NANOS);
+        } // end while
+        closeChannel();
+    } // end writeLoop
+
+    // Writes the state as a DELTA record if it can, as a new file with a FULL record if not
+    private void write(World.State state) throws IOException {
+        if (base != null && channel != null && sinceFull + 1 < fullEvery) {
+            ByteBuffer body = body(DELTA, state.getTick(), state.maxDeltaSize(base));
+            if (state.writeDelta(body, base)) {
+                append(body);
+                channel.force(false);
+                sinceFull++;
+                deltaWrites++;
+                return;
+            }
+        }
+        ByteBuffer body = body(FULL, state.getTick(), state.maxEncodedSize());
+        state.writeTo(body);
+        closeChannel();
+        File temporary = temporaryFile();
+        channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(header);
+        append(body);
+        channel.force(true);
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        base = state;
+        sinceFull = 0;
+        fullWrites++;
+    } // end write
+
+    // Returns the buffer, big enough for a body of the given size, with the kind and tick
+    // of the record written after room for the record header
+    private ByteBuffer body(byte kind, long tick, int maxSize) {
+        int needed = RECORD_HEADER_SIZE + BODY_HEADER_SIZE + maxSize;
+        if (buffer.capacity() < needed)
+            buffer = ByteBuffer.allocateDirect(Math.max(needed, 2 * buffer.capacity()));
+        buffer.clear();
+        buffer.position(RECORD_HEADER_SIZE);
+        buffer.put(kind);
+        buffer.putLong(tick);
+        return buffer;
+    } // end body
+
+    // Fills in the record header of a body made by body() and appends the record to the file
+    private void append(ByteBuffer record) throws IOException {
+        int end = record.position();
+        ByteBuffer checked = record.duplicate();
+        checked.position(RECORD_HEADER_SIZE);
+        checked.limit(end);
+        crc.reset();
+        crc.update(checked);
+        record.putInt(0, end - RECORD_HEADER_SIZE);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        writeFully(record);
+        bytesWritten += end;
+    } // end append
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+    } // end writeFully
+
+    private void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Closing " + file + " failed: " + e);
+        }
+        channel = null;
+    } // end closeChannel
+
+    private File temporaryFile() {
+        return new File(file.getPath() + ".tmp");
+    } // end temporaryFile
+
+
+    // Reads the latest state saved in the file: the FULL record, changed by the last DELTA
+    // record that is complete
+    public static World.State read(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.remaining() < HEADER_SIZE || map.getInt() != MAGIC || map.getInt() != VERSION)
+                throw new IOException(file + " is not a checkpoint file");
+            ByteBuffer full = null, last = null;
+            CRC32 crc = new CRC32();
+            while (map.remaining() >= RECORD_HEADER_SIZE) {
+                int length = map.getInt();
+                int sum = map.getInt();
+                if (length < BODY_HEADER_SIZE || length > map.remaining())
+                    break;
+                ByteBuffer body = map.slice();
+                body.limit(length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != sum)
+                    break;
+                if (full == null && body.get(0) != FULL)
+                    break;
+                if (full == null)
+                    full = body;
+                else
+                    last = body;
+                map.position(map.position() + length);
+            } // end while
+            if (full == null)
+                throw new IOException(file + " holds no checkpoint");
+            try {
+                full.position(BODY_HEADER_SIZE);
+                World.State state = World.State.readFrom(full);
+                if (last != null && last.get(0) == DELTA) {
+                    last.position(BODY_HEADER_SIZE);
+                    state = World.State.readDelta(last, state);
+                }
+                return state;
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is damaged: " + e);
+            }
+        }
+    } // end read
+
+} // end class CheckpointFile
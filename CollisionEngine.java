@@ -0,0 +1,128 @@
+/**
+ * A CollisionEngine finds the squares that have collided after a tick and resolves each
+ * collision: the newer square disappears and the older one grows and changes to the next
+ * color (unless it's already at the last color, in which case it stops).
+ *
+ * Every engine must give exactly the same result as the original pairwise loop: square i
+ * is checked against every newer square j in store order, and the growth from one collision
+ * already counts when checking the next j.  Two squares collide if they touched at any time
+ * during the tick's move (SquareStore.touched()), not only at its end.  The engines only
+ * differ in how they find the candidates for each square, so they can be swapped to compare
+ * their speed.
+ *
+ * Resolving is split in two.  During the search each collision is only recorded by merge():
+ * the newer square is killed, the older one grows (its size counts for the rest of the
+ * search) and is counted in a MergeSet.  Then finishMerges() changes the colors, once per
+ * square that absorbed others, and removes all the absorbed squares in one compaction.
+ * Colors and stopping don't count in the search, so the result is the same as changing them
+ * after each collision.
+ *
+ * With GameEvents set, finishMerges() also publishes a MERGE for each square that absorbed
+ * others, and a STOP for each one that has just stopped.
+ *
+ */
+public abstract class CollisionEngine {
+
+    // Names accepted by create()
+    public static final String NAIVE = "naive";
+    public static final String GRID = "grid";
+    public static final String PARALLEL = "parallel";
+    public static final String KINETIC = "kinetic";
+
+    // Number of pixels a square grows after each collision
+    private final int sizeIncrement;
+
+    // Totals since the engine was created, for TickMetrics: overlap tests between two
+    // squares, and collisions resolved
+    protected long pairChecks = 0;
+    protected long collisions = 0;
+
+    // The merges of the tick being resolved
+    private final MergeSet merges = new MergeSet();
+
+    // Where the merges are published, if anywhere
+    private GameEvents events;
+
+    protected CollisionEngine(int sizeIncrement) {
+        this.sizeIncrement = sizeIncrement;
+    } // end CollisionEngine
+
+    // Creates the engine with the given name (NAIVE, GRID, PARALLEL or KINETIC).  The
+    // parallel engine uses -Dtick.threads threads (default: one per processor) once there are
+    // at least -Dtick.parallelThreshold squares (default 5000).  The kinetic engine predicts
+    // -Dtick.horizon ticks ahead (default 16).
+    public static CollisionEngine create(String name, int sizeIncrement) {
+        if (NAIVE.equals(name))
+            return new NaiveCollisionEngine(sizeIncrement);
+        else if (GRID.equals(name))
+            return new GridCollisionEngine(sizeIncrement);
+        else if (PARALLEL.equals(name))
+            return new ParallelCollisionEngine(sizeIncrement,
+                    Integer.getInteger("tick.threads", Runtime.getRuntime().availableProcessors()),
+                    Integer.getInteger("tick.parallelThreshold", ParallelCollisionEngine.DEFAULT_THRESHOLD));
+        else if (KINETIC.equals(name))
+            return new KineticCollisionEngine(sizeIncrement,
+                    Integer.getInteger("tick.horizon", KineticCollisionEngine.DEFAULT_HORIZON));
+        throw new IllegalArgumentException("Unknown collision engine: " + name);
+    } // end create
+
+    // Moves every square for one tick.  Engines that split the tick between threads move
+    // the squares in parallel too.
+    public void move(SquareStore squares, int panelWidth, int panelHeight) {
+        squares.moveAll(panelWidth, panelHeight);
+    } // end move
+
+    // Finds and resolves every collision between the squares in the store, removing the
+    // squares that were absorbed.
+    public abstract void resolve(SquareStore squares);
+
+    // Number of times two squares have been tested for overlap
+    public long getPairChecks() {
+        return pairChecks;
+    } // end getPairChecks
+
+    // Number of collisions resolved
+    public long getCollisions() {
+        return collisions;
+    } // end getCollisions
+
+    // Publishes the merges and stops of every tick from now on (null to stop)
+    public void setEvents(GameEvents newEvents) {
+        events = newEvents;
+    } // end setEvents
+
+    // Square older has touched the newer square: the newer one is killed (removed by
+    // finishMerges()) and the older one grows straight away, since its new size already counts
+    // for the next squares it is checked against.  Its color only changes in finishMerges().
+    protected void merge(SquareStore squares, int older, int newer) {
+        collisions++;
+        squares.kill(newer);
+        squares.grow(older, sizeIncrement);
+        merges.ensureCapacity(squares.size());
+        merges.add(older);
+    } // end merge
+
+    // Ends the resolution of a tick: each square that absorbed others changes color once for
+    // all of them, and the absorbed squares are removed in one pass, keeping the others in
+    // order.  A square goes to the next color for each square it absorbed, up to the last
+    // color (black), and stops once it is there -- the same as changing color after each.
+    protected void finishMerges(SquareStore squares) {
+        for (int k = 0; k < merges.getSurvivorCount(); k++) {
+            int r = merges.getSurvivor(k);
+            int before = squares.getColorIndex(r);
+            int color = Math.min(before + merges.getAbsorbed(r), SquareStore.LAST_COLOR);
+            squares.setColorIndex(r, color);
+            if (color == SquareStore.LAST_COLOR)
+                squares.stop(r);
+            if (events != null) {
+                int id = squares.getId(r);
+                events.publish(GameEvents.MERGE, id, squares.getX(r), squares.getY(r), merges.getAbsorbed(r));
+                if (color == SquareStore.LAST_COLOR && before != SquareStore.LAST_COLOR)
+                    events.publish(GameEvents.STOP, id, squares.getX(r), squares.getY(r), squares.getSize(r));
+            }
+        } // end for
+        merges.clear();
+        squares.compact();
+    } // end finishMerges
+
+} // end class CollisionEngine
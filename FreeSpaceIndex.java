@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+
+/**
+ * A FreeSpaceIndex finds where a new square can go without overlapping any square already
+ * in the panel.
+ *
+ * A new square of size S at (px, py) overlaps an existing square at (x, y) of size s when
+ * px is between x-S+1 and x+s-1 and py is between y-S+1 and y+s-1, so every existing square
+ * forbids one rectangle of top left corners.  build() sweeps a line down the panel over
+ * those rectangles, keeping the forbidden part of the current row in a segment tree, and
+ * adds up the corners no rectangle covers.  select() sweeps again and stops at the k-th free
+ * corner, so picking a free corner at random is exact: if build() finds none, there really
+ * is no room left.
+ *
+ * Both sweeps take O(n log n) time for n squares, whatever the size of the panel, and reuse
+ * their arrays from one call to the next.  The index is rebuilt for each new square rather
+ * than kept up to date as the squares move: a square is only added every so many ticks,
+ * while every square moves on every tick.
+ *
+ */
+public class FreeSpaceIndex {
+
+    // Size of the area of legal top left corners, and of the new square
+    private int width;
+    private int height;
+
+    // Number of free corners found by the last build()
+    private long freeCount = 0;
+
+    // The forbidden rectangles: the corners from (left[r], top[r]) to (right[r], bottom[r])
+    // exclusive are taken.  events[] holds each rectangle twice, as (row << 32 | r) for the
+    // row where it starts and (row << 32 | r + rectangles) for the row after it ends, sorted.
+    private int rectangles = 0;
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] top = new int[0];
+    private int[] bottom = new int[0];
+    private long[] events = new long[0];
+
+    // The distinct column boundaries of the rectangles; the leaves of the segment tree are
+    // the columns from xs[k] to xs[k+1]
+    private int[] xs = new int[0];
+    private int columns = 0;
+
+    // Segment tree over the columns: cover[node] is the number of rectangles covering the
+    // whole of the node, taken[node] the number of corners of the node that are covered
+    private int[] cover = new int[0];
+    private int[] taken = new int[0];
+
+    // Position found by the last select()
+    private int selectedX;
+    private int selectedY;
+
+    // Rebuilds the index for a new square of the given size, in a panel of the given size
+    // holding the given squares.  Like the Square constructor, only corners that keep the new
+    // square inside the panel count.  Returns the number of free corners.
+    public long build(SquareStore squares, int panelWidth, int panelHeight, int size) {
+        width = Math.max(1, panelWidth - size);
+        height = Math.max(1, panelHeight - size);
+
+        // Clip the forbidden rectangle of each square to the legal corners
+        int count = squares.size();
+        if (xs.length < 2 * count + 2) {
+            left = new int[count];
+            right = new int[count];
+            top = new int[count];
+            bottom = new int[count];
+            events = new long[2 * count];
+            xs = new int[2 * count + 2];
+        }
+        rectangles = 0;
+        for (int i = 0; i < count; i++) {
+            int l = Math.max(0, squares.getX(i) - size + 1);
+            int r = Math.min(width, squares.getX(i) + squares.getSize(i));
+            int t = Math.max(0, squares.getY(i) - size + 1);
+            int b = Math.min(height, squares.getY(i) + squares.getSize(i));
+            if (l < r && t < b) {
+                left[rectangles] = l;
+                right[rectangles] = r;
+                top[rectangles] = t;
+                bottom[rectangles] = b;
+                rectangles++;
+            }
+        } // end for
+        for (int r = 0; r < rectangles; r++) {
+            events[2 * r] = (long) top[r] << 32 | r;
+            events[2 * r + 1] = (long) bottom[r] << 32 | (r + rectangles);
+        } // end for
+        Arrays.sort(events, 0, 2 * rectangles);
+
+        // Columns
+        xs[0] = 0;
+        xs[1] = width;
+        for (int r = 0; r < rectangles; r++) {
+            xs[2 * r + 2] = left[r];
+            xs[2 * r + 3] = right[r];
+        } // end for
+        Arrays.sort(xs, 0, 2 * rectangles + 2);
+        int distinct = 0;
+        for (int k = 0; k < 2 * rectangles + 2; k++) {
+            if (distinct == 0 || xs[k] != xs[distinct - 1])
+                xs[distinct++] = xs[k];
+        } // end for
+        columns = distinct - 1;
+        if (cover.length < 4 * columns) {
+            cover = new int[4 * columns];
+            taken = new int[4 * columns];
+        }
+
+        freeCount = sweep(-1);
+        return freeCount;
+    } // end build
+
+    // Returns the number of free corners found by the last build()
+    public long getFreeCount() {
+        return freeCount;
+    } // end getFreeCount
+
+    // Finds the k-th free corner (0 <= k < getFreeCount()), counting row by row from the top
+    // left.  Read it with getSelectedX() and getSelectedY().
+    public void select(long k) {
+        if (k < 0 || k >= freeCount)
+            throw new IllegalArgumentException("No free corner number " + k + " out of " + freeCount);
+        sweep(k);
+    } // end select
+
+    public int getSelectedX() {
+        return selectedX;
+    } // end getSelectedX
+
+    public int getSelectedY() {
+        return selectedY;
+    } // end getSelectedY
+
+    // Sweeps down the rows, counting the free corners.  If wanted isn't negative, stops at
+    // free corner number wanted and records its position.  Returns the number of free corners
+    // counted.
+    private long sweep(long wanted) {
+        Arrays.fill(cover, 0, 4 * columns, 0);
+        Arrays.fill(taken, 0, 4 * columns, 0);
+        long free = 0;
+        int row = 0;
+        int e = 0;
+        while (true) {
+            int nextRow = e < 2 * rectangles ? (int) (events[e] >>> 32) : height;
+            // the rows from row to nextRow-1 all have the same free corners
+            long freeInRow = width - taken[1];
+            long freeInBand = freeInRow * (nextRow - row);
+            if (wanted >= 0 && wanted < free + freeInBand) {
+                long k = wanted - free;
+                selectedY = row + (int) (k / freeInRow);
+                selectedX = findFree(1, 0, columns, (int) (k % freeInRow));
+                return wanted + 1;
+            }
+            free += freeInBand;
+            if (e == 2 * rectangles)
+                return free;
+            row = nextRow;
+            // apply every rectangle starting or ending on this row
+            while (e < 2 * rectangles && (int) (events[e] >>> 32) == row) {
+                int r = (int) events[e];
+                if (r < rectangles)
+                    update(1, 0, columns, column(left[r]), column(right[r]), 1);
+                else
+                    update(1, 0, columns, column(left[r - rectangles]), column(right[r - rectangles]), -1);
+                e++;
+            } // end while
+        } // end while
+    } // end sweep
+
+    // Adds change to the cover count of columns from .. to-1 in the subtree of node, which
+    // spans columns l .. r-1
+    private void update(int node, int l, int r, int from, int to, int change) {
+        if (to <= l || r <= from)
+            return;
+        if (from <= l && r <= to) {
+            cover[node] += change;
+        }
+        else {
+            int middle = (l + r) >>> 1;
+            update(2 * node, l, middle, from, to, change);
+            update(2 * node + 1, middle, r, from, to, change);
+        }
+        if (cover[node] > 0)
+            taken[node] = xs[r] - xs[l];
+        else if (r - l == 1)
+            taken[node] = 0;
+        else
+            taken[node] = taken[2 * node] + taken[2 * node + 1];
+    } // end update
+
+    // Returns the k-th free corner of the current row in the subtree of node, which spans
+    // columns l .. r-1 and isn't covered as a whole
+    private int findFree(int node, int l, int r, int k) {
+        if (r - l == 1)
+            return xs[l] + k;
+        int middle = (l + r) >>> 1;
+        int freeLeft = xs[middle] - xs[l] - taken[2 * node];
+        if (k < freeLeft)
+            return findFree(2 * node, l, middle, k);
+        return findFree(2 * node + 1, middle, r, k - freeLeft);
+    } // end findFree
+
+    // Returns the column starting at position x
+    private int column(int x) {
+        return Arrays.binarySearch(xs, 0, columns + 1, x);
+    } // end column
+
+} // end class FreeSpaceIndex
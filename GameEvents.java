@@ -0,0 +1,380 @@
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * GameEvents carries what happens in a game (squares spawned, merged and stopped, squares
+ * clicked, score changes, the game ending) from the engine to whoever wants to know: the
+ * window's score and game-over dialogs, counters, sounds, recorders.  Each consumer reads the
+ * events on a thread of its own and in batches, so nothing it does runs inside a tick.
+ *
+ * The events go into a ring of CAPACITY slots allocated once, as columns of primitives like
+ * the SquareStore: a type, the tick, and four ints whose meaning depends on the type (see the
+ * constants below).  There is one producer at a time: publish() is only called with the
+ * engine's lock held, by the engine and by its World.  Events are written to the ring as they
+ * happen, and made visible to the consumers all at once by flush() at the end of the tick.
+ *
+ * The producer never waits for a consumer.  Each consumer has a cursor of its own, and a
+ * consumer so far behind that the ring has gone all the way round loses the oldest events it
+ * hadn't read: it is told how many in the next batch, and they are counted as dropped.  The
+ * other consumers don't notice.  Since a slot may be written over while a consumer is copying
+ * it, the consumer checks after copying a batch that the producer hadn't claimed those slots
+ * yet (as StampedLock.validate() does), and drops the part that it had rather than deliver a
+ * torn event.  The producer claims slots a block at a time, so writing an event is only a
+ * few plain stores.
+ *
+ * A consumer more than half the ring behind at the end of a tick is holding things up: the
+ * tick is counted as one it applied backpressure on.  Nothing slows down for it, but
+ * report() says which consumers did, for how many ticks, how far behind they got and how many
+ * events they lost.
+ *
+ */
+public class GameEvents {
+
+    // Types of event, and what their fields hold.  Squares are given by their id
+    // (SquareStore.getId()), which stays the same while they live.
+    //   SPAWN      square, x, y, size
+    //   MERGE      square that absorbed others, its x, y, number of squares it absorbed
+    //   STOP       square that reached the last color and stopped, its x, y, size
+    //   CLICK      square removed by a click, x and y of the click, its color index
+    //   SCORE      -1, points of the click, 0, new score
+    //   GAME_OVER  -1, 0, 0, number of squares left
+    public static final byte SPAWN = 1;
+    public static final byte MERGE = 2;
+    public static final byte STOP = 3;
+    public static final byte CLICK = 4;
+    public static final byte SCORE = 5;
+    public static final byte GAME_OVER = 6;
+
+    private static final String[] TYPE_NAMES = {"?", "spawn", "merge", "stop", "click", "score", "game over"};
+
+    // Slots in the ring by default
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    // Most events handed to a consumer at once
+    public static final int BATCH_SIZE = 1024;
+
+    // Longest a consumer sleeps with nothing to read, in nanoseconds.  flush() and close()
+    // wake it up straight away; this only bounds a park that returns for no reason.
+    private static final long IDLE_NANOS = 100000000L;
+
+    // Reads the events of a game.  Called on the consumer's own thread.
+    public interface Consumer {
+        // The events that came since the last call, oldest first
+        void eventsArrived(Batch batch);
+    } // end Consumer
+
+    private final int capacity;
+    private final int mask;
+
+    // The ring
+    private final byte[] type;
+    private final long[] tick;
+    private final int[] square, x, y, value;
+
+    // Producer's side.  written is the number of events written so far and claimLimit the
+    // sequence the producer has claimed up to; claimed and published are the same two
+    // numbers as the consumers see them.
+    private long written = 0;
+    private long claimLimit = 0;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final int claimBlock;
+    private long currentTick = 0;
+
+    // The consumers, replaced whole when one comes or goes
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    // A batch of events copied out of the ring for a consumer.  Sequence numbers count the
+    // events published since the ring was created.
+    public static class Batch {
+        private final byte[] type = new byte[BATCH_SIZE];
+        private final long[] tick = new long[BATCH_SIZE];
+        private final int[] square = new int[BATCH_SIZE], x = new int[BATCH_SIZE], y = new int[BATCH_SIZE],
+                value = new int[BATCH_SIZE];
+        private int start = 0, end = 0;
+        private long first = 0;
+        private long dropped = 0;
+
+        // Number of events in the batch
+        public int size() {
+            return end - start;
+        } // end size
+
+        // Number of events lost just before this batch, because the consumer fell too far behind
+        public long getDropped() {
+            return dropped;
+        } // end getDropped
+
+        public long getSequence(int k) {
+            return first + k;
+        } // end getSequence
+
+        public byte getType(int k) {
+            return type[start + k];
+        } // end getType
+
+        public long getTick(int k) {
+            return tick[start + k];
+        } // end getTick
+
+        public int getSquare(int k) {
+            return square[start + k];
+        } // end getSquare
+
+        public int getX(int k) {
+            return x[start + k];
+        } // end getX
+
+        public int getY(int k) {
+            return y[start + k];
+        } // end getY
+
+        public int getValue(int k) {
+            return value[start + k];
+        } // end getValue
+    } // end class Batch
+
+    // A consumer reading the events on its own thread
+    public class Subscription implements Runnable {
+        private final String name;
+        private final Consumer consumer;
+        private final Thread thread;
+        private final Batch batch = new Batch();
+        private volatile boolean open = true;
+        private volatile boolean waiting = false;
+
+        // Sequence of the next event to read; only the consumer's thread writes it
+        private final AtomicLong read;
+        // Events lost since the last batch delivered
+        private long lost = 0;
+
+        // Counted by the consumer's thread
+        private volatile long delivered = 0, dropped = 0, batches = 0;
+        // Counted by the producer in flush()
+        private volatile long backpressureTicks = 0, maxLag = 0;
+
+        private Subscription(String name, Consumer consumer, long from) {
+            this.name = name;
+            this.consumer = consumer;
+            read = new AtomicLong(from);
+            thread = new Thread(this, "GameEvents " + name);
+            thread.setDaemon(true);
+        } // end Subscription
+
+        public void run() {
+            while (open) {
+                long available = published.get();
+                long next = read.get();
+                if (available == next) {
+                    waiting = true;
+                    if (published.get() == next && open)
+                        LockSupport.parkNanos(this, IDLE_NANOS);
+                    waiting = false;
+                    continue;
+                }
+                if (!copy(next, available))
+                    continue;
+                try {
+                    consumer.eventsArrived(batch);
+                } catch (RuntimeException e) {
+                    System.out.println("Event consumer " + name + " failed: " + e);
+                }
+            } // end while
+        } // end run
+
+        // Copies the events from next up to available (at most a batch of them) into the
+        // batch, dropping those the producer has gone past.  Returns false if none are left.
+        private boolean copy(long next, long available) {
+            long behind = Math.max(0, available - capacity - next);
+            next += behind;
+            int n = (int) Math.min(available - next, BATCH_SIZE);
+            int from = (int) (next & mask);
+            int part = Math.min(n, capacity - from);
+            copyColumns(from, 0, part);
+            copyColumns(0, part, n - part);
+
+            // Anything the producer had claimed by the end of the copy may have been written
+            // over while it was being read
+            VarHandle.acquireFence();
+            long stale = Math.min(n, Math.max(0, claimed.get() - capacity - next));
+            read.lazySet(next + n);
+            if (behind + stale > 0) {
+                lost += behind + stale;
+                dropped += behind + stale;
+            }
+            if (stale == n)
+                return false;
+            batch.start = (int) stale;
+            batch.end = n;
+            batch.first = next + stale;
+            batch.dropped = lost;
+            lost = 0;
+            delivered += n - stale;
+            batches++;
+            return true;
+        } // end copy
+
+        private void copyColumns(int from, int to, int n) {
+            System.arraycopy(type, from, batch.type, to, n);
+            System.arraycopy(tick, from, batch.tick, to, n);
+            System.arraycopy(square, from, batch.square, to, n);
+            System.arraycopy(x, from, batch.x, to, n);
+            System.arraycopy(y, from, batch.y, to, n);
+            System.arraycopy(value, from, batch.value, to, n);
+        } // end copyColumns
+
+        // Stops reading.  Events already copied are still delivered.
+        public void close() {
+            open = false;
+            unsubscribe(this);
+            LockSupport.unpark(thread);
+        } // end close
+
+        public String getName() {
+            return name;
+        } // end getName
+
+        public long getDelivered() {
+            return delivered;
+        } // end getDelivered
+
+        public long getDropped() {
+            return dropped;
+        } // end getDropped
+
+        // Number of ticks that ended with this consumer more than half the ring behind
+        public long getBackpressureTicks() {
+            return backpressureTicks;
+        } // end getBackpressureTicks
+
+        // Furthest behind this consumer was at the end of a tick, in events
+        public long getMaxLag() {
+            return maxLag;
+        } // end getMaxLag
+    } // end class Subscription
+
+    public GameEvents() {
+        this(DEFAULT_CAPACITY);
+    } // end GameEvents
+
+    // Same as above, with a ring of the given number of slots (a power of two)
+    public GameEvents(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        this.capacity = capacity;
+        mask = capacity - 1;
+        claimBlock = Math.max(1, capacity / 16);
+        type = new byte[capacity];
+        tick = new long[capacity];
+        square = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        value = new int[capacity];
+    } // end GameEvents
+
+    // Starts a consumer on a thread of its own.  It gets the events published from now on.
+    public synchronized Subscription subscribe(String name, Consumer consumer) {
+        Subscription subscription = new Subscription(name, consumer, published.get());
+        Subscription[] more = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        more[more.length - 1] = subscription;
+        subscriptions = more;
+        subscription.thread.start();
+        return subscription;
+    } // end subscribe
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int k = 0; k < current.length; k++) {
+            if (current[k] == subscription) {
+                Subscription[] fewer = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, fewer, 0, k);
+                System.arraycopy(current, k + 1, fewer, k, current.length - k - 1);
+                subscriptions = fewer;
+                return;
+            }
+        } // end for
+    } // end unsubscribe
+
+    // The tick the events published from now on belong to.  Called by the producer.
+    public void setTick(long newTick) {
+        currentTick = newTick;
+    } // end setTick
+
+    // Writes an event into the ring.  It is seen by the consumers after the next flush().
+    // Called by the producer only.
+    public void publish(byte eventType, int eventSquare, int eventX, int eventY, int eventValue) {
+        if (written == claimLimit) {
+            // slots up to claimLimit may be written from now on: say so before writing them
+            claimLimit = written + claimBlock;
+            claimed.lazySet(claimLimit);
+            VarHandle.storeStoreFence();
+        }
+        int slot = (int) (written & mask);
+        type[slot] = eventType;
+        tick[slot] = currentTick;
+        square[slot] = eventSquare;
+        x[slot] = eventX;
+        y[slot] = eventY;
+        value[slot] = eventValue;
+        written++;
+    } // end publish
+
+    // Hands the events written since the last flush to the consumers, waking up those that
+    // are waiting for them, and notes which consumers are holding things up.  Called by the
+    // producer, at the end of every tick.
+    public void flush() {
+        if (published.get() == written)
+            return;
+        // A volatile store, so it can't pass the read of waiting below: a consumer either
+        // sees the new events before it parks or is seen waiting and woken up
+        published.set(written);
+        Subscription[] current = subscriptions;
+        for (int k = 0; k < current.length; k++) {
+            Subscription subscription = current[k];
+            long lag = written - subscription.read.get();
+            if (lag > subscription.maxLag)
+                subscription.maxLag = lag;
+            if (lag > capacity / 2)
+                subscription.backpressureTicks++;
+            if (subscription.waiting)
+                LockSupport.unpark(subscription.thread);
+        } // end for
+    } // end flush
+
+    // Number of events published so far
+    public long getPublished() {
+        return published.get();
+    } // end getPublished
+
+    public int getCapacity() {
+        return capacity;
+    } // end getCapacity
+
+    // Returns the consumers reading the events now
+    public Subscription[] getSubscriptions() {
+        return subscriptions.clone();
+    } // end getSubscriptions
+
+    // Name of an event type, for reports
+    public static String typeName(byte eventType) {
+        return eventType > 0 && eventType < TYPE_NAMES.length ? TYPE_NAMES[eventType] : TYPE_NAMES[0];
+    } // end typeName
+
+    // Returns a line about the ring and one per consumer
+    public String report() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "events: %d published, ring of %d%n",
+                published.get(), capacity));
+        for (Subscription subscription : subscriptions) {
+            text.append(String.format(Locale.ROOT,
+                    "  %-12s %d delivered in %d batches, %d dropped, %d ticks of backpressure, max lag %d%n",
+                    subscription.name, subscription.delivered, subscription.batches, subscription.dropped,
+                    subscription.backpressureTicks, subscription.maxLag));
+        } // end for
+        return text.toString();
+    } // end report
+
+} // end class GameEvents
@@ -0,0 +1,76 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+
+
+/**
+ * A GameRandom is java.util.Random, the same generator giving the same numbers for the same
+ * seed, except that its state is a plain long that can be read and set.  So a keyframe or a
+ * checkpoint saves where the game's random numbers are in eight bytes, instead of
+ * serializing the whole object.
+ *
+ * Each world draws from a GameRandom of its own, so worlds never share a generator and
+ * nothing is synchronized on the way.  Anything else that needs random numbers (a worker
+ * filling part of a board, the bot of a world, a new world of a fleet) gets a stream of its
+ * own, derived from a seed and a stream number by stream():
+ *
+ *   stream k of seed s  =  new SplittableRandom(streamSeed(s, k))
+ *   streamSeed(s, k)    =  new SplittableRandom(s + k * GOLDEN_GAMMA).nextLong()
+ *
+ * which is the SplitMix64 mix of s + (k + 1) * GOLDEN_GAMMA.  A stream only depends on its
+ * seed and number, not on which streams were taken before it or on which thread, so work
+ * split between threads draws exactly the numbers it would draw done in order on one.
+ * Streams of streams (streamSeed(streamSeed(s, a), b)) number things that come in two
+ * levels, like the worlds of a fleet slot after slot.
+ *
+ */
+public class GameRandom extends Random {
+
+    // The linear congruential generator of java.util.Random
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // Streams of a world's seed, besides the world's own GameRandom
+    public static final long BOT_STREAM = 1;        // the bot clicking in a WorldScheduler world
+    public static final long BACKGROUND_STREAM = 2; // the background colors of the window
+
+    // Spacing of the seeds of two streams: SplittableRandom's own increment (the golden ratio)
+    public static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // Set by setSeed(), which Random's constructor calls, so it must not have an initializer
+    private long state;
+
+    public GameRandom(long seed) {
+        super(seed);
+    } // end GameRandom
+
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    } // end setSeed
+
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    } // end next
+
+    // Returns the state of the generator (48 bits)
+    public long getState() {
+        return state;
+    } // end getState
+
+    // Puts the generator back in a state returned by getState()
+    public void setState(long newState) {
+        state = newState & MASK;
+    } // end setState
+
+    // Returns the seed of stream number k of the given seed
+    public static long streamSeed(long seed, long k) {
+        return new SplittableRandom(seed + k * GOLDEN_GAMMA).nextLong();
+    } // end streamSeed
+
+    // Returns stream number k of the given seed, for one worker to draw from
+    public static SplittableRandom stream(long seed, long k) {
+        return new SplittableRandom(streamSeed(seed, k));
+    } // end stream
+
+} // end class GameRandom
@@ -0,0 +1,119 @@
+/**
+ * Collision search using a SpatialHash as a broad phase.  For each square only the newer
+ * squares sharing a grid cell with it are checked, so a tick costs about O(n) overlap tests
+ * when the squares are spread out.
+ *
+ * The order of the collisions is the same as in NaiveCollisionEngine: the candidates for
+ * square i are visited by increasing index, and after square i grows the grid is queried
+ * again with its new size, continuing after the square it has just absorbed.  The grid
+ * itself is only built once per tick; the squares that grow during the search are always
+ * older than the ones they are checked against, so their stale entries are never used.
+ *
+ * Once squares go faster than a pixel per tick, the query box of each square is widened by
+ * the sweep margin of the store, so that it also finds the squares it only met on the way.
+ *
+ * Stopped squares are kept out of the grid.  They go in a StaticLayer that lasts from one
+ * tick to the next, and the grid is built over the moving squares and the stopped squares
+ * that are awake (just stopped, or changed since the last tick) only.  A moving or awake
+ * square looks for candidates in both; a stopped square that is asleep only in the grid,
+ * since two sleeping squares can't touch.  Late in a game, when most of the board has
+ * stopped, a tick then costs about as much as its moving squares.
+ *
+ */
+public class GridCollisionEngine extends CollisionEngine {
+
+    private final SpatialHash grid = new SpatialHash();
+    private final StaticLayer layer = new StaticLayer();
+
+    // Scratch, by store position: whether each square is in the layer and awake, the squares
+    // to put in the grid, and the candidates of the grid and the layer merged
+    private boolean[] inLayer = new boolean[0];
+    private boolean[] awake = new boolean[0];
+    private int[] active = new int[0];
+    private int[] candidates = new int[16];
+
+    public GridCollisionEngine(int sizeIncrement) {
+        super(sizeIncrement);
+    } // end GridCollisionEngine
+
+    public void resolve(SquareStore squares) {
+        int count = squares.size();
+        int margin = squares.getSweepMargin();
+        if (inLayer.length < count) {
+            int capacity = Math.max(count, 2 * inLayer.length);
+            inLayer = new boolean[capacity];
+            awake = new boolean[capacity];
+            active = new int[capacity];
+        }
+        layer.sync(squares, inLayer, awake);
+        int activeCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!inLayer[i] || awake[i])
+                active[activeCount++] = i;
+        } // end for
+        grid.build(squares, active, activeCount);
+        long checks = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (squares.isDead(i))
+                continue;
+            boolean asleep = inLayer[i] && !awake[i];
+            int last = i; // every square up to here has already been checked against square i
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                int x = squares.getX(i);
+                int y = squares.getY(i);
+                int size = squares.getSize(i);
+                int left = x - margin, top = y - margin;
+                int right = x + size - 1 + margin, bottom = y + size - 1 + margin;
+                int found = grid.query(left, top, right, bottom);
+                int[] candidates = grid.getResult();
+                if (!asleep) {
+                    found = merge(candidates, found, layer.query(left, top, right, bottom, squares.getId(last)));
+                    candidates = this.candidates;
+                }
+                for (int k = 0; k < found && !grew; k++) {
+                    int j = candidates[k];
+                    if (j <= last || squares.isDead(j))
+                        continue;
+                    checks++;
+                    if (squares.touched(i, j)) {
+                        merge(squares, i, j);
+                        last = j;
+                        grew = true; // look again with the new size
+                        asleep = false; // and in the layer too, now that it has changed
+                    } // end if
+                } // end for
+            } // end while
+        } // end for
+        pairChecks += checks;
+
+        // Change the colors and get rid of the absorbed squares in one pass
+        finishMerges(squares);
+    } // end resolve
+
+    // Merges the candidates found in the grid (the first fromGrid entries of gridResult) with
+    // the fromLayer ones found in the layer into candidates[], in increasing order and without
+    // repeats (an awake square is in both).  Returns the number of candidates.
+    private int merge(int[] gridResult, int fromGrid, int fromLayer) {
+        int[] layerResult = layer.getResult();
+        if (candidates.length < fromGrid + fromLayer)
+            candidates = new int[Math.max(2 * candidates.length, fromGrid + fromLayer)];
+        int a = 0, b = 0, n = 0;
+        while (a < fromGrid || b < fromLayer) {
+            int next;
+            if (b == fromLayer || (a < fromGrid && gridResult[a] < layerResult[b]))
+                next = gridResult[a++];
+            else if (a == fromGrid || layerResult[b] < gridResult[a])
+                next = layerResult[b++];
+            else {
+                next = gridResult[a++];
+                b++;
+            } // end if
+            candidates[n++] = next;
+        } // end while
+        return n;
+    } // end merge
+
+} // end class GridCollisionEngine
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+
+/**
+ * A HitIndex finds the squares under a clicked point.  Like StaticLayer it is kept from one
+ * tick to the next, so a click only looks at the few squares filed near its point, however
+ * often the squares have moved since the index was built.
+ *
+ * The index can be kept while the squares move because of where each one is filed.  A
+ * square only goes back and forth along one axis: one going left or right always covers the
+ * same rows, one going up or down the same columns, and one that has stopped stays where it
+ * is.  So a square going across is filed under the bands of rows it covers, one going up or
+ * down under the bands of columns it covers, and a stopped one under the cells it covers,
+ * and moving doesn't take it out of any of them.  A query looks in the band of rows and the
+ * band of columns of its point and in its cell, and tests the squares there where they are.
+ * A band holds the squares going across the whole panel in it, so a query tests a few dozen
+ * squares on a board of tens of thousands (about as many more as the side of the panel is
+ * longer), against every square for a scan of the store or a grid built for the click.
+ *
+ * Only two things move a square out of its lane.  A square that grows gets bigger to the
+ * right and down, and its next move may push it back up or left inside the panel; update()
+ * files the squares that grew on a tick again (the store keeps a list of them), under a lane
+ * that covers where the panel may push them too.  A new panel size pushes any square, so it
+ * needs a new index.  New squares are added as they come.  Squares that are gone are left
+ * where they were filed and skipped by the queries.  Once more have been filed than there
+ * are squares left twice over, or than there are buckets, the next query builds the index
+ * again.
+ *
+ * Bands and cells are BAND pixels wide and hashed into a table of buckets of ids, as in
+ * StaticLayer.  A square filed under more than MAX_BANDS of them is kept in a short list of
+ * large squares that every query looks at.
+ *
+ */
+public class HitIndex {
+
+    // Width of a band of rows or columns, and of the side of a cell, in pixels
+    public static final int BAND = 64;
+
+    // Buckets in the table per square filed, at least
+    private static final int BUCKETS_PER_SQUARE = 2;
+
+    // A square under more bands or cells than this goes in the list of large squares
+    private static final int MAX_BANDS = 16;
+
+    // false until built, and once the index no longer holds every square in its lane
+    private boolean valid = false;
+
+    // Size of the panel the squares were filed for
+    private int panelWidth, panelHeight;
+
+    // The buckets: bucketIds[b] holds bucketCount[b] entries for the squares filed under the
+    // bands and cells hashed to bucket b, each the id of a square and the first and last row
+    // (for a square going across or stopped) or column (for one going up or down) it was
+    // filed for.  A query only looks a square up in the store if its point is between them.
+    // The number of buckets is a power of two.
+    private int[][] bucketIds = new int[64][];
+    private int[] bucketCount = new int[64];
+
+    // Ids of the large squares, in no particular order
+    private int largeCount = 0;
+    private int[] largeIds = new int[4];
+
+    // Number of times a square was filed since the index was built, counting the squares
+    // gone since and the ones filed again
+    private int filed = 0;
+
+    // Makes the next query build the index again
+    public void invalidate() {
+        valid = false;
+    } // end invalidate
+
+    // Files every square of the store for a panel of the given size
+    public void build(SquareStore squares, int newWidth, int newHeight) {
+        int count = squares.size();
+        int buckets = Integer.highestOneBit(Math.max(64, BUCKETS_PER_SQUARE * count)) * 2;
+        if (bucketCount.length != buckets) {
+            bucketIds = new int[buckets][];
+            bucketCount = new int[buckets];
+        }
+        else {
+            Arrays.fill(bucketCount, 0);
+        }
+        largeCount = 0;
+        filed = 0;
+        panelWidth = newWidth;
+        panelHeight = newHeight;
+        for (int i = 0; i < count; i++) {
+            if (!squares.isDead(i))
+                file(squares, i);
+        } // end for
+        squares.clearGrown();
+        valid = true;
+    } // end build
+
+    // Files a square just added to the store
+    public void add(SquareStore squares, int i) {
+        if (valid)
+            file(squares, i);
+    } // end add
+
+    // Files again the squares that grew since the last call, as listed by the store, and
+    // clears the list.  Called after each tick.
+    public void update(SquareStore squares) {
+        int grown = squares.getGrownCount();
+        if (valid && grown < 0)
+            valid = false; // too many to file one by one
+        for (int k = 0; k < grown && valid; k++) {
+            int i = squares.indexOf(squares.getGrownId(k));
+            if (i >= 0 && !squares.isDead(i))
+                file(squares, i);
+        } // end for
+        squares.clearGrown();
+    } // end update
+
+    // Returns the index of the newest live square under (x, y) that inside() finds, or -1 if
+    // there is none, building the index first if it must be.  The panel is the one the
+    // squares are in now.
+    public int topmost(SquareStore squares, int x, int y, int newWidth, int newHeight) {
+        if (!valid || newWidth != panelWidth || newHeight != panelHeight
+                || filed > 2 * squares.size() + 64 || filed > bucketCount.length)
+            build(squares, newWidth, newHeight);
+        int mask = bucketCount.length - 1;
+        int best = -1, bestId = -1;
+        for (int k = 0; k < 3; k++) {
+            int b, p = y;
+            if (k == 0) {
+                b = bucket(-1, band(y)) & mask; // squares going across, by row
+            }
+            else if (k == 1) {
+                b = bucket(band(x), -1) & mask; // squares going up or down, by column
+                p = x;
+            }
+            else {
+                b = bucket(band(x), band(y)) & mask; // stopped squares, by cell
+            }
+            int[] entries = bucketIds[b];
+            for (int e = 3 * (bucketCount[b] - 1); e >= 0; e -= 3) {
+                int id = entries[e];
+                if (id > bestId && entries[e + 1] <= p && p <= entries[e + 2]) {
+                    int i = hit(squares, id, x, y);
+                    if (i >= 0) {
+                        best = i;
+                        bestId = id;
+                    }
+                }
+            } // end for
+        } // end for
+        for (int n = 0; n < largeCount; n++) {
+            if (largeIds[n] > bestId) {
+                int i = hit(squares, largeIds[n], x, y);
+                if (i >= 0) {
+                    best = i;
+                    bestId = largeIds[n];
+                }
+            }
+        } // end for
+        return best;
+    } // end topmost
+
+    // Returns the index of the square with the given id if it is still there and (x, y) is
+    // inside it, or -1
+    private static int hit(SquareStore squares, int id, int x, int y) {
+        int i = squares.indexOf(id);
+        return i >= 0 && !squares.isDead(i) && squares.inside(i, x, y) ? i : -1;
+    } // end hit
+
+    // Files square i under its lane: the rows, columns or cells it covers, down to where the
+    // panel may push it on its next move.  inside() counts the pixel just past the right and
+    // bottom edges, so that one is covered too.
+    private void file(SquareStore squares, int i) {
+        int id = squares.getId(i);
+        int x = squares.getX(i), y = squares.getY(i), size = squares.getSize(i);
+        int left = Math.min(x, panelWidth - size), top = Math.min(y, panelHeight - size);
+        int right = x + size, bottom = y + size;
+        int direction = squares.getDirection(i);
+        boolean across = direction == Square.LEFT || direction == Square.RIGHT;
+        int col0 = band(left), col1 = band(right), row0 = band(top), row1 = band(bottom);
+        long under;
+        if (!squares.isMoving(i))
+            under = (long) (col1 - col0 + 1) * (row1 - row0 + 1);
+        else
+            under = across ? row1 - row0 + 1 : col1 - col0 + 1;
+        filed++;
+        if (under > MAX_BANDS) {
+            if (largeCount == largeIds.length)
+                largeIds = Arrays.copyOf(largeIds, 2 * largeCount);
+            largeIds[largeCount++] = id;
+            return;
+        }
+        if (!squares.isMoving(i)) {
+            for (int row = row0; row <= row1; row++) {
+                for (int col = col0; col <= col1; col++)
+                    put(bucket(col, row), id, top, bottom);
+            } // end for
+        }
+        else if (across) {
+            for (int row = row0; row <= row1; row++)
+                put(bucket(-1, row), id, top, bottom);
+        }
+        else {
+            for (int col = col0; col <= col1; col++)
+                put(bucket(col, -1), id, left, right);
+        }
+    } // end file
+
+    private void put(int hash, int id, int first, int last) {
+        int b = hash & (bucketCount.length - 1);
+        int[] entries = bucketIds[b];
+        int e = 3 * bucketCount[b]++;
+        if (entries == null)
+            entries = bucketIds[b] = new int[12];
+        else if (e == entries.length)
+            entries = bucketIds[b] = Arrays.copyOf(entries, 2 * e);
+        entries[e] = id;
+        entries[e + 1] = first;
+        entries[e + 2] = last;
+    } // end put
+
+    // Returns the band holding the position p.  Squares larger than the panel can be pushed
+    // left of or above it, so clamp to keep every position in a band.
+    private static int band(int p) {
+        return Math.max(0, p) / BAND;
+    } // end band
+
+    // Mixes the column and row of a cell into a bucket number, to be masked by the caller.
+    // A band of rows is the cell of column -1, a band of columns the cell of row -1.
+    private static int bucket(int column, int row) {
+        int h = column * 0x9E3779B1 + row * 0x85EBCA77;
+        return h ^ (h >>> 15);
+    } // end bucket
+
+} // end class HitIndex
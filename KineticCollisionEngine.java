@@ -0,0 +1,666 @@
+import java.util.Arrays;
+
+
+/**
+ * Collision search by prediction instead of testing.  A moving square goes along one axis
+ * at a constant velocity and only turns around at the panel edges, so where it will be at
+ * any later tick can be worked out exactly, and so can the first tick at which two squares
+ * will touch.  This engine works those ticks out ahead of time and keeps them in a priority
+ * queue of events; a tick then only looks at the events that fall due on it.  On a quiet
+ * tick that is nothing at all: the squares still have to be moved, but no pair of them is
+ * tested.
+ *
+ * Predictions are made for a window of HORIZON ticks at a time.  At the start of a window
+ * each square's path over the window is bounded by a box, the boxes are put in a
+ * SpatialHash, and every pair whose boxes meet gets its first contact in the window (if any)
+ * computed by walking the straight pieces of the two paths.  Events are kept in one bucket
+ * per tick of the window, which makes the queue O(1) per event.
+ *
+ * Once the game has sped up, squares go more than a pixel on some ticks and touched() only
+ * compares them at a few points of their paths, so the contact tick can't be solved for.
+ * The ticks of the window are then walked one at a time instead, bounding the pixels each
+ * square of the pair crosses on the tick (the steps it has taken by the end of any tick are
+ * known exactly from its velocity and progress).  Bounds that meet are all touched() needs,
+ * not all it takes, so such an event may come early: resolve() tests the pair with
+ * touched() and predicts it again from the next tick if it missed.
+ *
+ * A prediction stays good only as long as neither square changes.  The engine keeps a
+ * shadow copy of the squares as it last moved them, and before each move compares the
+ * store with it: squares that grew, stopped, were clicked away, were added or were loaded
+ * from elsewhere are found there, stamped with the current tick, and get new predictions
+ * for the rest of the window.  Every event carries the tick it was computed at and is
+ * dropped if either square has been stamped since.  A new panel size, too many changes or
+ * the end of the window start a new window.
+ *
+ * When an event falls due, the older square of the pair is flagged, and the flagged
+ * squares are resolved in order exactly as in GridCollisionEngine (see
+ * ParallelCollisionEngine for why the unflagged ones can be skipped).  A pair that touches
+ * is always either resolved or changed on that tick, so only the first contact of each pair
+ * needs predicting.  The result is the same as the pairwise loop's, tick for tick.
+ *
+ * Predicting only pays while most squares keep their paths.  On busy ticks, where many
+ * squares changed since the last one, while there are squares larger than the panel (they
+ * don't follow the usual path) or moving squares slower than a pixel per tick (they are
+ * still pushed back inside the panel on the ticks they don't move; the game never makes
+ * any), and on a resolve() not preceded by move(), the tick is left to a
+ * GridCollisionEngine and a new window is started once things calm down.
+ *
+ */
+public class KineticCollisionEngine extends CollisionEngine {
+
+    // Ticks predicted ahead at the start of each window
+    public static final int DEFAULT_HORIZON = 16;
+
+    // A tick is busy when more than one square in BUSY changed since the last one.  Busy
+    // ticks are left to the grid engine: predictions that are thrown away straight after
+    // being made cost more than they save.
+    private static final int BUSY = 64;
+
+    private final int horizon;
+    private final GridCollisionEngine serial;
+
+    // The squares as they were right after the last move, and for each of them the last
+    // tick at which it was found to have changed
+    private final SquareStore shadow = new SquareStore();
+    private long[] changedAt = new long[0];
+    private long[] nextChangedAt = new long[0];
+
+    // Number of the tick the store is at
+    private long now = 0;
+
+    // Panel size of the current window, and its last tick
+    private int panelWidth = -1, panelHeight = -1;
+    private long windowStart = 0, windowEnd = -1;
+
+    // true between move() and resolve(); false if resolve() must do the whole tick itself
+    private boolean moved = false;
+    private boolean fallback = false;
+
+    // Bounds of each square's path over the window (inclusive), indexed by store position at
+    // the start of the window, and the same bounds as squares for the SpatialHash
+    private int[] boxIds = new int[0];
+    private int[] boxLeft = new int[0], boxTop = new int[0], boxRight = new int[0], boxBottom = new int[0];
+    private final SquareStore boxes = new SquareStore();
+    private final SpatialHash boxGrid = new SpatialHash();
+
+    // Paths of the squares that changed since the window started
+    private int lateCount = 0;
+    private int[] lateIds = new int[16];
+    private long[] lateStamps = new long[16];
+    private int[] lateLeft = new int[16], lateTop = new int[16], lateRight = new int[16], lateBottom = new int[16];
+
+    // Squares changed since the last move, by store position
+    private int changedCount = 0;
+    private int[] changed = new int[16];
+
+    // The event queue: bucket (tick % (horizon + 1)) is a linked list of events for that
+    // tick.  An event is the ids of the two squares, older first, and the tick it was
+    // computed at.
+    private final int[] bucketHead;
+    private int eventCount = 0;
+    private int[] eventOlder = new int[64], eventNewer = new int[64], eventNext = new int[64];
+    private long[] eventStamp = new long[64];
+
+    // Squares flagged on the current tick
+    private int flaggedCount = 0;
+    private int[] flagged = new int[16];
+
+    // Grid over the current positions, built only on ticks with collisions
+    private final SpatialHash grid = new SpatialHash();
+
+    // The two coordinates of the two squares of the pair being predicted
+    private final Track xa = new Track(), ya = new Track(), xb = new Track(), yb = new Track();
+
+    // Scratch for the position of a square after its next move, and for the bounds of its
+    // path over the rest of the window
+    private int stepX, stepY, stepDirection;
+    private int boundLeft, boundTop, boundRight, boundBottom;
+
+    public KineticCollisionEngine(int sizeIncrement) {
+        this(sizeIncrement, DEFAULT_HORIZON);
+    } // end KineticCollisionEngine
+
+    public KineticCollisionEngine(int sizeIncrement, int horizon) {
+        super(sizeIncrement);
+        this.horizon = Math.max(1, horizon);
+        this.bucketHead = new int[this.horizon + 1];
+        Arrays.fill(bucketHead, -1);
+        this.serial = new GridCollisionEngine(sizeIncrement);
+    } // end KineticCollisionEngine
+
+    public int getHorizon() {
+        return horizon;
+    } // end getHorizon
+
+    // The grid engine it leaves ticks to publishes its merges too
+    public void setEvents(GameEvents newEvents) {
+        super.setEvents(newEvents);
+        serial.setEvents(newEvents);
+    } // end setEvents
+
+    // The counters include the ticks left to the grid engine
+    public long getPairChecks() {
+        return pairChecks + serial.getPairChecks();
+    } // end getPairChecks
+
+    public long getCollisions() {
+        return collisions + serial.getCollisions();
+    } // end getCollisions
+
+    // One coordinate of a square over time, counted in steps of one pixel (a step is a tick
+    // for a square at PIXEL).  Along its axis of motion a square runs from 0 to range and
+    // back, spending two steps at each end (one to hit the edge, one to turn), so its phase
+    // goes round a cycle of 2 * (range + 1) steps: phase p < range + 1 is position p going
+    // up, the others are on the way back.
+    private static class Track {
+        private boolean moving;
+        private int range;
+        private int cycle;
+        private int phase;
+        private int position;
+
+        // Set by span()
+        private int low, high;
+
+        // A coordinate that doesn't change
+        void fixed(int p) {
+            moving = false;
+            position = p;
+        } // end fixed
+
+        // A coordinate at p in [0, newRange], going up if up is true
+        void moving(int p, boolean up, int newRange) {
+            moving = true;
+            range = newRange;
+            cycle = 2 * (range + 1);
+            phase = up ? p : range + 1 + (range - p);
+        } // end moving
+
+        int value() {
+            if (!moving)
+                return position;
+            return phase <= range ? phase : 2 * range + 1 - phase;
+        } // end value
+
+        // Change of the coordinate per tick, until run() ticks from now
+        int slope() {
+            if (!moving || phase == range || phase == 2 * range + 1)
+                return 0;
+            return phase < range ? 1 : -1;
+        } // end slope
+
+        int run() {
+            if (!moving)
+                return Integer.MAX_VALUE;
+            if (phase < range)
+                return range - phase;
+            if (phase == range || phase == 2 * range + 1)
+                return 1;
+            return 2 * range + 1 - phase;
+        } // end run
+
+        void advance(int ticks) {
+            if (moving)
+                phase = (int) ((phase + (long) ticks) % cycle);
+        } // end advance
+
+        // Sets low and high to the least and the greatest value of the coordinate from the
+        // given number of steps from now to the other one, inclusive.  In between the value
+        // only goes one way, except where it turns at 0 or at range.
+        void span(long from, long to) {
+            if (!moving) {
+                low = high = position;
+                return;
+            }
+            if (to - from + 1 >= cycle) {
+                low = 0;
+                high = range;
+                return;
+            }
+            long start = phase + from, end = phase + to;
+            int a = valueAt(start), b = valueAt(end);
+            low = Math.min(a, b);
+            high = Math.max(a, b);
+            if (start + Math.floorMod(range - start, (long) cycle) <= end)
+                high = range;
+            if (start + Math.floorMod(2 * range + 1 - start, (long) cycle) <= end)
+                low = 0;
+        } // end span
+
+        private int valueAt(long p) {
+            int q = (int) (p % cycle);
+            return q <= range ? q : 2 * range + 1 - q;
+        } // end valueAt
+    } // end class Track
+
+    public void move(SquareStore squares, int newWidth, int newHeight) {
+        boolean rebuild = newWidth != panelWidth || newHeight != panelHeight || now >= windowEnd;
+        findChanges(squares);
+        fallback = (long) changedCount * BUSY > squares.size() && squares.size() > BUSY;
+        for (int i = 0; i < squares.size() && !fallback; i++)
+            fallback = squares.getSize(i) > newWidth || squares.getSize(i) > newHeight;
+        if (!fallback)
+            fallback = squares.hasVelocityBelow(SquareStore.PIXEL);
+        if (fallback) {
+            windowEnd = now; // start afresh once the odd squares are gone
+        }
+        else if (rebuild || changedCount > squares.size() / 4 || lateCount + changedCount > squares.size()) {
+            panelWidth = newWidth;
+            panelHeight = newHeight;
+            startWindow(squares);
+        }
+        else {
+            for (int c = 0; c < changedCount; c++)
+                predictChanged(squares, changed[c]);
+        }
+
+        squares.moveAll(newWidth, newHeight);
+        shadow.copyFrom(squares);
+        now++;
+        moved = true;
+    } // end move
+
+    public void resolve(SquareStore squares) {
+        if (!moved || fallback) {
+            // no predictions to go by: test the whole tick
+            serial.resolve(squares);
+            windowEnd = now;
+            moved = false;
+            return;
+        }
+        moved = false;
+
+        // Flag the older square of every pair that touches now.  An early event is predicted
+        // again from the store as it is now, which is where the next move starts from.  It is
+        // stamped a tick before the squares that move finds changed, so that a merge on this
+        // tick still drops it.
+        flaggedCount = 0;
+        int bucket = (int) (now % bucketHead.length);
+        for (int e = bucketHead[bucket]; e >= 0; e = eventNext[e]) {
+            int i = indexOf(squares, eventOlder[e]);
+            int j = indexOf(squares, eventNewer[e]);
+            if (i < 0 || j < 0 || changedAt[i] > eventStamp[e] || changedAt[j] > eventStamp[e])
+                continue;
+            pairChecks++;
+            if (squares.touched(i, j))
+                addFlagged(i);
+            else
+                predict(squares, i, j, now - 1);
+        } // end for
+        bucketHead[bucket] = -1;
+        if (flaggedCount == 0)
+            return; // a quiet tick
+
+        // Resolve the flagged squares in order, as GridCollisionEngine does
+        Arrays.sort(flagged, 0, flaggedCount);
+        grid.build(squares);
+        int margin = squares.getSweepMargin();
+        long checks = 0;
+        for (int f = 0; f < flaggedCount; f++) {
+            int i = flagged[f];
+            if ((f > 0 && flagged[f - 1] == i) || squares.isDead(i))
+                continue;
+            int last = i; // every square up to here has already been checked against square i
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                int x = squares.getX(i);
+                int y = squares.getY(i);
+                int size = squares.getSize(i);
+                int found = grid.query(x - margin, y - margin, x + size - 1 + margin,
+                        y + size - 1 + margin);
+                int[] candidates = grid.getResult();
+                for (int k = 0; k < found && !grew; k++) {
+                    int j = candidates[k];
+                    if (j <= last || squares.isDead(j))
+                        continue;
+                    checks++;
+                    if (squares.touched(i, j)) {
+                        merge(squares, i, j);
+                        last = j;
+                        grew = true; // look again with the new size
+                    } // end if
+                } // end for
+            } // end while
+        } // end for
+        pairChecks += checks;
+        finishMerges(squares);
+    } // end resolve
+
+    // Compares the store with the shadow, carrying the stamps of the squares that haven't
+    // changed and stamping the others with the current tick.  Both are in id order.
+    private void findChanges(SquareStore squares) {
+        int count = squares.size();
+        if (nextChangedAt.length < count)
+            nextChangedAt = new long[Math.max(count, 2 * nextChangedAt.length)];
+        changedCount = 0;
+        int s = 0;
+        for (int i = 0; i < count; i++) {
+            int id = squares.getId(i);
+            while (s < shadow.size() && shadow.getId(s) < id)
+                s++;
+            if (s < shadow.size() && shadow.getId(s) == id && shadow.getX(s) == squares.getX(i)
+                    && shadow.getY(s) == squares.getY(i) && shadow.getSize(s) == squares.getSize(i)
+                    && shadow.getDirection(s) == squares.getDirection(i)
+                    && shadow.isMoving(s) == squares.isMoving(i)
+                    && shadow.getVelocity(s) == squares.getVelocity(i)
+                    && shadow.getProgress(s) == squares.getProgress(i)) {
+                nextChangedAt[i] = changedAt[s];
+            }
+            else {
+                nextChangedAt[i] = now;
+                if (changedCount == changed.length)
+                    changed = Arrays.copyOf(changed, 2 * changedCount);
+                changed[changedCount++] = i;
+            }
+        } // end for
+        long[] swap = changedAt;
+        changedAt = nextChangedAt;
+        nextChangedAt = swap;
+    } // end findChanges
+
+    // Starts a new window at the current tick: bounds every path, then predicts every pair
+    // whose bounds meet
+    private void startWindow(SquareStore squares) {
+        int count = squares.size();
+        windowStart = now;
+        windowEnd = now + horizon;
+        lateCount = 0;
+        eventCount = 0;
+        Arrays.fill(bucketHead, -1);
+
+        if (boxIds.length < count) {
+            int capacity = Math.max(count, 2 * boxIds.length);
+            boxIds = new int[capacity];
+            boxLeft = new int[capacity];
+            boxTop = new int[capacity];
+            boxRight = new int[capacity];
+            boxBottom = new int[capacity];
+        }
+        boxes.clear();
+        for (int i = 0; i < count; i++) {
+            boxIds[i] = squares.getId(i);
+            bound(squares, i);
+            boxLeft[i] = boundLeft;
+            boxTop[i] = boundTop;
+            boxRight[i] = boundRight;
+            boxBottom[i] = boundBottom;
+            int side = Math.max(boxRight[i] - boxLeft[i], boxBottom[i] - boxTop[i]) + 1;
+            boxes.add(boxLeft[i], boxTop[i], side, 0, SquareStore.FIRST_COLOR);
+        } // end for
+        boxGrid.build(boxes);
+
+        for (int i = 0; i < count; i++) {
+            int found = boxGrid.query(boxLeft[i], boxTop[i], boxRight[i], boxBottom[i]);
+            int[] candidates = boxGrid.getResult();
+            for (int k = found - 1; k >= 0 && candidates[k] > i; k--) {
+                int j = candidates[k];
+                if (boxesMeet(boxLeft[i], boxTop[i], boxRight[i], boxBottom[i],
+                        boxLeft[j], boxTop[j], boxRight[j], boxBottom[j]))
+                    predict(squares, i, j, now);
+            } // end for
+        } // end for
+    } // end startWindow
+
+    // Predicts the contacts of a square that changed during the window, against the paths
+    // bounded at the start of the window and those of the squares that changed since
+    private void predictChanged(SquareStore squares, int c) {
+        int id = squares.getId(c);
+        bound(squares, c);
+        int left = boundLeft, top = boundTop, right = boundRight, bottom = boundBottom;
+
+        int found = boxGrid.query(left, top, right, bottom);
+        int[] candidates = boxGrid.getResult();
+        for (int k = 0; k < found; k++) {
+            int b = candidates[k];
+            if (boxIds[b] == id || !boxesMeet(left, top, right, bottom, boxLeft[b], boxTop[b], boxRight[b], boxBottom[b]))
+                continue;
+            int j = indexOf(squares, boxIds[b]);
+            // squares that changed since the window started are found in the late list
+            if (j >= 0 && changedAt[j] <= windowStart)
+                predict(squares, Math.min(c, j), Math.max(c, j), now);
+        } // end for
+        for (int k = 0; k < lateCount; k++) {
+            if (lateIds[k] == id || !boxesMeet(left, top, right, bottom, lateLeft[k], lateTop[k], lateRight[k], lateBottom[k]))
+                continue;
+            int j = indexOf(squares, lateIds[k]);
+            if (j >= 0 && changedAt[j] == lateStamps[k])
+                predict(squares, Math.min(c, j), Math.max(c, j), now);
+        } // end for
+
+        if (lateCount == lateIds.length) {
+            int capacity = 2 * lateCount;
+            lateIds = Arrays.copyOf(lateIds, capacity);
+            lateStamps = Arrays.copyOf(lateStamps, capacity);
+            lateLeft = Arrays.copyOf(lateLeft, capacity);
+            lateTop = Arrays.copyOf(lateTop, capacity);
+            lateRight = Arrays.copyOf(lateRight, capacity);
+            lateBottom = Arrays.copyOf(lateBottom, capacity);
+        }
+        lateIds[lateCount] = id;
+        lateStamps[lateCount] = now;
+        lateLeft[lateCount] = left;
+        lateTop[lateCount] = top;
+        lateRight[lateCount] = right;
+        lateBottom[lateCount] = bottom;
+        lateCount++;
+    } // end predictChanged
+
+    // Bounds the pixels square i covers from the next tick to the end of the window, into
+    // (boundLeft, boundTop) - (boundRight, boundBottom), inclusive
+    private void bound(SquareStore squares, int i) {
+        step(squares, i);
+        int size = squares.getSize(i);
+        int spread = (int) Math.min(stepsBy(squares, i, windowEnd - now) - 1, Integer.MAX_VALUE);
+        int left = stepX, top = stepY, right = stepX, bottom = stepY;
+        if (squares.isMoving(i)) {
+            if (stepDirection == Square.LEFT || stepDirection == Square.RIGHT) {
+                left = Math.max(0, stepX - spread);
+                right = Math.min(panelWidth - size, stepX + spread);
+            }
+            else {
+                top = Math.max(0, stepY - spread);
+                bottom = Math.min(panelHeight - size, stepY + spread);
+            }
+        }
+        boundLeft = left;
+        boundTop = top;
+        boundRight = right + size - 1;
+        boundBottom = bottom + size - 1;
+    } // end bound
+
+    // Works out where square i will be after its next move, into stepX, stepY and
+    // stepDirection.  Same rules as SquareStore.moveRange().
+    private void step(SquareStore squares, int i) {
+        int px = squares.getX(i), py = squares.getY(i), dir = squares.getDirection(i);
+        if (squares.isMoving(i)) {
+            if (dir == Square.LEFT)
+                px--;
+            else if (dir == Square.RIGHT)
+                px++;
+            else if (dir == Square.UP)
+                py--;
+            else // dir == DOWN
+                py++;
+        } // end if
+        int maxX = panelWidth - squares.getSize(i);
+        int maxY = panelHeight - squares.getSize(i);
+        if (px < 0) {
+            px = 0;
+            if (dir == Square.LEFT)
+                dir = Square.RIGHT;
+        }
+        else if (px > maxX) {
+            px = maxX;
+            if (dir == Square.RIGHT)
+                dir = Square.LEFT;
+        } // end if
+        if (py < 0) {
+            py = 0;
+            if (dir == Square.UP)
+                dir = Square.DOWN;
+        }
+        else if (py > maxY) {
+            py = maxY;
+            if (dir == Square.DOWN)
+                dir = Square.UP;
+        } // end if
+        stepX = px;
+        stepY = py;
+        stepDirection = dir;
+    } // end step
+
+    // Number of pixels square i will have moved by the end of the given number of ticks from
+    // now: exact, as moveRange() carries the fractions over in progress.  Squares that don't
+    // move are counted as going a pixel per tick, which their tracks ignore.
+    private static long stepsBy(SquareStore squares, int i, long ticks) {
+        if (!squares.isMoving(i))
+            return ticks;
+        return (squares.getProgress(i) + squares.getVelocity(i) * ticks) >> SquareStore.PIXEL_BITS;
+    } // end stepsBy
+
+    // Returns true if square i goes exactly a pixel on every tick, or doesn't move
+    private static boolean onePixel(SquareStore squares, int i) {
+        return !squares.isMoving(i) || squares.getVelocity(i) == SquareStore.PIXEL;
+    } // end onePixel
+
+    // Sets up the tracks of square i from its position after the first step of its next move
+    private void track(SquareStore squares, int i, Track x, Track y) {
+        step(squares, i);
+        int size = squares.getSize(i);
+        if (squares.isMoving(i) && (stepDirection == Square.LEFT || stepDirection == Square.RIGHT))
+            x.moving(stepX, stepDirection == Square.RIGHT, panelWidth - size);
+        else
+            x.fixed(stepX);
+        if (squares.isMoving(i) && (stepDirection == Square.UP || stepDirection == Square.DOWN))
+            y.moving(stepY, stepDirection == Square.DOWN, panelHeight - size);
+        else
+            y.fixed(stepY);
+    } // end track
+
+    // Finds the first tick of the window at which squares i and j (i older) will touch, if
+    // any, and queues it with the given stamp.  For squares going a pixel per tick both paths
+    // are straight between turns, so the ticks are walked a straight piece at a time, solving
+    // for the contact on each piece.
+    private void predict(SquareStore squares, int i, int j, long stamp) {
+        pairChecks++;
+        track(squares, i, xa, ya);
+        track(squares, j, xb, yb);
+        int sizeA = squares.getSize(i), sizeB = squares.getSize(j);
+        if (!onePixel(squares, i) || !onePixel(squares, j)) {
+            predictSwept(squares, i, j, stamp);
+            return;
+        }
+        long last = windowEnd - now; // ticks ahead, the next tick being 1
+        long k = 1;
+        while (true) {
+            long piece = Math.min(Math.min(Math.min(xa.run(), ya.run()), Math.min(xb.run(), yb.run())), last - k);
+            int len = (int) piece;
+            // on this piece the gaps are linear in the ticks s = 0 .. len since tick k
+            int dx = xa.value() - xb.value(), vx = xa.slope() - xb.slope();
+            int dy = ya.value() - yb.value(), vy = ya.slope() - yb.slope();
+            long from = Math.max(first(dx, vx, 1 - sizeA, sizeB - 1), first(dy, vy, 1 - sizeA, sizeB - 1));
+            long to = Math.min(Math.min(lastOf(dx, vx, 1 - sizeA, sizeB - 1), lastOf(dy, vy, 1 - sizeA, sizeB - 1)), len);
+            from = Math.max(from, 0);
+            if (from <= to) {
+                addEvent(now + k + from, squares.getId(i), squares.getId(j), stamp);
+                return;
+            }
+            if (len == 0)
+                return;
+            xa.advance(len);
+            ya.advance(len);
+            xb.advance(len);
+            yb.advance(len);
+            k += len;
+        } // end while
+    } // end predict
+
+    // predict() for squares that may go several pixels on a tick, with the tracks set up.
+    // Walks the ticks of the window and queues the first one on which the pixels the two
+    // squares cross meet.  touched() compares points after the first to the last step of a
+    // tick, which are track steps done .. steps - 1, done being the steps of the ticks before.
+    private void predictSwept(SquareStore squares, int i, int j, long stamp) {
+        int sizeA = squares.getSize(i), sizeB = squares.getSize(j);
+        long last = windowEnd - now;
+        long doneA = 0, doneB = 0;
+        for (long k = 1; k <= last; k++) {
+            long stepsA = stepsBy(squares, i, k), stepsB = stepsBy(squares, j, k);
+            xa.span(doneA, stepsA - 1);
+            ya.span(doneA, stepsA - 1);
+            xb.span(doneB, stepsB - 1);
+            yb.span(doneB, stepsB - 1);
+            if (boxesMeet(xa.low, ya.low, xa.high + sizeA - 1, ya.high + sizeA - 1,
+                    xb.low, yb.low, xb.high + sizeB - 1, yb.high + sizeB - 1)) {
+                addEvent(now + k, squares.getId(i), squares.getId(j), stamp);
+                return;
+            }
+            doneA = stepsA;
+            doneB = stepsB;
+        } // end for
+    } // end predictSwept
+
+    // First s >= 0 at which low <= d + v * s <= high holds (Long.MAX_VALUE if never), and the
+    // last one (Long.MIN_VALUE if never, Long.MAX_VALUE if forever).  Only meaningful
+    // together: the answer is the range first .. last.
+    private static long first(int d, int v, int low, int high) {
+        if (v == 0)
+            return d >= low && d <= high ? 0 : Long.MAX_VALUE;
+        return v > 0 ? ceilDiv(low - d, v) : ceilDiv(high - d, v);
+    } // end first
+
+    private static long lastOf(int d, int v, int low, int high) {
+        if (v == 0)
+            return d >= low && d <= high ? Long.MAX_VALUE : Long.MIN_VALUE;
+        return v > 0 ? Math.floorDiv(high - d, v) : Math.floorDiv(low - d, v);
+    } // end lastOf
+
+    private static long ceilDiv(int a, int b) {
+        return -Math.floorDiv(-a, b);
+    } // end ceilDiv
+
+    private void addEvent(long tick, int older, int newer, long stamp) {
+        if (eventCount == eventOlder.length) {
+            int capacity = 2 * eventCount;
+            eventOlder = Arrays.copyOf(eventOlder, capacity);
+            eventNewer = Arrays.copyOf(eventNewer, capacity);
+            eventNext = Arrays.copyOf(eventNext, capacity);
+            eventStamp = Arrays.copyOf(eventStamp, capacity);
+        }
+        int bucket = (int) (tick % bucketHead.length);
+        eventOlder[eventCount] = older;
+        eventNewer[eventCount] = newer;
+        eventStamp[eventCount] = stamp;
+        eventNext[eventCount] = bucketHead[bucket];
+        bucketHead[bucket] = eventCount;
+        eventCount++;
+    } // end addEvent
+
+    private void addFlagged(int i) {
+        if (flaggedCount == flagged.length)
+            flagged = Arrays.copyOf(flagged, 2 * flaggedCount);
+        flagged[flaggedCount++] = i;
+    } // end addFlagged
+
+    // Returns the position of the square with the given id in the store, or -1 if it's gone.
+    // The store is in id order.
+    private static int indexOf(SquareStore squares, int id) {
+        int low = 0, high = squares.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int other = squares.getId(middle);
+            if (other < id)
+                low = middle + 1;
+            else if (other > id)
+                high = middle - 1;
+            else
+                return middle;
+        } // end while
+        return -1;
+    } // end indexOf
+
+    private static boolean boxesMeet(int l1, int t1, int r1, int b1, int l2, int t2, int r2, int b2) {
+        return l1 <= r2 && l2 <= r1 && t1 <= b2 && t2 <= b1;
+    } // end boxesMeet
+
+} // end class KineticCollisionEngine
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+
+/**
+ * A MergeSet counts the squares each survivor of a tick absorbed, so that CollisionEngine
+ * can change its color once at the end of the tick instead of after each collision.
+ *
+ * The squares of a tick are resolved in store order, and a square absorbed by an older one
+ * is gone before its own turn comes, so it never absorbs anything itself.  The merges of a
+ * tick are therefore just survivors, each with the squares it absorbed directly: a count per
+ * survivor is all there is to keep, and the survivors are listed in the order they first
+ * absorbed a square, which is store order.
+ *
+ * Only the squares that absorbed others on the tick are touched, and clear() only resets
+ * those, so a quiet tick costs nothing whatever the number of squares.
+ *
+ */
+public class MergeSet {
+
+    // absorbed[i] is the number of squares square i absorbed since the last clear()
+    private int[] absorbed = new int[0];
+
+    // Squares that absorbed others since the last clear(), in the order they first did
+    private int survivorCount = 0;
+    private int[] survivors = new int[16];
+
+    // Makes room for a store of the given number of squares.  Only call between ticks.
+    public void ensureCapacity(int count) {
+        if (absorbed.length < count)
+            absorbed = Arrays.copyOf(absorbed, Math.max(count, 2 * absorbed.length));
+    } // end ensureCapacity
+
+    // Records that the older square absorbed one more square
+    public void add(int older) {
+        if (absorbed[older]++ == 0) {
+            if (survivorCount == survivors.length)
+                survivors = Arrays.copyOf(survivors, 2 * survivors.length);
+            survivors[survivorCount++] = older;
+        }
+    } // end add
+
+    // Number of squares that absorbed others since the last clear()
+    public int getSurvivorCount() {
+        return survivorCount;
+    } // end getSurvivorCount
+
+    // Returns the k-th square that absorbed others since the last clear()
+    public int getSurvivor(int k) {
+        return survivors[k];
+    } // end getSurvivor
+
+    // Number of squares square i absorbed since the last clear()
+    public int getAbsorbed(int i) {
+        return absorbed[i];
+    } // end getAbsorbed
+
+    // Forgets every merge, ready for the next tick
+    public void clear() {
+        for (int k = 0; k < survivorCount; k++)
+            absorbed[survivors[k]] = 0;
+        survivorCount = 0;
+    } // end clear
+
+} // end class MergeSet
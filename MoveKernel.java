@@ -0,0 +1,67 @@
+/**
+ * A MoveKernel moves a range of squares for one tick, working straight on the columns of a
+ * SquareStore.  It is the loop of SquareStore.moveRange(): each square goes velocity[i]
+ * pixels (in 1/PIXEL of a pixel, the fraction carried over in progress[i]) one pixel at a
+ * time, and after each pixel, or once if it doesn't move, it is put back inside the panel
+ * and turned around if it was heading out, following the rules of Square.move().  The
+ * kernel also records where each square started along its axis of motion, its direction
+ * then and the number of pixels it went, for SquareStore.touched().
+ *
+ * Every kernel must leave the columns exactly as ScalarMoveKernel does.  Which one a store
+ * uses is picked once, by -Dmove.kernel:
+ *
+ *   SCALAR   the plain loop, always there
+ *   VECTOR   VectorMoveKernel, which moves a whole vector of squares per instruction with
+ *            the incubating Vector API.  It is compiled separately (see the README) and only
+ *            works when the JVM is started with --add-modules jdk.incubator.vector; without
+ *            either, the scalar kernel is used instead.
+ *
+ */
+public abstract class MoveKernel {
+
+    // Names accepted by create()
+    public static final String SCALAR = "scalar";
+    public static final String VECTOR = "vector";
+
+    // Class of the vector kernel, loaded by name so that the rest of the game builds and runs
+    // without jdk.incubator.vector
+    private static final String VECTOR_CLASS = "VectorMoveKernel";
+
+    // Used by every store, from -Dmove.kernel (default SCALAR)
+    private static MoveKernel defaultKernel = null;
+
+    // Creates the kernel with the given name, or the scalar one if that kernel can't be
+    // loaded here
+    public static MoveKernel create(String name) {
+        if (VECTOR.equals(name)) {
+            try {
+                return (MoveKernel) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                System.out.println("No vector move kernel (" + e + "), moving squares one at a time");
+            } catch (LinkageError e) {
+                System.out.println("No vector move kernel (" + e + "), moving squares one at a time;"
+                        + " run with --add-modules jdk.incubator.vector");
+            }
+        }
+        else if (!SCALAR.equals(name))
+            throw new IllegalArgumentException("Unknown move kernel: " + name);
+        return new ScalarMoveKernel();
+    } // end create
+
+    // Returns the kernel picked by -Dmove.kernel
+    public static synchronized MoveKernel getDefault() {
+        if (defaultKernel == null)
+            defaultKernel = create(System.getProperty("move.kernel", SCALAR));
+        return defaultKernel;
+    } // end getDefault
+
+    // Name of the kernel, as given to create()
+    public abstract String getName();
+
+    // Moves squares from .. to-1 of the columns for one tick, in a panel of the given size.
+    // Squares move independently, so separate ranges can be moved by separate threads.
+    public abstract void move(int[] x, int[] y, int[] size, byte[] direction, boolean[] moving,
+            int[] velocity, short[] progress, int[] fromPosition, byte[] fromDirection, byte[] steps,
+            int from, int to, int panelWidth, int panelHeight);
+
+} // end class MoveKernel
@@ -2,17 +2,16 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -26,68 +25,69 @@ import java.util.Collections;
  * This class was written and modified from the class MovingShapes given by Margaret Lamb. 
  * 
  */
-public class MovingShapes extends JFrame implements ActionListener {
+public class MovingShapes extends JFrame implements SimulationEngine.Listener {
 
 	//Constants
-    private static final int GREEN_SCORE = 1;
-    private static final int BLUE_SCORE = 2;
-    private static final int RED_SCORE = 3;
-    private static final int GRAY_SCORE = 4;
-    private static final int BLACK_SCORE = -1;
-    
     private final int FIRST_BACKGROUND = 1; 
     private final int LAST_BACKGROUND = 5;
     
-    private final static String FILE_NAME = "scores.ser";
 
     // Initial dimensions of the inner panel.  The user can change the size of the frame while
     // the program is running.
     private static final int INITIAL_PANEL_WIDTH = 600;
     private static final int INITIAL_PANEL_HEIGHT = 400;
 
-    // Sequence of colors for squares -- they start at the first color
-    // and move to the next after each collision until they reach the last
-    // private static final Color squareColors[] = {Color.GREEN, Color.BLUE, Color.RED, Color.GRAY, Color.BLACK};
-    private static final Color squareColors[] = {Color.GREEN, Color.BLUE, Color.RED, Color.GRAY, Color.BLACK};
-    private static final Color INITIAL_COLOR = squareColors[0];
-    private static final Color LAST_COLOR = squareColors[squareColors.length-1];
-
-    // Number of pixels a square grows after each collision
-    private final int SIZE_INCREMENT = 10;
-
-    //Instancewide static variables, generally static for ease of access from Square class
-    private static boolean isPaused = false;
-    private static boolean doge = false;
-    private static int finalScore = 0;
+    // The doge image is the same for every game, so it's only read once
     private static Image dogeImage;
-    private static int highestScore = 0;
-
-    // initial size for squares
-    private int INITIAL_SQUARE_SIZE = 20;
-    
-    // Count of number of ticks until it's time to create a new square
-    private int creationCountdown = 0;
-    // Number of ticks between creation of new squares.  If you want fewer or more shapes,
-    // you can change this number.
-    private int CREATION_INTERVAL = 300; // 3 seconds
-    private String name = null;
-
+    // The doge image scaled to each square size, loaded in the background
+    private static final SpriteCache dogeSprites = new SpriteCache(new Callable<Image>() {
+        public Image call() {
+            return getDogeImage();
+        }
+    });
 
-    // A timer to "tick" every 20 milliseconds (or as close to that as the system can manage).
-    // If you want the program to run slower while you're debugging, just increase the 20 to
-    // a larger number.
-    private Timer timer = new Timer(20, this);
+    // The high scores, shared with any other game running in this JVM
+    private final ScoreService scoreService = ScoreService.getDefault();
 
-    // A list of the squares showing in the window.  We'll be talking about the ArrayList class soon;
-    // it's like a Python list.
-    private ArrayList<Square> squareList = new ArrayList<Square>();
+    // The game itself: the squares and the player's score, name and pause state.  Its
+    // engine runs on a thread of its own, ticking every 20 milliseconds (or as close to that
+    // as the system can manage), and hands us a snapshot of the squares to paint after each
+    // tick.  Run with -Dcollisions=naive to use the original pairwise collision loop instead
+    // of the grid, and with -Dcheckpoint=file to pick up the game saved in the file.
+    private World world = createWorld();
+    private SimulationEngine engine = world.getEngine();
+    // Picks the background colors, from a stream of the world's seed
+    private final SplittableRandom backgrounds = GameRandom.stream(engine.getSeed(), GameRandom.BACKGROUND_STREAM);
 
     // Pointer to the main frame of the program (for referencing from inside inner classes)
     private JFrame thisFrame = this;
     
+    // Paints the squares into the inner area.  Only the part of the panel that changed
+    // since the last snapshot is repainted; run with -Drepaint.overlay=true to see how many
+    // pixels that is.
+    private final SquareRenderer renderer = new SquareRenderer(Boolean.getBoolean("repaint.overlay"));
+
     // The inner area of the window -- the part that can contain squares (doesn't include
-    // title, menu bar, and borders)
-    private MovingSquarePanel innerPanel = new MovingSquarePanel();
+    // title, menu bar, and borders).  Normally a Swing panel, repainted through the
+    // RepaintManager.  Run with -Drender.active=true to paint a canvas from a RenderLoop
+    // instead, -Drender.fps times a second (default 60).
+    private final boolean activeRendering = Boolean.getBoolean("render.active");
+    private Component innerPanel = activeRendering ? new MovingSquareCanvas() : new MovingSquarePanel();
+    private RenderLoop renderLoop;
+
+    // With -Dworld.size=WIDTHxHEIGHT the world has that size whatever the size of the window,
+    // and the window is a camera on it: drag with the right button to scroll, turn the wheel
+    // to zoom.  -Dworld.squares=n fills it with n squares to start with.
+    private final Camera camera = createCamera();
+
+    // true while a call to show the latest snapshot is waiting on the Swing thread
+    private final AtomicBoolean updatePending = new AtomicBoolean(false);
+
+    // What happens in the game, read on a thread of its own by EventReader: the score label
+    // and the end of the game are driven from there, never from the engine thread
+    private final GameEvents events = new GameEvents();
+    // true while a call to show the score is waiting on the Swing thread
+    private final AtomicBoolean scorePending = new AtomicBoolean(false);
 
     //Additional panels
     private JPanel scorePanel = new JPanel();
@@ -112,20 +112,60 @@ public class MovingShapes extends JFrame implements ActionListener {
         setTitle("Moving Squares"); 
         // Make sure program cleans itself up when the user closes the window
         setDefaultCloseOperation(EXIT_ON_CLOSE); 
+        // Start reading the doge image now so it's ready if the player goes negative
+        dogeSprites.preload();
+        // Run with -Drecord=file to record the game, so it can be played again with SessionReplayer
+        String recording = System.getProperty("record");
+        if (recording != null && engine.getTickCount() == 0)
+            engine.setRecorder(new SessionRecorder(new File(recording)));
+        else if (recording != null)
+            System.out.println("Not recording: a game picked up from a checkpoint can't be replayed");
+        // With -Dcheckpoint=file, save the game to the file every -Dcheckpoint.ticks ticks
+        // (default 500, 10 seconds)
+        String checkpoint = System.getProperty("checkpoint");
+        if (checkpoint != null)
+            world.setCheckpoints(new CheckpointFile(new File(checkpoint)),
+                    Integer.getInteger("checkpoint.ticks", 500));
+        // Run with -Dspectate=port to let a Spectator on this machine watch the game (or
+        // -Dspectate=file to write it to a file for one)
+        String spectate = System.getProperty("spectate");
+        if (spectate != null) {
+            try {
+                engine.setSpectatorStream(SpectatorStream.open(spectate));
+            } catch (IOException e) {
+                System.out.println("Can't stream the game to " + spectate + ": " + e);
+            }
+        }
+        // Run with -Dmetrics=true to measure every tick and frame (as JFR events too), and
+        // with -Dmetrics.hud=true to also see them over the squares
+        if (Boolean.getBoolean("metrics") || Boolean.getBoolean("metrics.hud"))
+            engine.setMetrics(new TickMetrics());
+        if (Boolean.getBoolean("metrics.hud"))
+            renderer.setHud(engine.getMetrics());
+        if (camera != null) {
+            world.resize(camera.getWorldWidth(), camera.getWorldHeight());
+            renderer.setCamera(camera);
+            engine.setView(camera.getVisibleArea());
+            CameraMover mover = new CameraMover();
+            innerPanel.addMouseListener(mover);
+            innerPanel.addMouseMotionListener(mover);
+            innerPanel.addMouseWheelListener(mover);
+            if (engine.getTickCount() == 0)
+                engine.populate(Integer.getInteger("world.squares", 0));
+        }
         // Make the inner panel part of the window and specify its initial size
         getContentPane().add(innerPanel);
         // Add a "listener" to react every time the size of the window is changed.
         innerPanel.addComponentListener(new Resizer());
         innerPanel.setPreferredSize(new Dimension(INITIAL_PANEL_WIDTH, INITIAL_PANEL_HEIGHT));
-        innerPanel.setBorder(BorderFactory.createLineBorder(Color.BLUE, 2));
-        // Specify that the actionPerformed method will be called each time the timer ticks
-        timer.addActionListener(this);
+        if (innerPanel instanceof JComponent)
+            ((JComponent) innerPanel).setBorder(BorderFactory.createLineBorder(Color.BLUE, 2));
         innerPanel.addMouseListener(new ClickListener());
         PauseButton.addMouseListener(new ButtonListener());
         // If the stop button is pressed, the program will exit
         StopButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                timer.stop();
+                engine.stop();
                 System.exit(0);
             }
         });
@@ -152,7 +192,7 @@ public class MovingShapes extends JFrame implements ActionListener {
         //randomizes the background
         BackgroundButton.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent e) {
             // yellow, cyan, magenta, purple, white 
-            int randomBackground = FIRST_BACKGROUND + (int)(Math.random() * LAST_BACKGROUND); 
+            int randomBackground = FIRST_BACKGROUND + (int)(backgrounds.nextDouble() * LAST_BACKGROUND); 
             if (randomBackground == 1) 
                 innerPanel.setBackground(Color.YELLOW); 
             else if (randomBackground == 2) 
@@ -172,85 +212,69 @@ public class MovingShapes extends JFrame implements ActionListener {
         thisFrame.getContentPane().add(ActionButtons, BorderLayout.EAST);
         thisFrame.getContentPane().add(BackgroundPanel, BorderLayout.WEST);
 
-        // Now that everything's set up, show the window on the screen and start the timer
+        // a game picked up from a checkpoint has a score already; after this the score
+        // label follows the game's SCORE events
+        showScore();
+
+        // Now that everything's set up, show the window on the screen and start the game
         pack(); 
         setVisible(true); 
-        timer.start();
+        if (activeRendering) {
+            renderLoop = new RenderLoop((Canvas) innerPanel, (MovingSquareCanvas) innerPanel,
+                    Integer.getInteger("render.fps", RenderLoop.DEFAULT_FPS));
+            renderLoop.setMetrics(engine.getMetrics());
+            renderLoop.start();
+        }
+        engine.setEvents(events);
+        events.subscribe("window", new EventReader());
+        engine.start(this);
     } // end MovingShapes
 
 
-    // This method is called each time the timer "ticks".  It updates the position of every
-    // square, creates a new square if it's time, and handles collisions.
-    public void actionPerformed(ActionEvent e) {
-        /***** Make each square move.  *****/
-        // The square itself will know what direction it needs to move and what to do if it 
-        // hits the boundary of the panel.  All we need to do here is tell it to move.
-        for (Square square: squareList) 
-            square.move(); 
-        // Search for collisions.  When a pair of collide, the newer one disappears and the
-        // older one grows and changes color (unless it's already black)
-        for (int i = 0; i < squareList.size(); i++) {
-            Square squareA = squareList.get(i);
-            for (int j = i+1; j < squareList.size(); j++) {
-                Square squareB = squareList.get(j);
-                /* see if the two squares are have collided */
-                if (Square.overlap(squareA,squareB)) {
-                    // Get rid of squareB
-                    squareList.remove(j);
-                    j--; // so that we won't skip checking the next square
-                    // squareA grows & changes to next color unless it's already at the last color (black)
-                    squareA.grow(SIZE_INCREMENT);
-                    Color colorA = squareA.getColor();
-                    boolean found = false;
-                    for (int colorIndex = 0; !found && colorIndex < squareColors.length-1; colorIndex++) {
-                        if (colorA == squareColors[colorIndex]) {
-                            colorA = squareColors[colorIndex+1];
-                            squareA.setColor(colorA);
-                            found = true;
-                        } // end if
-                    } // end for
-                    if (colorA == LAST_COLOR)
-                        squareA.stop();
-                } // end if
-            } // end for
-
-        } // end for
-        // If it's time to create a new square, do that, but make sure it doesn't appear
-        // on top of an existing square.  If the screen is so full that this can't be done
-        // after the maximum number of tries, the program ends.
-        final int MAX_TRIES = 100; // number of times we try to create a new square before giving up
-        if (creationCountdown == 0) {
-            int tries = 0; // number of times we try to create a new square in a place
-            boolean success = false; // becomes true when we've successfully created a new square that doesn't overlap with an older one
-            Square newSquare = null; 
-            while (!success && tries < MAX_TRIES) {
-                newSquare = new Square(INITIAL_SQUARE_SIZE, INITIAL_COLOR); // square constructor picks a random direction and position
-                // See if the new square overlaps any of the others
-                boolean hasOverlap = false; // true if the new square overlaps with an existing one
-                for (int i = 0; i < squareList.size() && !hasOverlap; i++) {
-                    if (Square.overlap(squareList.get(i),newSquare)) {
-                        hasOverlap = true;
-                    } // end if
-                } // end for
-                if (!hasOverlap) {
-                    success = true;
-                    break;
+    // This method is called by the engine thread after each tick.  The squares have already
+    // been moved, collided and created; all that's left is to show them.
+    public void tickFinished(Snapshot snapshot) {
+        // Tell the inner panel to re-display its contents according to the 
+        // latest snapshot of the squares
+        snapshotArrived();
+    } // end tickFinished
+
+    // Called (on any thread) when the engine has a new snapshot.  The panel is updated on
+    // the Swing thread; if it is behind, several snapshots collapse into one.  The canvas
+    // needs no telling: its render loop picks up the snapshots by itself.
+    private void snapshotArrived() {
+        if (!activeRendering && updatePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    updatePending.set(false);
+                    ((MovingSquarePanel) innerPanel).showLatest();
                 }
-                else {
-                    tries++;
-                } // end if
-            } // end while
-            if (success) {
-                squareList.add(newSquare); 
-                creationCountdown = CREATION_INTERVAL;
-                // re-start count until time to add another shape
-                if (CREATION_INTERVAL > 20){
-                    CREATION_INTERVAL--;
+            });
+        }
+    } // end snapshotArrived
+
+    // Called (on any thread) when the score has changed.  Several changes before the Swing
+    // thread gets to it are shown at once.
+    private void scoreChanged() {
+        if (scorePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    scorePending.set(false);
+                    showScore();
                 }
-            }
-            else {
+            });
+        }
+    } // end scoreChanged
+
+    // Called by the EventReader when the screen is so full that a new square can't be
+    // created: the game is over.
+    private void gameOver() {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
                 // Could not create a new square without overlapping with another: end program.
-                if (doge){
+                if (renderLoop != null)
+                    renderLoop.stop();
+                if (world.isDogeMode()){
                     JOptionPane.showMessageDialog(thisFrame, "WOW, SUCH LOSS.");
                     JOptionPane.showMessageDialog(thisFrame, "MANY DOGE");
                     JOptionPane.showMessageDialog(thisFrame, "MUCH POINTS");
@@ -259,108 +283,68 @@ public class MovingShapes extends JFrame implements ActionListener {
                 } else {
                 	JOptionPane.showMessageDialog(thisFrame, "SCREEN IS TOO FULL; DISPLAYING HISCORES");
                 }
-                timer.stop();
-				hiScores(name, finalScore);
-				this.setVisible(false);
-            } // end if
-        }
-        else {
-            creationCountdown--;
-        } // end if
-
-        // Tell the inner panel to re-display its contents according to the 
-        // updated list of squares
-        innerPanel.repaint();
-
-    } // end actionPerformed
+				hiScores(world.getName(), world.getScore());
+				thisFrame.setVisible(false);
+            }
+        });
+    } // end gameOver
     
     
-    private void hiScores(String userName, int userScore) {
-		ArrayList<ScoreObject> scores = getScoresFromFile();
-		scores.add(new ScoreObject(userName, userScore));
-		Collections.sort(scores);
-		scores.remove(scores.size()-1);
-		ScoreBoard scoreBoard = new ScoreBoard(scores);
-		saveToFile(scores);
-	}
-
-
-	private void saveToFile(ArrayList<ScoreObject> scores) {
-		FileOutputStream fos = null;
-		ObjectOutputStream out = null;
-		try {
-			fos = new FileOutputStream(FILE_NAME);
-			out = new ObjectOutputStream(fos);
-			out.writeObject(scores);
-			out.close();
-		} catch (Exception ex) {
-			System.out.println("Saving file failed! Unexpected Error.");
-		}	
-	}
-
+    // Returns the camera for -Dworld.size, or null if the world is the panel
+    private static Camera createCamera() {
+        String size = System.getProperty("world.size");
+        if (size == null)
+            return null;
+        String[] sides = size.toLowerCase().split("x");
+        int width = Integer.parseInt(sides[0].trim());
+        int height = Integer.parseInt(sides[sides.length - 1].trim());
+        return new Camera(width, height);
+    } // end createCamera
+
+    // Creates the game: the one saved in the -Dcheckpoint file if there is one that isn't
+    // over yet, a new one otherwise
+    private static World createWorld() {
+        CollisionEngine collisions = CollisionEngine.create(
+                System.getProperty("collisions", CollisionEngine.GRID), SimulationEngine.SIZE_INCREMENT);
+        String checkpoint = System.getProperty("checkpoint");
+        if (checkpoint != null && new File(checkpoint).exists()) {
+            try {
+                World.State state = CheckpointFile.read(new File(checkpoint));
+                if (!state.getKeyframe().isGameOver()) {
+                    World restored = new World(collisions, state.getKeyframe().getSeed());
+                    restored.loadState(state);
+                    restored.setPaused(false);
+                    return restored;
+                }
+            } catch (IOException e) {
+                System.out.println("Couldn't pick up the game in " + checkpoint + ": " + e);
+            }
+        }
+        return new World(collisions, Long.getLong("seed", new Random().nextLong()));
+    } // end createWorld
 
-	private ArrayList<ScoreObject> getScoresFromFile() {
-		ArrayList<ScoreObject> scores = new ArrayList<ScoreObject>();
-		FileInputStream fis = null;
-		ObjectInputStream in = null;
-		try {
-			fis = new FileInputStream(FILE_NAME);
-			in = new ObjectInputStream(fis);
-			scores = (ArrayList<ScoreObject>) in.readObject();
-			in.close();
-		} catch (Exception ex) {
-			System.out.println("Reading file failed! Defaulting scores.");
-			scores = new ArrayList<ScoreObject>();
-			scores.add(new ScoreObject("Anonymous", -1));
-			scores.add(new ScoreObject("Anonymous", -1));
-			scores.add(new ScoreObject("Anonymous", -1));
-			scores.add(new ScoreObject("Anonymous", -1));
-			scores.add(new ScoreObject("Anonymous", -1));
-		}
-		return scores;
+    // Records the score, then shows the best scores once they have been read.  The file
+    // work happens in the background, so the window stays responsive.
+    private void hiScores(String userName, int userScore) {
+		scoreService.submit(userName, userScore, new ScoreService.Listener() {
+			public void scoresRead(ArrayList<ScoreObject> scores) {
+				ScoreBoard scoreBoard = new ScoreBoard(scores);
+			}
+		});
 	}
 
-    //returns true if the game is paused
-    public static boolean getIsPaused() {
-        return isPaused;
-    } // end getIsPaused
-
-    //After you click a Square, it adds however much that Square is worth to your existing points
-    public void score(Color squareColor) {
-        if (isPaused == false){
-            if (squareColor == Color.GREEN) {
-                finalScore += GREEN_SCORE; 
-            } else if (squareColor == Color.BLUE) {
-                finalScore += BLUE_SCORE; 
-            }else if (squareColor == Color.RED) {
-                finalScore += RED_SCORE; 
-            }else if (squareColor == Color. GRAY) { 
-                finalScore += GRAY_SCORE; 
-            }else if (squareColor == Color.BLACK) { 
-                finalScore += BLACK_SCORE;
-            }
-            }
-        //if you get negative points, you will go into "doge mode"
-        if (finalScore < 0){ 
-            doge = true; 
-        }
+    //After you click a Square, shows your new score
+    private void showScore() {
         //changes the score label once you add your name
-        if (name == null){
-            scoreLabel.setText("Your score is "+finalScore); 
+        if (world.getName() == null){
+            scoreLabel.setText("Your score is "+world.getScore()); 
         }else{
-            scoreLabel.setText(name+", your score is "+finalScore); 
+            scoreLabel.setText(world.getName()+", your score is "+world.getScore()); 
         }
-        if (finalScore > highestScore)
-			highestScore = finalScore;
-    } // end score
-    
-    //returns true if in "doge mode" (negative points)
-    public static boolean getDogeMode(){
-        return doge;
-    } // end getDogeMode
+    } // end showScore
 
     //Gets the doge image from the project folder
-    public static Image getDogeImage(){
+    public static synchronized Image getDogeImage(){
         //If you have already gotten the image, use the existing image
         if (dogeImage != null) {
             return dogeImage;
@@ -376,6 +360,18 @@ public class MovingShapes extends JFrame implements ActionListener {
         return dogeImage;
     } // end getDogeImage
 
+    //Returns the doge image already scaled to the given square size, or null if it
+    //hasn't finished loading
+    public static Image getDogeSprite(int size){
+        return dogeSprites.get(size);
+    } // end getDogeSprite
+
+    // Returns true while the doge image is still being read, so that getDogeSprite() may
+    // return a sprite later where it returns null now
+    public static boolean isDogeLoading() {
+        return dogeSprites.isLoading();
+    } // end isDogeLoading
+
     // This is an inner class that specifies what should happen if the window is resized.
     // Its componentResized method will be called at the start of the program and then
     // each time the user re-sizes the window.
@@ -386,30 +382,108 @@ public class MovingShapes extends JFrame implements ActionListener {
             int panelWidth = innerPanel.getWidth();
             int panelHeight = innerPanel.getHeight();
 
-            // Tell the Square class that the size of its enclosing panel has changed 
-            Square.setPanelDimensions(panelWidth, panelHeight);
-
-            for(Square square:squareList){
-                square.fixBounds();
+            // Tell the game that the size of its enclosing panel has changed, unless the
+            // world has a size of its own: then only the camera's view changes
+            if (camera != null) {
+                camera.setViewSize(panelWidth, panelHeight);
+                engine.setView(camera.getVisibleArea());
             }
+            else
+                world.resize(panelWidth, panelHeight);
+            snapshotArrived();
 
         } // end componentResized
     } // end Resizer
 
 
     // This is an inner class for the inner panel.  It adds knowledge about how to "paint" the
-    // contents of the panel to the standard JPanel class
+    // contents of the panel to the standard JPanel class.
     private class MovingSquarePanel extends JPanel {
-        // This method describes how to "paint" the squares inside the panel
+
+        // Hands the renderer the latest snapshot and repaints what changed, one area at a
+        // time: repaint() would merge the areas into the rectangle around all of them.
+        // Called on the Swing thread.
+        public void showLatest() {
+            renderer.setDogeMode(world.isDogeMode());
+            Rectangle changed = renderer.update(engine.getSnapshot());
+            if (changed == null)
+                repaint();
+            else {
+                for (int k = 0; k < renderer.getDirtyCount(); k++)
+                    paintImmediately(renderer.getDirty(k));
+            }
+        } // end showLatest
+
+        // This method describes how to "paint" the squares inside the panel.  The renderer
+        // paints the background too, so there's no need for the default panel drawing.
         public void paintComponent(Graphics gc) {
-            super.paintComponent(gc); // default panel drawing
-            // draw each square in the panel
-            for (Square square: squareList) {
-                square.paint(gc);
-            } // end for
+            TickMetrics metrics = engine.getMetrics();
+            if (metrics != null)
+                metrics.paintStarted();
+            // draw the squares in the panel, as of the last snapshot
+            renderer.paint(gc, getWidth(), getHeight(), getBackground());
+            if (metrics != null) {
+                Rectangle clip = gc.getClipBounds();
+                Snapshot shown = engine.getSnapshot();
+                metrics.paintFinished(shown != null ? shown.getTick() : 0,
+                        clip != null ? (long) clip.width * clip.height : (long) getWidth() * getHeight());
+            }
         } // end paintComponent  
     } // end class MovingSquarePanel
 
+    // The inner area when it is painted actively: a canvas that the render loop repaints
+    // whole at every frame.  The engine is drawn one tick behind, so that each frame can show
+    // the squares part of the way between the last two ticks.
+    private class MovingSquareCanvas extends Canvas implements RenderLoop.Painter {
+        // The snapshot last handed to the renderer
+        private Snapshot shown;
+
+        public MovingSquareCanvas() {
+            setBackground(UIManager.getColor("Panel.background"));
+        } // end MovingSquareCanvas
+
+        public void paintFrame(Graphics2D gc, int width, int height, long now) {
+            TickMetrics metrics = engine.getMetrics();
+            if (metrics != null)
+                metrics.paintStarted();
+            Snapshot latest = engine.getSnapshot();
+            if (latest != shown) {
+                renderer.setDogeMode(world.isDogeMode());
+                renderer.update(latest);
+                shown = latest;
+            }
+            if (latest != null)
+                renderer.interpolate((now - latest.getTime()) / (SimulationEngine.TICK_DELAY * 1e6));
+            renderer.paint(gc, width, height, getBackground());
+            if (metrics != null)
+                metrics.paintFinished(latest != null ? latest.getTick() : 0, (long) width * height);
+        } // end paintFrame
+    } // end class MovingSquareCanvas
+
+    // Reads the game's events on a thread of its own and hands the window what it needs
+    // from them.  If events were lost the world itself is looked at, so a slow reader can't
+    // miss the end of the game.
+    private class EventReader implements GameEvents.Consumer {
+        private boolean over = false;
+
+        public void eventsArrived(GameEvents.Batch batch) {
+            boolean scored = batch.getDropped() > 0;
+            boolean ended = batch.getDropped() > 0 && world.isGameOver();
+            for (int k = 0; k < batch.size(); k++) {
+                if (batch.getType(k) == GameEvents.SCORE)
+                    scored = true;
+                else if (batch.getType(k) == GameEvents.GAME_OVER)
+                    ended = true;
+            } // end for
+            if (scored)
+                scoreChanged();
+            if (ended && !over) {
+                over = true;
+                gameOver();
+            }
+        } // end eventsArrived
+    } // end class EventReader
+
     //Creates the field for where you enter your name in the JFrame
     private class NameTextField extends JTextField {
         //Watches the text field, so when something is entered the program will know
@@ -418,8 +492,8 @@ public class MovingShapes extends JFrame implements ActionListener {
         } // end NameTextField
         //After the name is entered, reset the score label to include their name
         public void enterCallBack(){
-            name = this.getText();
-            scoreLabel.setText(name+", your score is "+finalScore); 
+            world.setName(this.getText());
+            showScore();
             this.setVisible(false);
             this.getTopLevelAncestor().repaint();
         } // end enterCallBack
@@ -430,19 +504,15 @@ public class MovingShapes extends JFrame implements ActionListener {
     public class ButtonListener extends MouseAdapter {
         @Override
         public void mouseClicked(MouseEvent e) {
-            if (isPaused == true) {
-                timer.start();
+            if (world.isPaused()) {
+                world.setPaused(false);
                 //Makes the button say "Pause" after the game is resumed
                 PauseButton.setText("Pause");
-                isPaused = false;
             }
             else {
-                if (isPaused == false) {
-                    isPaused = true;
-                    timer.stop();
-                    //Makes the button say "resume" once it has been pressed
-                    PauseButton.setText("Resume");
-                }
+                world.setPaused(true);
+                //Makes the button say "resume" once it has been pressed
+                PauseButton.setText("Resume");
             }
         } // end mouseClicked
     }// end ButtonListener
@@ -455,38 +525,50 @@ public class MovingShapes extends JFrame implements ActionListener {
         public void mousePressed(MouseEvent event) {
             int x = event.getX();
             int y = event.getY();
-            for (int i = 0; i < squareList.size(); i++){
-                if (isPaused == false) {
-                    if (squareList.get(i).inside(x,y)){
-                        score(squareList.get(i).getColor());
-                        squareList.remove(i);
-                        if((finalScore/3 >= 1) && timer.getDelay() > 16){
-                            timer.setDelay(16); // makes the squares go faster if final score > 3
-                            if (CREATION_INTERVAL > 50){
-                                CREATION_INTERVAL -= 50; //decreases the time between spawns
-                            }
-                        } else if (finalScore/3/3 >= 1 && timer.getDelay() > 12){
-                            timer.setDelay(12); // makes the squares go faster if final score > 9
-                            if (CREATION_INTERVAL > 50){
-                                CREATION_INTERVAL -= 50; //decreases the time between spawns
-                            }
-                        } else if (finalScore/3/3/3 >= 1 && timer.getDelay() > 8){
-                            timer.setDelay(8); // makes the squares go faster if final score > 27
-                            if (CREATION_INTERVAL > 50){
-                                CREATION_INTERVAL -= 50; //decreases the time between spawns
-                            }
-                        } else if (finalScore/3/3/3/3 >= 1 && timer.getDelay() > 4){
-                            timer.setDelay(4); // makes the squares go faster if final score > 81
-                            if (CREATION_INTERVAL > 50){
-                                CREATION_INTERVAL -= 50; //decreases the time between spawns
-                            }
-                        }
-                    }
-                }
+            if (camera != null) {
+                if (SwingUtilities.isRightMouseButton(event))
+                    return; // scrolling
+                x = camera.toWorldX(x);
+                y = camera.toWorldY(y);
             }
+            // the click is applied at the next tick, which scores the square clicked and
+            // makes the squares go faster and appear more often as the score goes up
+            world.click(x, y);
         } // end mousePressed
     } // end ClickListener
 
+    // Scrolls the camera when the panel is dragged with the right button, and zooms it in and
+    // out around the mouse with the wheel
+    private class CameraMover extends MouseAdapter {
+        private int lastX, lastY;
+
+        public void mousePressed(MouseEvent event) {
+            lastX = event.getX();
+            lastY = event.getY();
+        } // end mousePressed
+
+        public void mouseDragged(MouseEvent event) {
+            if (!SwingUtilities.isRightMouseButton(event))
+                return;
+            camera.scrollBy(lastX - event.getX(), lastY - event.getY());
+            lastX = event.getX();
+            lastY = event.getY();
+            viewMoved();
+        } // end mouseDragged
+
+        public void mouseWheelMoved(MouseWheelEvent event) {
+            camera.zoomAt(event.getX(), event.getY(), Math.pow(1.1, -event.getPreciseWheelRotation()));
+            viewMoved();
+        } // end mouseWheelMoved
+
+        // Tells the engine where the camera looks now, which publishes a new snapshot if the
+        // last one doesn't hold the squares there, and shows the latest
+        private void viewMoved() {
+            engine.setView(camera.getVisibleArea());
+            snapshotArrived();
+        } // end viewMoved
+    } // end class CameraMover
+
     //Listens for when the Enter Key is pressed
     public class EnterListener extends KeyAdapter{
 
@@ -501,6 +583,11 @@ public class MovingShapes extends JFrame implements ActionListener {
 
 
     public static void main(String args[]) {
+        // Without a display there is no window to show: just run the game headless
+        if (GraphicsEnvironment.isHeadless()) {
+            SimulationEngine.main(args);
+            return;
+        }
         // create an instance of this class and let it run
     	new MovingShapes();
 	} // end main
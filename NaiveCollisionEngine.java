@@ -0,0 +1,35 @@
+/**
+ * The original collision search: every pair of squares is checked, so a tick costs
+ * O(n^2) overlap tests.  Kept as the reference the other engines are compared against.
+ *
+ */
+public class NaiveCollisionEngine extends CollisionEngine {
+
+    public NaiveCollisionEngine(int sizeIncrement) {
+        super(sizeIncrement);
+    } // end NaiveCollisionEngine
+
+    // Search for collisions.  When a pair of collide, the newer one disappears and the
+    // older one grows and changes color (unless it's already black).  The squares that
+    // disappear are only marked during the search and all removed at the end, rather than
+    // shifting the rest of the store down at each collision.
+    public void resolve(SquareStore squares) {
+        long checks = 0;
+        int count = squares.size();
+        for (int i = 0; i < count; i++) {
+            if (squares.isDead(i))
+                continue;
+            for (int j = i+1; j < count; j++) {
+                if (squares.isDead(j))
+                    continue;
+                checks++;
+                /* see if the two squares are have collided */
+                if (squares.touched(i, j))
+                    merge(squares, i, j);
+            } // end for
+        } // end for
+        pairChecks += checks;
+        finishMerges(squares);
+    } // end resolve
+
+} // end class NaiveCollisionEngine
@@ -0,0 +1,240 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Collision search split between several threads, for very large numbers of squares.
+ *
+ * The tick is done in three steps:
+ *
+ *   1. The squares are moved in parallel, each thread taking a range of the store.  Squares
+ *      move independently of each other, so this is always safe.
+ *
+ *   2. The panel is cut into vertical strips and each strip is searched by its own task.  A
+ *      strip owns the squares whose left edge falls inside it, and for each of them checks
+ *      (read only) whether it touched any newer square.  Squares that cross into the next
+ *      strip need no special treatment: the grid covers the whole panel, so the owner of the
+ *      older square of a pair always sees the newer one, whichever strip it belongs to.
+ *
+ *   3. The collisions are resolved in one ordered pass over the flagged squares, exactly as
+ *      in GridCollisionEngine, and the absorbed squares are removed in one compaction.
+ *
+ * Step 3 gives the same result as the serial engines because a square that doesn't overlap
+ * any newer square after moving can't absorb anything: the newer squares only grow after
+ * their own turn, and it only grows during its own.  So the serial pass can skip it.
+ *
+ * Below the threshold the tick is done on the calling thread just like GridCollisionEngine,
+ * since handing a few thousand squares to other threads costs more than it saves.
+ *
+ */
+public class ParallelCollisionEngine extends CollisionEngine {
+
+    // Number of squares below which the tick isn't split between threads
+    public static final int DEFAULT_THRESHOLD = 5000;
+
+    // Smallest number of squares moved by one task
+    private static final int MOVE_CHUNK = 4096;
+
+    // Number of strips per thread, so that a thread whose strips are crowded doesn't hold
+    // the others up
+    private static final int STRIPS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int threshold;
+    private final SpatialHash grid = new SpatialHash();
+    private final GridCollisionEngine serial;
+
+    // flagged[i] is true if square i overlaps a newer square after moving
+    private boolean[] flagged = new boolean[0];
+
+    // The squares owned by strip s are stripItems[stripStart[s]] .. stripItems[stripStart[s+1]-1]
+    private int[] stripStart = new int[0];
+    private int[] stripItems = new int[0];
+
+    // Overlap tests done by the flag tasks, which run on several threads
+    private final AtomicLong flagChecks = new AtomicLong();
+
+    public ParallelCollisionEngine(int sizeIncrement, int threads, int threshold) {
+        super(sizeIncrement);
+        this.threads = Math.max(1, threads);
+        this.threshold = threshold;
+        this.pool = new ForkJoinPool(this.threads);
+        this.serial = new GridCollisionEngine(sizeIncrement);
+    } // end ParallelCollisionEngine
+
+    public int getThreads() {
+        return threads;
+    } // end getThreads
+
+    public int getThreshold() {
+        return threshold;
+    } // end getThreshold
+
+    // The serial engine below the threshold publishes its merges too
+    public void setEvents(GameEvents newEvents) {
+        super.setEvents(newEvents);
+        serial.setEvents(newEvents);
+    } // end setEvents
+
+    // The counters include the ticks done by the serial engine below the threshold
+    public long getPairChecks() {
+        return pairChecks + flagChecks.get() + serial.getPairChecks();
+    } // end getPairChecks
+
+    public long getCollisions() {
+        return collisions + serial.getCollisions();
+    } // end getCollisions
+
+    public void move(SquareStore squares, int panelWidth, int panelHeight) {
+        if (squares.size() < threshold || threads == 1)
+            squares.moveAll(panelWidth, panelHeight);
+        else
+            pool.invoke(new MoveTask(squares, 0, squares.size(), panelWidth, panelHeight));
+    } // end move
+
+    public void resolve(SquareStore squares) {
+        int count = squares.size();
+        if (count < threshold || threads == 1) {
+            serial.resolve(squares);
+            return;
+        }
+        int margin = squares.getSweepMargin();
+        grid.build(squares);
+
+        // Step 2: flag, strip by strip, the squares that overlap a newer one
+        int strips = threads * STRIPS_PER_THREAD;
+        assignStrips(squares, strips);
+        if (flagged.length < count)
+            flagged = new boolean[count];
+        pool.invoke(new FlagTask(squares, 0, strips));
+
+        // Step 3: resolve the flagged squares in order
+        SpatialHash.Query query = new SpatialHash.Query();
+        long checks = 0;
+        for (int i = 0; i < count; i++) {
+            if (!flagged[i] || squares.isDead(i))
+                continue;
+            int last = i; // every square up to here has already been checked against square i
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                int x = squares.getX(i);
+                int y = squares.getY(i);
+                int size = squares.getSize(i);
+                int found = grid.query(x - margin, y - margin, x + size - 1 + margin,
+                        y + size - 1 + margin, query);
+                int[] candidates = query.getResult();
+                for (int k = 0; k < found && !grew; k++) {
+                    int j = candidates[k];
+                    if (j <= last || squares.isDead(j))
+                        continue;
+                    checks++;
+                    if (squares.touched(i, j)) {
+                        merge(squares, i, j);
+                        last = j;
+                        grew = true; // look again with the new size
+                    } // end if
+                } // end for
+            } // end while
+        } // end for
+
+        pairChecks += checks;
+        finishMerges(squares);
+    } // end resolve
+
+    // Sorts the squares into the given number of vertical strips by their left edge
+    private void assignStrips(SquareStore squares, int strips) {
+        int count = squares.size();
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, squares.getX(i));
+            maxX = Math.max(maxX, squares.getX(i));
+        } // end for
+        int width = (int) (((long) maxX - minX) / strips + 1);
+
+        if (stripStart.length < strips + 1)
+            stripStart = new int[strips + 1];
+        for (int s = 0; s <= strips; s++)
+            stripStart[s] = 0;
+        for (int i = 0; i < count; i++)
+            stripStart[(squares.getX(i) - minX) / width + 1]++;
+        for (int s = 0; s < strips; s++)
+            stripStart[s + 1] += stripStart[s];
+
+        // fill, using stripStart[s] as the fill position of strip s, then shift back
+        if (stripItems.length < count)
+            stripItems = new int[count];
+        for (int i = 0; i < count; i++)
+            stripItems[stripStart[(squares.getX(i) - minX) / width]++] = i;
+        for (int s = strips; s > 0; s--)
+            stripStart[s] = stripStart[s - 1];
+        stripStart[0] = 0;
+    } // end assignStrips
+
+    // Moves the squares from .. to-1, splitting the range in two until it's small enough
+    private static class MoveTask extends RecursiveAction {
+        private final SquareStore squares;
+        private final int from, to, panelWidth, panelHeight;
+
+        MoveTask(SquareStore squares, int from, int to, int panelWidth, int panelHeight) {
+            this.squares = squares;
+            this.from = from;
+            this.to = to;
+            this.panelWidth = panelWidth;
+            this.panelHeight = panelHeight;
+        } // end MoveTask
+
+        protected void compute() {
+            if (to - from <= MOVE_CHUNK) {
+                squares.moveRange(from, to, panelWidth, panelHeight);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MoveTask(squares, from, middle, panelWidth, panelHeight),
+                      new MoveTask(squares, middle, to, panelWidth, panelHeight));
+        } // end compute
+    } // end class MoveTask
+
+    // Flags the squares owned by strips from .. to-1 that overlap a newer square.  Only reads
+    // the store and the grid; each strip writes the flags of its own squares only.
+    private class FlagTask extends RecursiveAction {
+        private final SquareStore squares;
+        private final int from, to;
+
+        FlagTask(SquareStore squares, int from, int to) {
+            this.squares = squares;
+            this.from = from;
+            this.to = to;
+        } // end FlagTask
+
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FlagTask(squares, from, middle), new FlagTask(squares, middle, to));
+                return;
+            }
+            SpatialHash.Query query = new SpatialHash.Query();
+            int margin = squares.getSweepMargin();
+            long checks = 0;
+            for (int k = stripStart[from]; k < stripStart[from + 1]; k++) {
+                int i = stripItems[k];
+                int x = squares.getX(i);
+                int y = squares.getY(i);
+                int size = squares.getSize(i);
+                int found = grid.query(x - margin, y - margin, x + size - 1 + margin,
+                        y + size - 1 + margin, query);
+                int[] candidates = query.getResult();
+                boolean hit = false;
+                for (int c = found - 1; c >= 0 && !hit && candidates[c] > i; c--) {
+                    checks++;
+                    hit = squares.touched(i, candidates[c]);
+                } // end for
+                flagged[i] = hit;
+            } // end for
+            flagChecks.addAndGet(checks);
+        } // end compute
+    } // end class FlagTask
+
+} // end class ParallelCollisionEngine
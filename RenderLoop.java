@@ -0,0 +1,134 @@
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Graphics2D;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A RenderLoop paints a Canvas actively, on a thread of its own, instead of asking Swing to
+ * repaint it.  Each frame is drawn whole into the back buffer of a BufferStrategy (page
+ * flipping where the graphics device offers it, a copy otherwise) and shown straight away,
+ * so no frame is coalesced or held back by the RepaintManager.
+ *
+ * Frames come at a rate of their own (-Drender.fps, default DEFAULT_FPS), which has nothing
+ * to do with the rate of the simulation: the Painter is given the time of each frame and
+ * works out what the game looks like at that time.  If a frame is late the loop goes on
+ * from there rather than rushing out the frames it missed.  The time between two frames
+ * shown goes into a TickMetrics, if one is set.
+ *
+ */
+public class RenderLoop implements Runnable {
+
+    // Frames per second, unless told otherwise
+    public static final int DEFAULT_FPS = 60;
+
+    // Front and back buffer
+    private static final int BUFFERS = 2;
+
+    // Paints the frames
+    public interface Painter {
+        // Paints a whole frame of the given size, as the game looks at the given time
+        // (System.nanoTime()).  Called on the render thread only.
+        void paintFrame(Graphics2D gc, int width, int height, long now);
+    } // end interface Painter
+
+    private final Canvas canvas;
+    private final Painter painter;
+    private final long framePeriod;
+
+    private BufferStrategy strategy;
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile TickMetrics metrics;
+
+    public RenderLoop(Canvas canvas, Painter painter, int fps) {
+        this.canvas = canvas;
+        this.painter = painter;
+        this.framePeriod = 1000000000L / Math.max(1, fps);
+        canvas.setIgnoreRepaint(true);
+    } // end RenderLoop
+
+    // Sets up the buffers and starts the render thread.  The canvas must be on screen.
+    public synchronized void start() {
+        if (running)
+            throw new IllegalStateException("Render loop is already running");
+        try {
+            canvas.createBufferStrategy(BUFFERS, new BufferCapabilities(new ImageCapabilities(true),
+                    new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+        } catch (AWTException e) {
+            canvas.createBufferStrategy(BUFFERS); // no page flipping here: let AWT pick
+        }
+        strategy = canvas.getBufferStrategy();
+        running = true;
+        thread = new Thread(this, "RenderLoop");
+        thread.setDaemon(true);
+        thread.start();
+    } // end start
+
+    // Stops the render thread after the frame it is painting
+    public void stop() {
+        running = false;
+    } // end stop
+
+    // Returns true if frames are shown by flipping pages rather than by copying
+    public synchronized boolean isPageFlipping() {
+        return strategy != null && strategy.getCapabilities().isPageFlipping();
+    } // end isPageFlipping
+
+    // Starts (or, with null, stops) measuring the time between frames
+    public void setMetrics(TickMetrics newMetrics) {
+        metrics = newMetrics;
+    } // end setMetrics
+
+    public void run() {
+        long nextFrame = System.nanoTime();
+        long lastShown = 0;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < nextFrame) {
+                LockSupport.parkNanos(nextFrame - now);
+                continue;
+            }
+            if (!showFrame(now))
+                lastShown = 0; // nothing to paint on yet
+            else {
+                long shown = System.nanoTime();
+                TickMetrics measuring = metrics;
+                if (measuring != null && lastShown != 0)
+                    measuring.frameShown(shown - lastShown);
+                lastShown = shown;
+            }
+            nextFrame += framePeriod;
+            if (System.nanoTime() - nextFrame > framePeriod)
+                nextFrame = System.nanoTime(); // too far behind: forget the missed frames
+        } // end while
+        strategy.dispose();
+    } // end run
+
+    // Paints one frame into the back buffer and shows it, painting it again if the buffer's
+    // contents were lost on the way.  Returns false if the canvas has no area.
+    private boolean showFrame(long now) {
+        int width = canvas.getWidth(), height = canvas.getHeight();
+        if (width <= 0 || height <= 0)
+            return false;
+        do {
+            do {
+                Graphics2D gc = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    painter.paintFrame(gc, width, height, now);
+                } finally {
+                    gc.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+            // without this some window systems queue the frame instead of showing it
+            Toolkit.getDefaultToolkit().sync();
+        } while (strategy.contentsLost());
+        return true;
+    } // end showFrame
+
+} // end class RenderLoop
@@ -0,0 +1,72 @@
+/**
+ * The plain MoveKernel: one square at a time, one pixel at a time, exactly as
+ * Square.move() does it.  Every other kernel is checked against this one.
+ *
+ */
+public class ScalarMoveKernel extends MoveKernel {
+
+    public String getName() {
+        return SCALAR;
+    } // end getName
+
+    public void move(int[] x, int[] y, int[] size, byte[] direction, boolean[] moving,
+            int[] velocity, short[] progress, int[] fromPosition, byte[] fromDirection, byte[] steps,
+            int from, int to, int panelWidth, int panelHeight) {
+        for (int i = from; i < to; i++) {
+            int px = x[i], py = y[i], dir = direction[i];
+            int pixels = 0;
+            if (moving[i]) {
+                int travel = progress[i] + velocity[i];
+                pixels = travel >> SquareStore.PIXEL_BITS;
+                progress[i] = (short) (travel & (SquareStore.PIXEL - 1));
+            } // end if
+            fromPosition[i] = dir == Square.LEFT || dir == Square.RIGHT ? px : py;
+            fromDirection[i] = (byte) dir;
+            steps[i] = (byte) pixels;
+
+            // one pixel at a time, checking the bounds after each (and once if it doesn't move)
+            int maxX = panelWidth - size[i];
+            int maxY = panelHeight - size[i];
+            int step = 0;
+            do {
+                if (step < pixels) {
+                    if (dir == Square.LEFT)
+                        px--;
+                    else if (dir == Square.RIGHT)
+                        px++;
+                    else if (dir == Square.UP)
+                        py--;
+                    else // dir == DOWN
+                        py++;
+                } // end if
+
+                if (px < 0) {
+                    px = 0;
+                    if (dir == Square.LEFT)
+                        dir = Square.RIGHT;
+                }
+                else if (px > maxX) {
+                    px = maxX;
+                    if (dir == Square.RIGHT)
+                        dir = Square.LEFT;
+                } // end if
+                if (py < 0) {
+                    py = 0;
+                    if (dir == Square.UP)
+                        dir = Square.DOWN;
+                }
+                else if (py > maxY) {
+                    py = maxY;
+                    if (dir == Square.DOWN)
+                        dir = Square.UP;
+                } // end if
+                step++;
+            } while (step < pixels);
+
+            x[i] = px;
+            y[i] = py;
+            direction[i] = (byte) dir;
+        } // end for
+    } // end move
+
+} // end class ScalarMoveKernel
@@ -0,0 +1,340 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+
+/**
+ * A ScoreLog keeps the high scores in a small binary file that is only ever appended to.
+ *
+ * The file starts with a 16 byte header (magic number, version) followed by fixed-size
+ * records of RECORD_SIZE bytes:
+ *
+ *   crc       int    CRC32 of the other 60 bytes of the record
+ *   score     int
+ *   sequence  long   order in which the scores were added, to break ties
+ *   length    short  number of characters in the name
+ *   name      char[NAME_LENGTH], padded with zeros
+ *
+ * The file is memory-mapped and grows CHUNK_RECORDS records at a time; the unused part is
+ * zeros.  Adding a score writes one record and forces it to disk; a batch of records can
+ * be appended and then forced once.  When the log is opened,
+ * the records are read until the first one whose CRC doesn't match, so a record torn by a
+ * crash is simply ignored.  The best scores (TOP_COUNT unless told otherwise) are kept
+ * in memory, sorted.
+ *
+ * Once the log holds more than COMPACT_AFTER records it is compacted: the best scores are
+ * written to a new file, which is forced to disk and then renamed over the log, so after a
+ * crash there is always either the old log or the new one, both complete.
+ *
+ * The first time the log is opened, the scores of an old scores.ser file (serialized list
+ * of ScoreObject) are copied into it.  The old file is left alone and never read again.
+ *
+ * A ScoreLog isn't thread-safe and does blocking file work: ScoreService runs it on a
+ * thread of its own, away from the Swing thread and the game threads.
+ *
+ */
+public class ScoreLog {
+
+    // Number of scores shown on the score board
+    public static final int TOP_COUNT = 5;
+
+    // Name and score shown in the empty places of the score board
+    public static final String PLACEHOLDER_NAME = "Anonymous";
+    public static final int PLACEHOLDER_SCORE = -1;
+
+    // Longest name kept; longer names are cut
+    public static final int NAME_LENGTH = 23;
+
+    private static final int MAGIC = 0x4d535343; // "MSSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 4 + 4 + 8 + 2 + 2 * NAME_LENGTH;
+    private static final int CHUNK_RECORDS = 256;
+    private static final int COMPACT_AFTER = 1024;
+
+    private final File file;
+    private final File legacyFile;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer map;
+    private int records = 0;    // number of valid records in the file
+    private long nextSequence = 0;
+
+    // The best scores, best first: scores[k], sequences[k], names[k] for k < topCount
+    private final int topSize;
+    private final int[] topScores;
+    private final long[] topSequences;
+    private final String[] topNames;
+    private int topCount = 0;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] recordBytes = new byte[RECORD_SIZE];
+
+    public ScoreLog(File file, File legacyFile) {
+        this(file, legacyFile, TOP_COUNT);
+    } // end ScoreLog
+
+    // Same as above, keeping the given number of best scores
+    public ScoreLog(File file, File legacyFile, int topSize) {
+        this.file = file;
+        this.legacyFile = legacyFile;
+        this.topSize = topSize;
+        topScores = new int[topSize];
+        topSequences = new long[topSize];
+        topNames = new String[topSize];
+    } // end ScoreLog
+
+    // Opens the log if it isn't open yet, migrating the old score file if there is no log
+    public void open() throws IOException {
+        if (raf != null)
+            return;
+        File temporary = temporaryFile();
+        if (temporary.exists())
+            temporary.delete(); // left over from a compaction or migration that didn't finish
+        if (!file.exists() && legacyFile != null && legacyFile.exists()) {
+            try {
+                migrate();
+            } catch (IOException e) {
+                System.out.println("Couldn't copy the old scores from " + legacyFile + ": " + e);
+            }
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < HEADER_SIZE) {
+            raf.setLength(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.setLength(HEADER_SIZE + (long) CHUNK_RECORDS * RECORD_SIZE);
+        }
+        else if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+            raf.close();
+            raf = null;
+            throw new IOException(file + " is not a score log");
+        }
+        map(raf.length());
+
+        records = 0;
+        topCount = 0;
+        nextSequence = 0;
+        while (readRecord(records)) {
+            records++;
+        } // end while
+    } // end open
+
+    // Adds a score to the log and to the best scores, and forces it to disk
+    public void add(String name, int score) throws IOException {
+        append(name, score);
+        flush();
+    } // end add
+
+    // Adds a score to the log and to the best scores, without waiting for the disk.  Call
+    // flush() after a batch of them.
+    public void append(String name, int score) throws IOException {
+        open();
+        name = cleanName(name);
+        if (HEADER_SIZE + (long) (records + 1) * RECORD_SIZE > map.capacity()) {
+            raf.setLength(HEADER_SIZE + (long) (records + CHUNK_RECORDS) * RECORD_SIZE);
+            map(raf.length());
+        }
+        writeRecord(map, records, nextSequence, name, score);
+        insert(score, nextSequence, name);
+        nextSequence++;
+        records++;
+    } // end append
+
+    // Forces the records appended so far to disk, compacting the log if it has grown too long
+    public void flush() throws IOException {
+        if (map == null)
+            return;
+        map.force();
+        if (records > COMPACT_AFTER)
+            compact();
+    } // end flush
+
+    // Returns the best scores, best first, with placeholders for the empty places
+    public ArrayList<ScoreObject> top() {
+        ArrayList<ScoreObject> top = new ArrayList<ScoreObject>();
+        for (int k = 0; k < topSize; k++) {
+            if (k < topCount)
+                top.add(new ScoreObject(topNames[k], topScores[k]));
+            else
+                top.add(new ScoreObject(PLACEHOLDER_NAME, PLACEHOLDER_SCORE));
+        } // end for
+        return top;
+    } // end top
+
+    // Returns the name as it is kept in the log: cut to NAME_LENGTH characters, and the
+    // placeholder name if there is none
+    public static String cleanName(String name) {
+        if (name == null)
+            return PLACEHOLDER_NAME;
+        if (name.length() > NAME_LENGTH)
+            return name.substring(0, NAME_LENGTH);
+        return name;
+    } // end cleanName
+
+    // Returns the number of best scores known, at most the number kept
+    public int getTopCount() {
+        return topCount;
+    } // end getTopCount
+
+    // Returns the name of the k-th best score (0 is the best)
+    public String getTopName(int k) {
+        return topNames[k];
+    } // end getTopName
+
+    public int getTopScore(int k) {
+        return topScores[k];
+    } // end getTopScore
+
+    public long getTopSequence(int k) {
+        return topSequences[k];
+    } // end getTopSequence
+
+    // Returns the number of records in the log
+    public int getRecordCount() {
+        return records;
+    } // end getRecordCount
+
+    // Rewrites the log with only the best scores
+    public void compact() throws IOException {
+        File temporary = temporaryFile();
+        writeLog(temporary, topCount, topNames, topScores);
+        close();
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        open();
+    } // end compact
+
+    // Closes the file.  The next call to any other method opens it again.
+    public void close() throws IOException {
+        map = null;
+        if (raf != null)
+            raf.close();
+        raf = null;
+    } // end close
+
+    // Copies the scores of the old serialized score file into a new log
+    @SuppressWarnings("unchecked")
+    private void migrate() throws IOException {
+        ArrayList<ScoreObject> old;
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(legacyFile));
+        try {
+            old = (ArrayList<ScoreObject>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Can't read " + legacyFile, e);
+        } finally {
+            in.close();
+        }
+        // the old file was padded with placeholders; those aren't real scores
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Integer> scores = new ArrayList<Integer>();
+        for (ScoreObject score : old) {
+            if (score != null && !(PLACEHOLDER_NAME.equals(score.getName()) && score.getScore() == PLACEHOLDER_SCORE)) {
+                names.add(score.getName() == null ? PLACEHOLDER_NAME : score.getName());
+                scores.add(score.getScore());
+            }
+        } // end for
+        int[] scoreArray = new int[scores.size()];
+        for (int k = 0; k < scoreArray.length; k++)
+            scoreArray[k] = scores.get(k);
+        File temporary = temporaryFile();
+        writeLog(temporary, scoreArray.length, names.toArray(new String[0]), scoreArray);
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } // end migrate
+
+    // Writes a complete log holding the given scores, in order, and forces it to disk
+    private void writeLog(File target, int count, String[] names, int[] scores) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.setLength(HEADER_SIZE + (long) Math.max(count, CHUNK_RECORDS) * RECORD_SIZE);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, out.length());
+            for (int k = 0; k < count; k++)
+                writeRecord(buffer, k, k, names[k], scores[k]);
+            buffer.force();
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+    } // end writeLog
+
+    private void map(long length) throws IOException {
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    } // end map
+
+    // Reads record r into the best scores.  Returns false if there is no valid record r.
+    private boolean readRecord(int r) {
+        int position = HEADER_SIZE + r * RECORD_SIZE;
+        if (position + RECORD_SIZE > map.capacity())
+            return false;
+        map.position(position);
+        map.get(recordBytes);
+        crc.reset();
+        crc.update(recordBytes, 4, RECORD_SIZE - 4);
+        int stored = map.getInt(position);
+        if (stored != (int) crc.getValue())
+            return false; // unused space, or a record torn by a crash
+        int score = map.getInt(position + 4);
+        long sequence = map.getLong(position + 8);
+        int length = Math.min(NAME_LENGTH, Math.max(0, map.getShort(position + 16)));
+        char[] name = new char[length];
+        for (int k = 0; k < length; k++)
+            name[k] = map.getChar(position + 18 + 2 * k);
+        insert(score, sequence, new String(name));
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        return true;
+    } // end readRecord
+
+    // Writes record r; the CRC goes in last
+    private void writeRecord(MappedByteBuffer buffer, int r, long sequence, String name, int score) {
+        int position = HEADER_SIZE + r * RECORD_SIZE;
+        int length = Math.min(NAME_LENGTH, name.length());
+        buffer.putInt(position + 4, score);
+        buffer.putLong(position + 8, sequence);
+        buffer.putShort(position + 16, (short) length);
+        for (int k = 0; k < NAME_LENGTH; k++)
+            buffer.putChar(position + 18 + 2 * k, k < length ? name.charAt(k) : 0);
+        buffer.position(position);
+        buffer.get(recordBytes);
+        crc.reset();
+        crc.update(recordBytes, 4, RECORD_SIZE - 4);
+        buffer.putInt(position, (int) crc.getValue());
+    } // end writeRecord
+
+    // Puts a score among the best ones, if it's good enough.  Higher scores come first, and
+    // of two equal scores the older one.
+    private void insert(int score, long sequence, String name) {
+        int k = topCount;
+        while (k > 0 && (topScores[k - 1] < score
+                || (topScores[k - 1] == score && topSequences[k - 1] > sequence)))
+            k--;
+        if (k >= topSize)
+            return;
+        int last = Math.min(topCount, topSize - 1);
+        for (int m = last; m > k; m--) {
+            topScores[m] = topScores[m - 1];
+            topSequences[m] = topSequences[m - 1];
+            topNames[m] = topNames[m - 1];
+        } // end for
+        topScores[k] = score;
+        topSequences[k] = sequence;
+        topNames[k] = name;
+        topCount = Math.min(topSize, topCount + 1);
+    } // end insert
+
+    private File temporaryFile() {
+        return new File(file.getPath() + ".tmp");
+    } // end temporaryFile
+
+} // end class ScoreLog
@@ -0,0 +1,288 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongBinaryOperator;
+
+import javax.swing.SwingUtilities;
+
+
+/**
+ * A ScoreService is the one leaderboard shared by every game running in the JVM.
+ *
+ * Games hand in their scores with submit(), which never blocks: the score goes into a
+ * lock-free queue and a single writer thread takes it from there.  The writer empties the
+ * queue in batches of up to BATCH_SIZE scores, appends them all to the ScoreLog and forces
+ * the log to disk once per batch, so a burst of games ending together costs one disk flush
+ * rather than one each.  Since only the writer touches the log, scores can't overwrite each
+ * other.
+ *
+ * The best scores are also kept in a concurrent skip list, trimmed to the top K by the
+ * writer, so top() can be called from any thread at any time without taking a lock.
+ *
+ * Counters of scores submitted and written, batches, and the time from submit() to the
+ * score being on disk, are kept in LongAdders so that counting doesn't slow the submitters
+ * down.
+ *
+ */
+public class ScoreService {
+
+    // Most scores written to the log between two disk flushes
+    public static final int BATCH_SIZE = 256;
+
+    // Longest the writer sleeps when there is nothing to do, in nanoseconds.  Submitters
+    // wake it up straight away, so this only matters if a wake-up is missed.
+    private static final long IDLE_NANOS = 10000000L;
+
+    // Receives the best scores once a submitted score has been written, on the Swing thread
+    public interface Listener {
+        void scoresRead(ArrayList<ScoreObject> top);
+    } // end Listener
+
+    // The service for the scores.log file in the current directory
+    private static ScoreService defaultService;
+
+    private final ScoreLog log;
+    private final int topSize;
+
+    // Scores waiting for the writer
+    private final ConcurrentLinkedQueue<Submission> queue = new ConcurrentLinkedQueue<Submission>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // The best scores, best first.  Only the writer adds and removes entries.
+    private final ConcurrentSkipListSet<Entry> top = new ConcurrentSkipListSet<Entry>(new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            if (a.score != b.score)
+                return a.score > b.score ? -1 : 1;
+            return Long.compare(a.sequence, b.sequence);
+        }
+    });
+    private int topEntries = 0;       // only used by the writer
+    private long nextSequence = 0;    // only used by the writer
+
+    // Counters
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong(long a, long b) {
+            return Math.max(a, b);
+        }
+    }, 0);
+    private final long startNanos = System.nanoTime();
+
+    // One score waiting to be written
+    private static class Submission {
+        final String name;
+        final int score;
+        final long submittedAt;
+        final Listener listener;
+
+        Submission(String name, int score, Listener listener) {
+            this.name = name;
+            this.score = score;
+            this.listener = listener;
+            this.submittedAt = System.nanoTime();
+        } // end Submission
+    } // end class Submission
+
+    // One of the best scores.  The sequence number breaks ties: the older score comes first.
+    private static class Entry {
+        final String name;
+        final int score;
+        final long sequence;
+
+        Entry(String name, int score, long sequence) {
+            this.name = name;
+            this.score = score;
+            this.sequence = sequence;
+        } // end Entry
+    } // end class Entry
+
+    public ScoreService(ScoreLog log, int topSize) {
+        this.log = log;
+        this.topSize = topSize;
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "ScoreService writer");
+        writer.setDaemon(true);
+        writer.start();
+    } // end ScoreService
+
+    // Returns the service shared by every game in this JVM, starting it the first time
+    public static synchronized ScoreService getDefault() {
+        if (defaultService == null)
+            defaultService = new ScoreService(new ScoreLog(new File("scores.log"), new File("scores.ser")),
+                    ScoreLog.TOP_COUNT);
+        return defaultService;
+    } // end getDefault
+
+    // Hands in a score.  Returns straight away; once the score is on disk, the listener (if
+    // not null) gets the best scores on the Swing thread.
+    public void submit(String name, int score, Listener listener) {
+        if (!running)
+            throw new IllegalStateException("The score service has been closed");
+        queue.add(new Submission(name, score, listener));
+        submitted.increment();
+        LockSupport.unpark(writer);
+    } // end submit
+
+    public void submit(String name, int score) {
+        submit(name, score, null);
+    } // end submit
+
+    // Returns the best scores, best first, padded with placeholders.  Never blocks.
+    public ArrayList<ScoreObject> top() {
+        ArrayList<ScoreObject> result = new ArrayList<ScoreObject>(topSize);
+        Iterator<Entry> entries = top.iterator();
+        while (result.size() < topSize && entries.hasNext()) {
+            Entry entry = entries.next();
+            result.add(new ScoreObject(entry.name, entry.score));
+        } // end while
+        while (result.size() < topSize)
+            result.add(new ScoreObject(ScoreLog.PLACEHOLDER_NAME, ScoreLog.PLACEHOLDER_SCORE));
+        return result;
+    } // end top
+
+    // Writes the scores still waiting, then stops the writer and closes the log
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    } // end close
+
+    // Number of scores handed in with submit()
+    public long getSubmitted() {
+        return submitted.sum();
+    } // end getSubmitted
+
+    // Number of scores written to disk
+    public long getWritten() {
+        return written.sum();
+    } // end getWritten
+
+    // Number of scores that couldn't be written (they still count for top())
+    public long getFailed() {
+        return failed.sum();
+    } // end getFailed
+
+    // Number of disk flushes
+    public long getBatches() {
+        return batches.sum();
+    } // end getBatches
+
+    // Average scores written per second since the service started
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? getWritten() / seconds : 0;
+    } // end getThroughput
+
+    // Average and longest time between submit() and the score reaching the disk
+    public double getAverageLatencyMicros() {
+        long done = written.sum() + failed.sum();
+        return done > 0 ? totalLatencyNanos.sum() / 1000.0 / done : 0;
+    } // end getAverageLatencyMicros
+
+    public double getMaxLatencyMicros() {
+        return maxLatencyNanos.get() / 1000.0;
+    } // end getMaxLatencyMicros
+
+    // Returns the counters on one line
+    public String getStatistics() {
+        return String.format(Locale.ROOT,
+                "%d submitted, %d written, %d failed, %d batches, %.0f scores/s, latency avg %.1f us max %.1f us",
+                getSubmitted(), getWritten(), getFailed(), getBatches(), getThroughput(),
+                getAverageLatencyMicros(), getMaxLatencyMicros());
+    } // end getStatistics
+
+    // The writer thread: reads the log, then writes batches until closed
+    private void writeLoop() {
+        try {
+            log.open();
+            for (int k = 0; k < log.getTopCount(); k++)
+                addToTop(log.getTopName(k), log.getTopScore(k));
+        } catch (IOException e) {
+            System.out.println("Couldn't read the scores: " + e);
+        }
+
+        ArrayList<Submission> batch = new ArrayList<Submission>(BATCH_SIZE);
+        while (true) {
+            Submission next;
+            while (batch.size() < BATCH_SIZE && (next = queue.poll()) != null)
+                batch.add(next);
+            if (batch.isEmpty()) {
+                if (!running)
+                    break;
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                continue;
+            }
+            writeBatch(batch);
+            batch.clear();
+        } // end while
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.out.println("Couldn't close the scores: " + e);
+        }
+    } // end writeLoop
+
+    // Appends a batch of scores to the log, forces them to disk and tells their listeners
+    private void writeBatch(ArrayList<Submission> batch) {
+        boolean ok = true;
+        try {
+            for (Submission submission : batch)
+                log.append(submission.name, submission.score);
+            log.flush();
+        } catch (IOException e) {
+            System.out.println("Couldn't write the scores: " + e);
+            ok = false;
+        }
+        long now = System.nanoTime();
+        for (Submission submission : batch) {
+            addToTop(ScoreLog.cleanName(submission.name), submission.score);
+            long latency = now - submission.submittedAt;
+            totalLatencyNanos.add(latency);
+            maxLatencyNanos.accumulate(latency);
+        } // end for
+        (ok ? written : failed).add(batch.size());
+        batches.increment();
+
+        ArrayList<ScoreObject> best = null;
+        for (final Submission submission : batch) {
+            if (submission.listener != null) {
+                if (best == null)
+                    best = top();
+                final ArrayList<ScoreObject> scores = best;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        submission.listener.scoresRead(scores);
+                    }
+                });
+            }
+        } // end for
+    } // end writeBatch
+
+    // Adds a score to the best scores, dropping the worst one if there are too many.  Only
+    // called by the writer.
+    private void addToTop(String name, int score) {
+        top.add(new Entry(name, score, nextSequence++));
+        if (++topEntries > topSize) {
+            top.pollLast();
+            topEntries--;
+        }
+    } // end addToTop
+
+} // end class ScoreService
@@ -0,0 +1,209 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * A SessionRecorder writes down everything needed to play a game again: the seed of the
+ * engine and every input it got, each stamped with the tick it was applied after.  The
+ * engine is deterministic apart from its inputs, so SessionReplayer can rebuild the exact
+ * same game from the recording.
+ *
+ * The recording is a small binary file:
+ *
+ *   header   int MAGIC, int VERSION, long seed, int panel width, int panel height
+ *   events   varint ticks since the previous event, byte type, then the arguments:
+ *              CLICK      varint x, varint y (removes the topmost square there)
+ *              SPEED_UP   varint score
+ *              RESIZE     varint width, varint height
+ *              PAUSE      byte 1 to pause, 0 to resume
+ *              NAME       UTF string
+ *              POPULATE   varint count (squares added at once, SimulationEngine.populate())
+ *              END        long checksum of the squares: the game is over or was stopped
+ *
+ * Varints are 7 bits per byte, low bits first, and signed values are zigzag encoded, so a
+ * click usually takes 5 or 6 bytes.  Inputs only arrive a few times a second, so every event
+ * is flushed straight away: a recording cut short by a crash still has every input up to it.
+ *
+ * The engine calls the recorder while holding its lock, which is what makes the tick stamps
+ * exact.
+ *
+ */
+public class SessionRecorder {
+
+    public static final int MAGIC = 0x4d535243; // "MSRC"
+    // Version 2: a click removes only the topmost square under it.  Version 3: speed-ups
+    // make the squares faster instead of the ticks more frequent.  Version 4: POPULATE
+    // places each row of squares from a random stream of its own.  Version 5: a square that
+    // grows on a tick is no longer taken to have bounced off a wall at its new size.
+    public static final int VERSION = 5;
+
+    // Event types
+    public static final int CLICK = 1;
+    public static final int SPEED_UP = 2;
+    public static final int RESIZE = 3;
+    public static final int PAUSE = 4;
+    public static final int NAME = 5;
+    public static final int END = 6;
+    public static final int POPULATE = 7;
+
+    private final File file;
+    private DataOutputStream out;
+    private long lastTick = 0;
+    private boolean finished = false;
+
+    public SessionRecorder(File file) {
+        this.file = file;
+    } // end SessionRecorder
+
+    // Writes the header.  Called by the engine when the recorder is attached to it.
+    public void start(long seed, int panelWidth, int panelHeight) {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeInt(panelWidth);
+            out.writeInt(panelHeight);
+            out.flush();
+        } catch (IOException e) {
+            failed(e);
+        }
+    } // end start
+
+    public void click(long tick, int x, int y) {
+        if (begin(tick, CLICK)) {
+            try {
+                writeSigned(out, x);
+                writeSigned(out, y);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end click
+
+    public void speedUp(long tick, int score) {
+        if (begin(tick, SPEED_UP)) {
+            try {
+                writeSigned(out, score);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end speedUp
+
+    public void resize(long tick, int panelWidth, int panelHeight) {
+        if (begin(tick, RESIZE)) {
+            try {
+                writeSigned(out, panelWidth);
+                writeSigned(out, panelHeight);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end resize
+
+    public void populate(long tick, int count) {
+        if (begin(tick, POPULATE)) {
+            try {
+                writeSigned(out, count);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end populate
+
+    public void pause(long tick, boolean paused) {
+        if (begin(tick, PAUSE)) {
+            try {
+                out.writeByte(paused ? 1 : 0);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end pause
+
+    public void name(long tick, String name) {
+        if (begin(tick, NAME)) {
+            try {
+                out.writeUTF(name == null ? "" : name);
+            } catch (IOException e) {
+                failed(e);
+            }
+            end();
+        }
+    } // end name
+
+    // Marks the end of the game and closes the file.  Later events are ignored.  The checksum
+    // of the squares lets the replayer check that it got the same game.
+    public void finish(long tick, long checksum) {
+        if (begin(tick, END)) {
+            try {
+                out.writeLong(checksum);
+            } catch (IOException e) {
+                failed(e);
+            }
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                failed(e);
+            }
+            finished = true;
+        }
+    } // end finish
+
+    // Writes the tick stamp and type of an event.  Returns false if nothing should be written.
+    private boolean begin(long tick, int type) {
+        if (out == null || finished)
+            return false;
+        try {
+            writeUnsigned(out, tick - lastTick);
+            out.writeByte(type);
+            lastTick = tick;
+            return true;
+        } catch (IOException e) {
+            failed(e);
+            return false;
+        }
+    } // end begin
+
+    private void end() {
+        if (out == null)
+            return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failed(e);
+        }
+    } // end end
+
+    // Gives up recording; the game itself goes on
+    private void failed(IOException e) {
+        System.out.println("Recording to " + file + " failed: " + e);
+        out = null;
+    } // end failed
+
+    // Writes a value of 0 or more, 7 bits per byte, low bits first
+    public static void writeUnsigned(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        } // end while
+        out.write((int) value);
+    } // end writeUnsigned
+
+    // Writes any value, small negative ones in few bytes too
+    public static void writeSigned(OutputStream out, long value) throws IOException {
+        writeUnsigned(out, (value << 1) ^ (value >> 63));
+    } // end writeSigned
+
+} // end class SessionRecorder
@@ -0,0 +1,280 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * A SessionReplayer plays a game recorded by a SessionRecorder again, headless and as fast
+ * as the CPU allows: nothing is painted and no tick waits for the clock.  It starts an
+ * engine from the recorded seed and feeds it each recorded input right after the tick it was
+ * recorded at, which gives back exactly the game that was played.
+ *
+ * On the way it saves a Keyframe of the engine every few ticks (KEYFRAME_INTERVAL, or
+ * -Dreplay.keyframes), so seek() can jump back to any tick by starting from the nearest
+ * keyframe before it instead of from the beginning.
+ *
+ * Usage: java -Djava.awt.headless=true -cp out SessionReplayer recording [tick]
+ * plays the recording to the given tick (or to its end) and prints how it went, including
+ * whether the squares at the end match the checksum in the recording.
+ *
+ */
+public class SessionReplayer {
+
+    // Ticks between two keyframes
+    public static final int KEYFRAME_INTERVAL = 1000;
+
+    private final long seed;
+    private final int panelWidth;
+    private final int panelHeight;
+
+    // The recorded events, in order: event k came after tick eventTicks[k]
+    private long[] eventTicks = new long[16];
+    private byte[] eventTypes = new byte[16];
+    private int[] eventA = new int[16];
+    private int[] eventB = new int[16];
+    private long[] eventChecksums = new long[16];
+    private String[] eventNames = new String[16];
+    private int events = 0;
+
+    // Tick of the END event, or -1 if the recording was cut short
+    private long endTick = -1;
+
+    private final SimulationEngine engine;
+    private final int keyframeInterval;
+    private final ArrayList<SimulationEngine.Keyframe> keyframes = new ArrayList<SimulationEngine.Keyframe>();
+    private final ArrayList<Integer> keyframeEvents = new ArrayList<Integer>();
+
+    // Index of the next event to apply
+    private int nextEvent = 0;
+
+    // Name the player entered, as of the current tick
+    private String name;
+
+    public SessionReplayer(File file, CollisionEngine collisionEngine) throws IOException {
+        this(file, collisionEngine, Integer.getInteger("replay.keyframes", KEYFRAME_INTERVAL));
+    } // end SessionReplayer
+
+    public SessionReplayer(File file, CollisionEngine collisionEngine, int keyframeInterval) throws IOException {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != SessionRecorder.MAGIC || in.readInt() != SessionRecorder.VERSION)
+                throw new IOException(file + " is not a game recording");
+            seed = in.readLong();
+            panelWidth = in.readInt();
+            panelHeight = in.readInt();
+            readEvents(in);
+        } finally {
+            in.close();
+        }
+        engine = new SimulationEngine(collisionEngine, seed);
+        engine.resize(panelWidth, panelHeight);
+    } // end SessionReplayer
+
+    // Reads events until the end of the recording, or until one is cut short
+    private void readEvents(DataInputStream in) throws IOException {
+        long tick = 0;
+        while (true) {
+            try {
+                long delta = readUnsigned(in);
+                int type = in.readUnsignedByte();
+                int a = 0, b = 0;
+                long checksum = 0;
+                String text = null;
+                switch (type) {
+                case SessionRecorder.CLICK:
+                case SessionRecorder.RESIZE:
+                    a = (int) readSigned(in);
+                    b = (int) readSigned(in);
+                    break;
+                case SessionRecorder.SPEED_UP:
+                case SessionRecorder.POPULATE:
+                    a = (int) readSigned(in);
+                    break;
+                case SessionRecorder.PAUSE:
+                    a = in.readUnsignedByte();
+                    break;
+                case SessionRecorder.NAME:
+                    text = in.readUTF();
+                    break;
+                case SessionRecorder.END:
+                    checksum = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown event type " + type);
+                } // end switch
+                tick += delta;
+                add(tick, type, a, b, checksum, text);
+                if (type == SessionRecorder.END) {
+                    endTick = tick;
+                    return;
+                }
+            } catch (EOFException e) {
+                return; // the recording was cut short; keep the complete events
+            }
+        } // end while
+    } // end readEvents
+
+    private void add(long tick, int type, int a, int b, long checksum, String text) {
+        if (events == eventTicks.length) {
+            int capacity = 2 * events;
+            eventTicks = Arrays.copyOf(eventTicks, capacity);
+            eventTypes = Arrays.copyOf(eventTypes, capacity);
+            eventA = Arrays.copyOf(eventA, capacity);
+            eventB = Arrays.copyOf(eventB, capacity);
+            eventChecksums = Arrays.copyOf(eventChecksums, capacity);
+            eventNames = Arrays.copyOf(eventNames, capacity);
+        }
+        eventTicks[events] = tick;
+        eventTypes[events] = (byte) type;
+        eventA[events] = a;
+        eventB[events] = b;
+        eventChecksums[events] = checksum;
+        eventNames[events] = text;
+        events++;
+    } // end add
+
+    // Plays the game up to the given tick, from wherever it is now, applying the inputs
+    // recorded up to and including that tick.  Stops early if the game ends.  Returns the
+    // tick reached.
+    public long playTo(long target) {
+        while (true) {
+            long tick = engine.getTickCount();
+            if (tick % keyframeInterval == 0 && (keyframes.isEmpty()
+                    || keyframes.get(keyframes.size() - 1).getTick() < tick)) {
+                keyframes.add(engine.saveKeyframe());
+                keyframeEvents.add(nextEvent);
+            }
+            while (nextEvent < events && eventTicks[nextEvent] == tick)
+                apply(nextEvent++);
+            if (tick >= target || engine.isGameOver() || (endTick >= 0 && tick >= endTick))
+                return tick;
+            engine.tick();
+        } // end while
+    } // end playTo
+
+    // Plays the whole recording
+    public long playToEnd() {
+        return playTo(endTick >= 0 ? endTick : Long.MAX_VALUE);
+    } // end playToEnd
+
+    // Puts the game in its state at the given tick, going back to a keyframe if needed
+    public long seek(long target) {
+        long tick = engine.getTickCount();
+        int k = keyframes.size() - 1;
+        while (k > 0 && keyframes.get(k).getTick() > target)
+            k--;
+        // go back if the target is behind us, or jump ahead if a keyframe is closer
+        if (k >= 0 && (target < tick || keyframes.get(k).getTick() > tick)) {
+            engine.loadKeyframe(keyframes.get(k));
+            nextEvent = keyframeEvents.get(k);
+            name = null;
+            for (int e = 0; e < nextEvent; e++) {
+                if (eventTypes[e] == SessionRecorder.NAME)
+                    name = eventNames[e];
+            } // end for
+        }
+        return playTo(target);
+    } // end seek
+
+    // Feeds event e to the engine
+    private void apply(int e) {
+        switch (eventTypes[e]) {
+        case SessionRecorder.CLICK:
+            engine.click(eventA[e], eventB[e]);
+            break;
+        case SessionRecorder.SPEED_UP:
+            engine.speedUp(eventA[e]);
+            break;
+        case SessionRecorder.RESIZE:
+            engine.resize(eventA[e], eventB[e]);
+            break;
+        case SessionRecorder.PAUSE:
+            engine.setPaused(eventA[e] != 0);
+            break;
+        case SessionRecorder.POPULATE:
+            engine.populate(eventA[e]);
+            break;
+        case SessionRecorder.NAME:
+            name = eventNames[e];
+            break;
+        default:
+            break;
+        } // end switch
+    } // end apply
+
+    // Returns true if the game has reached the end of the recording with the same squares
+    // as when it was recorded.  Always false for a recording that was cut short.
+    public boolean matchesRecording() {
+        return endTick >= 0 && engine.getTickCount() == endTick
+                && engine.getChecksum() == eventChecksums[events - 1];
+    } // end matchesRecording
+
+    // Returns the engine being replayed, for looking at its squares
+    public SimulationEngine getEngine() {
+        return engine;
+    } // end getEngine
+
+    public long getSeed() {
+        return seed;
+    } // end getSeed
+
+    // Returns the tick the recording ends at, or -1 if it was cut short
+    public long getEndTick() {
+        return endTick;
+    } // end getEndTick
+
+    public int getEventCount() {
+        return events;
+    } // end getEventCount
+
+    public String getName() {
+        return name;
+    } // end getName
+
+    private static long readUnsigned(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        } // end for
+        throw new IOException("Bad varint");
+    } // end readUnsigned
+
+    private static long readSigned(InputStream in) throws IOException {
+        long value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    } // end readSigned
+
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java -Djava.awt.headless=true SessionReplayer recording [tick]");
+            return;
+        }
+        SessionReplayer replayer = new SessionReplayer(new File(args[0]), CollisionEngine.create(
+                System.getProperty("collisions", CollisionEngine.GRID), SimulationEngine.SIZE_INCREMENT));
+        long start = System.nanoTime();
+        long reached = args.length > 1 ? replayer.seek(Long.parseLong(args[1])) : replayer.playToEnd();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        SimulationEngine engine = replayer.getEngine();
+        System.out.println("seed " + replayer.getSeed() + ", " + replayer.getEventCount() + " inputs, player "
+                + replayer.getName());
+        System.out.println(reached + " ticks in " + seconds + " s (" + (long) (reached / seconds) + " ticks/s), "
+                + engine.getSquareCount() + " squares" + (engine.isGameOver() ? ", game over" : ""));
+        if (replayer.getEndTick() < 0)
+            System.out.println("the recording was cut short");
+        else if (reached == replayer.getEndTick())
+            System.out.println(replayer.matchesRecording() ? "matches the recording" : "DOES NOT match the recording");
+    } // end main
+
+} // end class SessionReplayer
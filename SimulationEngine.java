@@ -0,0 +1,876 @@
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * The SimulationEngine runs the game itself: it moves the squares, resolves their
+ * collisions, creates new squares at a steadily increasing rate and decides when the panel
+ * is too full to go on.  It knows nothing about Swing.
+ *
+ * The engine can be driven in two ways:
+ *  - start() runs it on a thread of its own at a fixed rate of one tick every
+ *    TICK_DELAY milliseconds.  After each tick it publishes an immutable Snapshot of
+ *    the squares and tells its Listener, which can then repaint from the snapshot.  It
+ *    stops by itself when the game is over.  In a world bigger than the window, setView()
+ *    keeps the snapshots to the squares around the part on screen.
+ *  - tick() / runTicks() step it directly on the calling thread, as fast as possible.
+ *    This is the headless mode used for batch runs; it needs no display at all
+ *    (see main()).
+ *
+ * The tick rate never changes.  The game gets harder by making the squares faster: each one
+ * carries a velocity in fixed point (SquareStore.PIXEL is a pixel per tick), raised by
+ * speedUp() to the speed the squares used to reach by ticking more often, and new squares
+ * come at a rate that follows it.  So a game at its fastest costs no more ticks than one
+ * that has just started.
+ *
+ * All methods that change the game are synchronized on the engine, so they can be called
+ * from the Swing thread while the engine thread is running.  Apart from the seed, those
+ * methods (clicks, speed-ups, resizes, pausing) are the only things that change how a game
+ * goes, so a SessionRecorder attached to the engine can record them with the tick they were
+ * applied after, and a SessionReplayer can play the same game again.  A SpectatorStream
+ * attached to it is sent the squares at the end of every tick instead, for a Spectator to
+ * show the game somewhere else.
+ *
+ * What happens during a tick (spawns, merges, clicks, the game ending) is published to the
+ * GameEvents set on the engine, if any, and handed to its consumers at the end of the tick.
+ * The consumers run on threads of their own, so the tick never waits for them.
+ *
+ */
+public class SimulationEngine implements Runnable {
+
+    // initial size for squares
+    public static final int INITIAL_SQUARE_SIZE = 20;
+
+    // Number of pixels a square grows after each collision
+    public static final int SIZE_INCREMENT = 10;
+
+    // Milliseconds between ticks (50 ticks a second)
+    public static final int TICK_DELAY = 20;
+
+    // Velocity of the squares when the game starts: one pixel per tick
+    public static final int INITIAL_VELOCITY = SquareStore.PIXEL;
+
+    // Number of steps between creation of new squares when the game starts, a step being
+    // one pixel of travel of the squares.  If you want fewer or more shapes, you can change
+    // this number.
+    private static final int INITIAL_CREATION_INTERVAL = 300; // 3 seconds
+
+    // If the engine thread falls behind, it runs at most this many ticks in a row before
+    // giving up on the missed ticks, so a long pause can't turn into a burst of ticks.
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    // populate() fills the lattice on several threads from this many cells, in tasks of at
+    // most this many rows
+    private static final int PARALLEL_POPULATE_CELLS = 1 << 16;
+    private static final int POPULATE_ROWS_PER_TASK = 8;
+
+    // Receives news from the engine thread.  Called on the engine thread, never while
+    // holding the engine's lock.  The end of the game comes through GameEvents.
+    public interface Listener {
+        // One or more ticks have just finished; snapshot is the latest one (null if the
+        // engine isn't publishing snapshots)
+        void tickFinished(Snapshot snapshot);
+    } // end Listener
+
+    // Gives the engine the input that came in since the last tick.  Called at the start of
+    // every tick, on the thread running it and with the engine's lock held, so the input
+    // lands between two ticks and is recorded with the right tick.
+    public interface InputSource {
+        void applyInput(SimulationEngine engine);
+    } // end InputSource
+
+    // Size of the panel until resize() says otherwise
+    public static final int DEFAULT_PANEL_WIDTH = 600;
+    public static final int DEFAULT_PANEL_HEIGHT = 400;
+
+    // The squares in the game, oldest first
+    private final SquareStore squares = new SquareStore();
+
+    // Size of the panel the squares bounce around in
+    private int panelWidth = DEFAULT_PANEL_WIDTH;
+    private int panelHeight = DEFAULT_PANEL_HEIGHT;
+
+    // Finds and resolves the collisions between squares each tick
+    private final CollisionEngine collisionEngine;
+
+    // Finds the free places for new squares
+    private final FreeSpaceIndex freeSpace = new FreeSpaceIndex();
+
+    // Finds the squares under clicked points.  It is kept from tick to tick: each tick only
+    // files again the squares that grew, and new squares are added to it as they come, so
+    // a click between ticks costs about the same as one on a paused game.
+    private final HitIndex hitIndex = new HitIndex();
+    // Finds the squares already there when a board is populated
+    private final SpatialHash placeGrid = new SpatialHash();
+    private final int[] clickX = new int[1], clickY = new int[1];
+
+    // Hands the engine the player's input at the start of each tick
+    private InputSource input;
+
+    // Where new squares go and which way they move.  Two engines created with the same seed
+    // play the same game, as long as they get the same clicks at the same ticks.
+    private final long seed;
+    private final GameRandom random;
+
+    // Records the inputs of the game, if it's being recorded
+    private SessionRecorder recorder;
+
+    // Sends the squares to spectators after each tick, if anyone is watching
+    private SpectatorStream spectators;
+
+    // Measures each tick, if metrics are on
+    private volatile TickMetrics metrics;
+
+    // Where what happens in the game is published, if anywhere
+    private GameEvents events;
+
+    // Count of number of steps until it's time to create a new square
+    private int creationCountdown = 0;
+    // Number of steps between creation of new squares
+    private int creationInterval = INITIAL_CREATION_INTERVAL;
+    // Fraction of a step carried over to the next tick, in 1/PIXEL of a step
+    private int creationProgress = 0;
+
+    private long tickCount = 0;
+    private boolean gameOver = false;
+
+    // Velocity of the squares, in 1/PIXEL of a pixel per tick
+    private int velocity = INITIAL_VELOCITY;
+
+    // State of the engine thread
+    private Thread thread;
+    private boolean running = false;
+    private boolean paused = false;
+
+    private Listener listener;
+    private boolean publishing = false;
+    private volatile Snapshot snapshot;
+
+    // Part of the world on screen, if set with setView(), and how far around it snapshots
+    // reach, as a part of its larger side: enough to scroll for a few ticks without leaving
+    // the squares of the latest snapshot
+    private Rectangle view;
+    private static final int VIEW_MARGIN = 4;
+
+    public SimulationEngine(CollisionEngine collisionEngine) {
+        this(collisionEngine, new Random().nextLong());
+    } // end SimulationEngine
+
+    public SimulationEngine(CollisionEngine collisionEngine, long seed) {
+        this.collisionEngine = collisionEngine;
+        this.seed = seed;
+        this.random = new GameRandom(seed);
+    } // end SimulationEngine
+
+    // The state of an engine after some tick, from which it can go on exactly as it did.
+    // Used by SessionReplayer to jump around in a recording, and written out in binary by
+    // checkpoints: whole, or as the changes from an earlier keyframe of the same game.
+    public static class Keyframe {
+        private final long seed;
+        private final long tickCount;
+        private final SquareStore squares;
+        private final long random;
+        private final int creationCountdown, creationInterval, creationProgress, velocity;
+        private final int panelWidth, panelHeight;
+        private final boolean paused, gameOver;
+
+        // Bytes of the fields other than the squares
+        private static final int FIELDS_BYTES = 3 * 8 + 6 * 4 + 2;
+
+        private Keyframe(SimulationEngine engine) {
+            seed = engine.seed;
+            tickCount = engine.tickCount;
+            squares = engine.squares.copy();
+            random = engine.random.getState();
+            creationCountdown = engine.creationCountdown;
+            creationInterval = engine.creationInterval;
+            creationProgress = engine.creationProgress;
+            velocity = engine.velocity;
+            panelWidth = engine.panelWidth;
+            panelHeight = engine.panelHeight;
+            paused = engine.paused;
+            gameOver = engine.gameOver;
+        } // end Keyframe
+
+        // Reads the fields written by writeFields(), the squares being read by the caller
+        private Keyframe(ByteBuffer in, SquareStore squares) {
+            seed = in.getLong();
+            tickCount = in.getLong();
+            random = in.getLong();
+            creationCountdown = in.getInt();
+            creationInterval = in.getInt();
+            creationProgress = in.getInt();
+            velocity = in.getInt();
+            panelWidth = in.getInt();
+            panelHeight = in.getInt();
+            paused = in.get() != 0;
+            gameOver = in.get() != 0;
+            this.squares = squares;
+        } // end Keyframe
+
+        public long getTick() {
+            return tickCount;
+        } // end getTick
+
+        // Returns the seed of the game, for the engine to load the keyframe into
+        public long getSeed() {
+            return seed;
+        } // end getSeed
+
+        public boolean isGameOver() {
+            return gameOver;
+        } // end isGameOver
+
+        // Returns the most bytes writeTo() can take
+        public int maxEncodedSize() {
+            return FIELDS_BYTES + squares.maxEncodedSize();
+        } // end maxEncodedSize
+
+        // Returns the most bytes writeDelta() can take with the given base
+        public int maxDeltaSize(Keyframe base) {
+            return FIELDS_BYTES + squares.maxDeltaSize(base.squares);
+        } // end maxDeltaSize
+
+        // Writes the whole keyframe
+        public void writeTo(ByteBuffer out) {
+            writeFields(out);
+            squares.writeTo(out);
+        } // end writeTo
+
+        // Writes the keyframe with its squares as the changes from base's.  Returns false,
+        // having written nothing, if base isn't an earlier keyframe of the same game.
+        public boolean writeDelta(ByteBuffer out, Keyframe base) {
+            if (base.seed != seed || base.tickCount > tickCount)
+                return false;
+            int start = out.position();
+            writeFields(out);
+            if (squares.writeDelta(out, base.squares))
+                return true;
+            out.position(start);
+            return false;
+        } // end writeDelta
+
+        // Reads a keyframe written by writeTo()
+        public static Keyframe readFrom(ByteBuffer in) {
+            Keyframe keyframe = new Keyframe(in, new SquareStore());
+            keyframe.squares.readFrom(in);
+            return keyframe;
+        } // end readFrom
+
+        // Reads a keyframe written by writeDelta() with the given base
+        public static Keyframe readDelta(ByteBuffer in, Keyframe base) {
+            Keyframe keyframe = new Keyframe(in, new SquareStore(base.squares.size()));
+            if (keyframe.seed != base.seed)
+                throw new IllegalArgumentException("Delta is from another game than its base");
+            keyframe.squares.readDelta(in, base.squares);
+            return keyframe;
+        } // end readDelta
+
+        private void writeFields(ByteBuffer out) {
+            out.putLong(seed);
+            out.putLong(tickCount);
+            out.putLong(random);
+            out.putInt(creationCountdown);
+            out.putInt(creationInterval);
+            out.putInt(creationProgress);
+            out.putInt(velocity);
+            out.putInt(panelWidth);
+            out.putInt(panelHeight);
+            out.put((byte) (paused ? 1 : 0));
+            out.put((byte) (gameOver ? 1 : 0));
+        } // end writeFields
+    } // end class Keyframe
+
+
+    // Starts the engine thread.  Snapshots are published from now on.
+    public synchronized void start(Listener newListener) {
+        if (running)
+            throw new IllegalStateException("Engine is already running");
+        listener = newListener;
+        publishing = true;
+        publish();
+        running = true;
+        thread = new Thread(this, "SimulationEngine");
+        thread.setDaemon(true);
+        thread.start();
+    } // end start
+
+    // Stops the engine thread.  The game itself can still be stepped with tick().
+    public synchronized void stop() {
+        running = false;
+        if (recorder != null)
+            recorder.finish(tickCount, squares.checksum());
+        notifyAll();
+    } // end stop
+
+    // Pauses or resumes the engine thread
+    public synchronized void setPaused(boolean newPaused) {
+        if (recorder != null)
+            recorder.pause(tickCount, newPaused);
+        paused = newPaused;
+        notifyAll();
+    } // end setPaused
+
+    // Starts recording the inputs of the game.  Must be done before the first tick.
+    public synchronized void setRecorder(SessionRecorder newRecorder) {
+        if (tickCount != 0)
+            throw new IllegalStateException("A game can only be recorded from the start");
+        recorder = newRecorder;
+        recorder.start(seed, panelWidth, panelHeight);
+    } // end setRecorder
+
+    // Sends the squares to the stream after every tick from now on (null to stop)
+    public synchronized void setSpectatorStream(SpectatorStream newSpectators) {
+        spectators = newSpectators;
+    } // end setSpectatorStream
+
+    // Sets where the input applied at the start of each tick comes from (null for none)
+    public synchronized void setInputSource(InputSource newInput) {
+        input = newInput;
+    } // end setInputSource
+
+    // Publishes what happens in the game to the given events from now on (null to stop)
+    public synchronized void setEvents(GameEvents newEvents) {
+        events = newEvents;
+        collisionEngine.setEvents(newEvents);
+    } // end setEvents
+
+    // Returns the events the game is published to, or null
+    public synchronized GameEvents getEvents() {
+        return events;
+    } // end getEvents
+
+    // Starts (or, with null, stops) measuring each tick
+    public void setMetrics(TickMetrics newMetrics) {
+        metrics = newMetrics;
+    } // end setMetrics
+
+    public TickMetrics getMetrics() {
+        return metrics;
+    } // end getMetrics
+
+    // Records the name the player entered.  It doesn't change the game, but belongs with it.
+    public synchronized void nameEntered(String name) {
+        if (recorder != null)
+            recorder.name(tickCount, name);
+    } // end nameEntered
+
+    // Returns the state of the game as it is now
+    public synchronized Keyframe saveKeyframe() {
+        return new Keyframe(this);
+    } // end saveKeyframe
+
+    // Puts the game back in the state of the keyframe
+    public synchronized void loadKeyframe(Keyframe keyframe) {
+        tickCount = keyframe.tickCount;
+        squares.copyFrom(keyframe.squares);
+        hitIndex.invalidate();
+        random.setState(keyframe.random);
+        creationCountdown = keyframe.creationCountdown;
+        creationInterval = keyframe.creationInterval;
+        creationProgress = keyframe.creationProgress;
+        velocity = keyframe.velocity;
+        panelWidth = keyframe.panelWidth;
+        panelHeight = keyframe.panelHeight;
+        paused = keyframe.paused;
+        gameOver = keyframe.gameOver;
+        if (publishing)
+            publish();
+    } // end loadKeyframe
+
+    public synchronized boolean isPaused() {
+        return paused;
+    } // end isPaused
+
+    // The fixed-timestep loop of the engine thread: ticks are due every TICK_DELAY ms.  If the
+    // thread is late it runs the missed ticks back to back (up to MAX_CATCH_UP_TICKS), and
+    // then tells the listener once.
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (true) {
+            synchronized (this) {
+                while (running && paused) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                    nextTick = System.nanoTime();
+                } // end while
+                if (!running)
+                    return;
+            }
+
+            long now = System.nanoTime();
+            if (now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+            boolean alive = true;
+            for (int ticks = 0; alive && ticks < MAX_CATCH_UP_TICKS && now >= nextTick; ticks++) {
+                alive = tick();
+                nextTick += TICK_DELAY * 1000000L;
+            } // end for
+            if (now >= nextTick)
+                nextTick = now; // too far behind: forget the missed ticks
+
+            Listener current = listener;
+            if (current != null)
+                current.tickFinished(snapshot);
+            if (!alive) {
+                synchronized (this) {
+                    running = false;
+                }
+                return;
+            }
+        } // end while
+    } // end run
+
+    // Runs one tick of the game: moves every square, resolves collisions and creates a new
+    // square if it's time.  Returns false once the game is over.
+    public synchronized boolean tick() {
+        if (gameOver)
+            return false;
+        if (events != null)
+            events.setTick(tickCount + 1);
+        if (input != null)
+            input.applyInput(this);
+        TickMetrics measuring = metrics;
+        if (measuring != null)
+            measuring.tickStarted(collisionEngine);
+
+        /***** Make each square move.  *****/
+        // The squares know what direction they need to move and what to do if they hit the
+        // boundary of the panel.
+        collisionEngine.move(squares, panelWidth, panelHeight);
+        if (measuring != null)
+            measuring.moveFinished();
+        // Search for collisions.  When a pair of collide, the newer one disappears and the
+        // older one grows and changes color (unless it's already black)
+        collisionEngine.resolve(squares);
+        hitIndex.update(squares);
+        if (measuring != null)
+            measuring.collisionsFinished(collisionEngine);
+        // If it's time to create a new square, do that, but make sure it doesn't appear
+        // on top of an existing square.  If the free-space index has no room left for a new
+        // square, the game ends.  The time is counted in steps, one per pixel the squares
+        // went, so faster squares come more often.
+        creationProgress += velocity;
+        while (creationProgress >= SquareStore.PIXEL && !gameOver) {
+            creationProgress -= SquareStore.PIXEL;
+            if (creationCountdown == 0) {
+                if (measuring != null)
+                    measuring.spawnStarted();
+                boolean spawned = spawnSquare();
+                if (measuring != null)
+                    measuring.spawnFinished(freeSpace.getFreeCount());
+                if (spawned) {
+                    creationCountdown = creationInterval;
+                    // re-start count until time to add another shape
+                    if (creationInterval > 20){
+                        creationInterval--;
+                    }
+                }
+                else {
+                    gameOver = true;
+                } // end if
+            }
+            else {
+                creationCountdown--;
+            } // end if
+        } // end while
+
+        tickCount++;
+        // the recording ends after the last tick, where a replay of it stops
+        if (gameOver && recorder != null)
+            recorder.finish(tickCount, squares.checksum());
+        if (publishing)
+            publish();
+        if (spectators != null)
+            spectators.tickDone(tickCount, squares, panelWidth, panelHeight);
+        if (events != null) {
+            if (gameOver)
+                events.publish(GameEvents.GAME_OVER, -1, 0, 0, squares.size());
+            events.flush();
+        }
+        if (measuring != null)
+            measuring.tickFinished(tickCount, squares.size());
+        return !gameOver;
+    } // end tick
+
+    // Runs up to the given number of ticks on the calling thread, stopping early if the game
+    // ends.  Returns the number of ticks run.
+    public long runTicks(long ticks) {
+        long done = 0;
+        while (done < ticks && tick())
+            done++;
+        return done;
+    } // end runTicks
+
+    // Creates a new square, moving in a random direction at the current velocity, at a random
+    // place where it doesn't overlap any existing one.  Every free place is equally likely.
+    // Returns false if there is no free place left.
+    public synchronized boolean spawnSquare() {
+        int direction = (int) (4 * random.nextDouble()); // random integer between 0 and 4
+        long free = freeSpace.build(squares, panelWidth, panelHeight, INITIAL_SQUARE_SIZE);
+        if (free == 0)
+            return false;
+        freeSpace.select(Math.min(free - 1, (long) (free * random.nextDouble())));
+        int index = squares.add(freeSpace.getSelectedX(), freeSpace.getSelectedY(), INITIAL_SQUARE_SIZE,
+                direction, SquareStore.FIRST_COLOR);
+        squares.setVelocity(index, velocity);
+        hitIndex.add(squares, index);
+        if (events != null) {
+            events.setTick(tickCount + 1);
+            events.publish(GameEvents.SPAWN, squares.getId(index), squares.getX(index), squares.getY(index),
+                    INITIAL_SQUARE_SIZE);
+        }
+        return true;
+    } // end spawnSquare
+
+    // Adds up to count squares at once, spread over the panel, for a world that starts full.
+    // The panel is cut into a lattice of square cells, one per square, and each new square
+    // goes at a random place inside a cell of its own, so the new squares can't overlap each
+    // other; a place overlapping a square already there is skipped.  Takes one pass over
+    // the cells, where spawning the squares one by one would search the whole panel for
+    // each.  Returns the number of squares added.
+    //
+    // The engine's generator only gives the seed of the lattice: each row then draws from
+    // its own stream of that seed (GameRandom.stream()), so on a big lattice the rows are
+    // placed by several threads and the squares come out the same as on one.
+    // No SPAWN events are published for them: a whole board at once would only fill the ring.
+    public synchronized int populate(int count) {
+        if (recorder != null)
+            recorder.populate(tickCount, count);
+        int size = INITIAL_SQUARE_SIZE;
+        double area = (double) panelWidth * panelHeight;
+        int cell = (int) Math.max(size + 1, Math.sqrt(area / Math.max(1, count)));
+        int columns = panelWidth / cell, rows = panelHeight / cell;
+        int existing = squares.size();
+        hitIndex.invalidate();
+        if (existing > 0)
+            placeGrid.build(squares);
+
+        PlaceRows places = new PlaceRows(random.nextLong(), cell, columns, existing, 0, rows);
+        if (columns * rows >= PARALLEL_POPULATE_CELLS)
+            ForkJoinPool.commonPool().invoke(places);
+        else
+            places.compute();
+
+        int added = 0;
+        for (int k = 0; k < columns * rows && added < count; k++) {
+            if (places.direction[k] < 0)
+                continue; // overlaps a square already there
+            int index = squares.add(places.x[k], places.y[k], size, places.direction[k], SquareStore.FIRST_COLOR);
+            squares.setVelocity(index, velocity);
+            added++;
+        } // end for
+        if (publishing)
+            publish();
+        return added;
+    } // end populate
+
+    // Picks the place and direction of the square of each cell in rows from .. to-1 of the
+    // lattice of populate(), splitting the rows between tasks.  The results go in arrays
+    // shared by all the tasks, by cell; a direction of -1 marks a place that overlaps one of
+    // the existing squares.
+    private class PlaceRows extends RecursiveAction {
+        private final long seed;
+        private final int cell, columns, existing, from, to;
+        private final int[] x, y, direction;
+
+        PlaceRows(long seed, int cell, int columns, int existing, int from, int to) {
+            this(seed, cell, columns, existing, from, to, new int[columns * to], new int[columns * to],
+                    new int[columns * to]);
+        } // end PlaceRows
+
+        private PlaceRows(long seed, int cell, int columns, int existing, int from, int to,
+                int[] x, int[] y, int[] direction) {
+            this.seed = seed;
+            this.cell = cell;
+            this.columns = columns;
+            this.existing = existing;
+            this.from = from;
+            this.to = to;
+            this.x = x;
+            this.y = y;
+            this.direction = direction;
+        } // end PlaceRows
+
+        protected void compute() {
+            if (to - from > POPULATE_ROWS_PER_TASK && columns * (to - from) >= PARALLEL_POPULATE_CELLS / 4
+                    && inForkJoinPool()) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PlaceRows(seed, cell, columns, existing, from, middle, x, y, direction),
+                        new PlaceRows(seed, cell, columns, existing, middle, to, x, y, direction));
+                return;
+            }
+            int size = INITIAL_SQUARE_SIZE;
+            SpatialHash.Query query = new SpatialHash.Query();
+            for (int row = from; row < to; row++) {
+                SplittableRandom rowRandom = GameRandom.stream(seed, row);
+                for (int column = 0; column < columns; column++) {
+                    int k = row * columns + column;
+                    x[k] = column * cell + (int) ((cell - size) * rowRandom.nextDouble());
+                    y[k] = row * cell + (int) ((cell - size) * rowRandom.nextDouble());
+                    direction[k] = (int) (4 * rowRandom.nextDouble());
+                    if (existing > 0 && overlapsExisting(x[k], y[k], size, existing, query))
+                        direction[k] = -1;
+                } // end for
+            } // end for
+        } // end compute
+    } // end class PlaceRows
+
+    // Returns true if a square at (x, y) would overlap one of the first existing squares,
+    // found through placeGrid.  Several threads may call this at once, each with a
+    // query of its own.
+    private boolean overlapsExisting(int x, int y, int size, int existing, SpatialHash.Query query) {
+        int found = placeGrid.query(x, y, x + size - 1, y + size - 1, query);
+        int[] candidates = query.getResult();
+        for (int k = 0; k < found; k++) {
+            int i = candidates[k];
+            if (i < existing && SquareStore.overlap(x, y, size, squares.getX(i), squares.getY(i), squares.getSize(i)))
+                return true;
+        } // end for
+        return false;
+    } // end overlapsExisting
+
+    // Removes the topmost square (the newest one, which is drawn last) under the point
+    // (x, y) and returns its color index, or -1 if there is no square there
+    public synchronized int click(int x, int y) {
+        clickX[0] = x;
+        clickY[0] = y;
+        return click(clickX, clickY, 1)[0];
+    } // end click
+
+    // Applies a burst of clicks in order, each one removing the topmost (newest) square
+    // under its point, and returns the color indexes of the squares removed (-1 for a miss).
+    // Each click only looks at the few squares the hit index has near its point.  The store
+    // is compacted once at the end.
+    public synchronized int[] click(int[] xs, int[] ys, int count) {
+        int[] hits = new int[count];
+        if (count == 0)
+            return hits;
+        if (events != null)
+            events.setTick(tickCount + 1);
+        for (int c = 0; c < count; c++) {
+            int x = xs[c], y = ys[c];
+            if (recorder != null)
+                recorder.click(tickCount, x, y);
+            int i = hitIndex.topmost(squares, x, y, panelWidth, panelHeight);
+            if (i >= 0) {
+                hits[c] = squares.getColorIndex(i);
+                if (events != null)
+                    events.publish(GameEvents.CLICK, squares.getId(i), x, y, hits[c]);
+                squares.kill(i);
+            }
+            else {
+                hits[c] = -1;
+            }
+        } // end for
+        squares.compact();
+        return hits;
+    } // end click
+
+    // Makes the game harder once the player has reached the given score: the squares go
+    // faster and new ones appear more often.
+    public synchronized void speedUp(int finalScore) {
+        if (recorder != null)
+            recorder.speedUp(tickCount, finalScore);
+        if((finalScore/3 >= 1) && velocity < velocityOf(16)){
+            setVelocity(velocityOf(16)); // makes the squares go faster if final score > 3
+            shortenCreationInterval();
+        } else if (finalScore/3/3 >= 1 && velocity < velocityOf(12)){
+            setVelocity(velocityOf(12)); // makes the squares go faster if final score > 9
+            shortenCreationInterval();
+        } else if (finalScore/3/3/3 >= 1 && velocity < velocityOf(8)){
+            setVelocity(velocityOf(8)); // makes the squares go faster if final score > 27
+            shortenCreationInterval();
+        } else if (finalScore/3/3/3/3 >= 1 && velocity < velocityOf(4)){
+            setVelocity(velocityOf(4)); // makes the squares go faster if final score > 81
+            shortenCreationInterval();
+        }
+    } // end speedUp
+
+    // The velocity of a square that goes a pixel every given number of milliseconds, which
+    // is how fast the squares went when the game sped up by ticking more often
+    private static int velocityOf(int millisPerPixel) {
+        return SquareStore.PIXEL * TICK_DELAY / millisPerPixel;
+    } // end velocityOf
+
+    private void setVelocity(int newVelocity) {
+        velocity = newVelocity;
+        squares.setVelocityAll(newVelocity);
+    } // end setVelocity
+
+    //decreases the time between spawns
+    private void shortenCreationInterval() {
+        if (creationInterval > 50){
+            creationInterval -= 50;
+        }
+    } // end shortenCreationInterval
+
+    // Tells the engine the panel has a new size.  If the game is paused the squares are
+    // moved back inside it right away; otherwise the next tick takes care of it.
+    public synchronized void resize(int newWidth, int newHeight) {
+        if (recorder != null)
+            recorder.resize(tickCount, newWidth, newHeight);
+        panelWidth = newWidth;
+        panelHeight = newHeight;
+        if (paused) {
+            for (int i = 0; i < squares.size(); i++)
+                squares.fixBounds(i, panelWidth, panelHeight);
+            hitIndex.invalidate();
+            if (publishing)
+                publish();
+        }
+    } // end resize
+
+    // Returns a copy of the squares as they are now
+    public synchronized SquareStore copySquares() {
+        return squares.copy();
+    } // end copySquares
+
+    // Replaces the squares in the game by a copy of the given ones
+    public synchronized void loadSquares(SquareStore source) {
+        squares.copyFrom(source);
+        hitIndex.invalidate();
+        if (publishing)
+            publish();
+    } // end loadSquares
+
+    // Tells the engine which part of the world is on screen (null if all of it may be).
+    // Snapshots then only hold the squares in and around it.  If it has left the area of
+    // the latest snapshot, a new one is published at once, so a paused game can be
+    // scrolled too.
+    public synchronized void setView(Rectangle area) {
+        view = area == null ? null : new Rectangle(area);
+        if (publishing && !snapshot.covers(view != null ? view : new Rectangle(0, 0, panelWidth, panelHeight)))
+            publish();
+    } // end setView
+
+    // Publishes a snapshot of the squares as they are now: all of them, or those in and
+    // around the view
+    private void publish() {
+        snapshot = new Snapshot(tickCount, squares, view != null ? snapshotArea(view) : null);
+    } // end publish
+
+    // Returns the area of the world snapshots hold when the given part of it is on screen
+    public static Rectangle snapshotArea(Rectangle view) {
+        int margin = Math.max(view.width, view.height) / VIEW_MARGIN;
+        return new Rectangle(view.x - margin, view.y - margin, view.width + 2 * margin, view.height + 2 * margin);
+    } // end snapshotArea
+
+    // Returns the latest published snapshot (null if the engine was never started)
+    public Snapshot getSnapshot() {
+        return snapshot;
+    } // end getSnapshot
+
+    public synchronized int getPanelWidth() {
+        return panelWidth;
+    } // end getPanelWidth
+
+    public synchronized int getPanelHeight() {
+        return panelHeight;
+    } // end getPanelHeight
+
+    // Velocity of the squares, in 1/SquareStore.PIXEL of a pixel per tick
+    public synchronized int getVelocity() {
+        return velocity;
+    } // end getVelocity
+
+    public synchronized long getTickCount() {
+        return tickCount;
+    } // end getTickCount
+
+    public synchronized int getSquareCount() {
+        return squares.size();
+    } // end getSquareCount
+
+    public synchronized boolean isGameOver() {
+        return gameOver;
+    } // end isGameOver
+
+    // Returns a hash of the squares as they are now, to check that two games are the same
+    public synchronized long getChecksum() {
+        return squares.checksum();
+    } // end getChecksum
+
+    public long getSeed() {
+        return seed;
+    } // end getSeed
+
+
+    // Runs a game headless (no window) as fast as possible and prints how it went, with a
+    // table of TickMetrics if run with -Dmetrics=true.  With -Dspectate=file the squares of
+    // every tick are written to the file, for a Spectator to show.  With -Devents=true the
+    // game's events are counted by type, on a thread of their own, and the events report
+    // is printed at the end.
+    // Usage: java -Djava.awt.headless=true [-Dseed=n] SimulationEngine [ticks [width height]]
+    public static void main(String args[]) {
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        SimulationEngine engine = new SimulationEngine(CollisionEngine.create(
+                System.getProperty("collisions", CollisionEngine.GRID), SIZE_INCREMENT),
+                Long.getLong("seed", new Random().nextLong()));
+        if (args.length > 2)
+            engine.resize(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        if (Boolean.getBoolean("metrics"))
+            engine.setMetrics(new TickMetrics());
+        GameEvents events = null;
+        final long[] counts = new long[GameEvents.GAME_OVER + 1];
+        if (Boolean.getBoolean("events")) {
+            events = new GameEvents();
+            engine.setEvents(events);
+            events.subscribe("counter", new GameEvents.Consumer() {
+                public void eventsArrived(GameEvents.Batch batch) {
+                    synchronized (counts) {
+                        for (int k = 0; k < batch.size(); k++)
+                            counts[batch.getType(k)]++;
+                    }
+                }
+            });
+        }
+        SpectatorStream spectators = null;
+        if (System.getProperty("spectate") != null) {
+            try {
+                spectators = SpectatorStream.open(System.getProperty("spectate"));
+                engine.setSpectatorStream(spectators);
+            } catch (IOException e) {
+                System.out.println("Can't stream to " + System.getProperty("spectate") + ": " + e);
+            }
+        }
+
+        long start = System.nanoTime();
+        long done = engine.runTicks(ticks);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(done + " ticks in " + seconds + " s (" + (long) (done / seconds) + " ticks/s), "
+                + engine.getSquareCount() + " squares" + (engine.isGameOver() ? ", game over" : ""));
+        if (engine.getMetrics() != null)
+            System.out.print(engine.getMetrics().report());
+        if (spectators != null) {
+            spectators.close();
+            System.out.print(spectators.report());
+        }
+        if (events != null) {
+            // give the counter a moment to read the last tick
+            long deadline = System.nanoTime() + 1000000000L;
+            GameEvents.Subscription counter = events.getSubscriptions()[0];
+            while (counter.getDelivered() + counter.getDropped() < events.getPublished() && System.nanoTime() < deadline)
+                LockSupport.parkNanos(1000000L);
+            StringBuilder line = new StringBuilder("events:");
+            synchronized (counts) {
+                for (byte type = GameEvents.SPAWN; type <= GameEvents.GAME_OVER; type++)
+                    line.append(" ").append(counts[type]).append(" ").append(GameEvents.typeName(type)).append(",");
+            }
+            System.out.println(line.substring(0, line.length() - 1));
+            System.out.print(events.report());
+        }
+    } // end main
+
+} // end class SimulationEngine
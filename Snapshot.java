@@ -0,0 +1,116 @@
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+
+/**
+ * A Snapshot is a frozen copy of the squares at the end of one tick of a SimulationEngine.
+ * The engine publishes a new one after every tick and never changes it afterwards, so the
+ * panel can paint it on the Swing thread while the engine is already working on the next
+ * tick.
+ *
+ * A snapshot of a world much bigger than the window holds only the squares in an area
+ * around the part on screen, which is all the painting needs: copying them costs what is
+ * near the screen, not what is in the world (finding them is one pass over the positions).
+ * It can be searched by area, to find the squares in view; the grid for that is built the
+ * first time it is needed, over the squares it holds.
+ *
+ */
+public class Snapshot {
+
+    // number of the tick this snapshot was taken after
+    private final long tick;
+
+    // when it was taken (System.nanoTime())
+    private final long time;
+
+    // private copy of the squares; never modified after the constructor
+    private final SquareStore squares;
+
+    // The area the squares were taken from, or null if the snapshot holds them all
+    private final Rectangle area;
+
+    // Grid over the squares for query(), built by the first one
+    private SpatialHash grid;
+
+    public Snapshot(long tick, SquareStore source) {
+        this(tick, source, null);
+    } // end Snapshot
+
+    // A snapshot of the squares that reach into the given area (all of them if it is null)
+    public Snapshot(long tick, SquareStore source, Rectangle area) {
+        this.tick = tick;
+        if (area == null) {
+            this.squares = source.copy();
+            this.area = null;
+        }
+        else {
+            this.squares = new SquareStore();
+            this.squares.copyFrom(source, area.x, area.y, area.x + area.width - 1, area.y + area.height - 1);
+            this.area = new Rectangle(area);
+        }
+        this.time = System.nanoTime();
+    } // end Snapshot
+
+    // Returns the number of the tick this snapshot was taken after
+    public long getTick() {
+        return tick;
+    } // end getTick
+
+    // Returns when the snapshot was taken, as System.nanoTime()
+    public long getTime() {
+        return time;
+    } // end getTime
+
+    // Returns true if the snapshot holds every square that reaches into the given area
+    public boolean covers(Rectangle other) {
+        return area == null || area.contains(other);
+    } // end covers
+
+    // Returns the number of squares in the snapshot
+    public int size() {
+        return squares.size();
+    } // end size
+
+    public int getId(int i) {
+        return squares.getId(i);
+    } // end getId
+
+    public int getX(int i) {
+        return squares.getX(i);
+    } // end getX
+
+    public int getY(int i) {
+        return squares.getY(i);
+    } // end getY
+
+    public int getSize(int i) {
+        return squares.getSize(i);
+    } // end getSize
+
+    public int getColorIndex(int i) {
+        return squares.getColorIndex(i);
+    } // end getColorIndex
+
+    public boolean isMoving(int i) {
+        return squares.isMoving(i);
+    } // end isMoving
+
+    // Finds the squares that may touch the rectangle from (left, top) to (right, bottom),
+    // inclusive, and puts their indexes in the query.  Returns the number found.  Only called
+    // by the thread that paints.
+    public int query(int left, int top, int right, int bottom, SpatialHash.Query found) {
+        if (grid == null) {
+            grid = new SpatialHash();
+            grid.build(squares);
+        }
+        return grid.query(left, top, right, bottom, found);
+    } // end query
+
+    // "Paints" every square of the snapshot using a graphics context, as doges if doge is true
+    public void paint(Graphics gc, boolean doge) {
+        for (int i = 0; i < squares.size(); i++) {
+            squares.paint(gc, i, doge);
+        } // end for
+    } // end paint
+
+} // end class Snapshot
@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+
+/**
+ * A SpatialHash is a uniform grid laid over the squares in the panel.  Each square is
+ * recorded in every cell it touches, so finding the squares that might overlap a given
+ * rectangle only means looking at the few cells under that rectangle instead of at every
+ * square.
+ *
+ * The grid is rebuilt from scratch by build(), which is cheap (two passes over the squares)
+ * and is meant to be called once per tick after all the squares have moved.  The cell size
+ * is picked from the sizes of the squares at that moment, so that a typical square covers
+ * only a handful of cells.
+ *
+ * Once built, the grid is only read, so several threads can query it at the same time as
+ * long as each one uses a Query of its own.
+ *
+ */
+public class SpatialHash {
+
+    // Never let the grid have more than this many cells per square (plus a little slack),
+    // so that a few squares spread over a huge panel don't allocate a huge grid.
+    private static final int MAX_CELLS_PER_SQUARE = 4;
+
+    // Width and height of one cell in pixels
+    private int cellSize = 1;
+
+    // Position of the top left corner of the grid, and its number of columns and rows
+    private int originX;
+    private int originY;
+    private int columns;
+    private int rows;
+
+    // The squares in cell c are cellItems[cellStart[c]] .. cellItems[cellStart[c+1]-1],
+    // recorded by their index in the store the grid was built from
+    private int[] cellStart = new int[2];
+    private int[] cellItems = new int[0];
+
+    // The results of query() without a Query of its own
+    private final Query defaultQuery = new Query();
+
+    // The result of a query: the indexes of the candidate squares, in increasing order
+    public static class Query {
+        private int[] result = new int[16];
+        private int count = 0;
+
+        // Returns the candidates found.  Only the first getCount() entries are valid.
+        public int[] getResult() {
+            return result;
+        } // end getResult
+
+        public int getCount() {
+            return count;
+        } // end getCount
+    } // end Query
+
+
+    // Rebuilds the grid so that it holds every square in the store, using the square's
+    // position in the store as its index.
+    public void build(SquareStore squares) {
+        build(squares, null, squares.size());
+    } // end build
+
+    // Same as above, but only for the squares items[0] .. items[count-1] of the store, still
+    // recorded by their position in the store
+    public void build(SquareStore squares, int[] items, int count) {
+        if (count == 0) {
+            columns = 0;
+            rows = 0;
+            return;
+        }
+
+        // Work out the area covered by the squares and their average size
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long totalSize = 0;
+        for (int k = 0; k < count; k++) {
+            int i = items == null ? k : items[k];
+            int x = squares.getX(i);
+            int y = squares.getY(i);
+            int size = squares.getSize(i);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x + size - 1);
+            maxY = Math.max(maxY, y + size - 1);
+            totalSize += size;
+        } // end for
+
+        // A cell twice the average size keeps most squares inside 1 to 4 cells
+        cellSize = (int) Math.max(1, 2 * totalSize / count);
+        originX = minX;
+        originY = minY;
+        columns = (maxX - minX) / cellSize + 1;
+        rows = (maxY - minY) / cellSize + 1;
+        long maxCells = (long) MAX_CELLS_PER_SQUARE * count + 16;
+        while ((long) columns * rows > maxCells) {
+            cellSize *= 2;
+            columns = (maxX - minX) / cellSize + 1;
+            rows = (maxY - minY) / cellSize + 1;
+        } // end while
+
+        int cells = columns * rows;
+        if (cellStart.length < cells + 1)
+            cellStart = new int[cells + 1];
+        else
+            Arrays.fill(cellStart, 0, cells + 1, 0);
+
+        // First pass: count the squares in each cell
+        int entries = 0;
+        for (int k = 0; k < count; k++) {
+            int i = items == null ? k : items[k];
+            int col0 = column(squares.getX(i));
+            int col1 = column(squares.getX(i) + squares.getSize(i) - 1);
+            int row0 = row(squares.getY(i));
+            int row1 = row(squares.getY(i) + squares.getSize(i) - 1);
+            for (int r = row0; r <= row1; r++)
+                for (int c = col0; c <= col1; c++)
+                    cellStart[r * columns + c + 1]++;
+            entries += (col1 - col0 + 1) * (row1 - row0 + 1);
+        } // end for
+        for (int c = 0; c < cells; c++)
+            cellStart[c + 1] += cellStart[c];
+
+        // Second pass: fill in the cells.  cellStart[c] is used as the fill position of cell c
+        // and ends up pointing at the start of cell c+1, so shift everything back afterwards.
+        if (cellItems.length < entries)
+            cellItems = new int[entries];
+        for (int k = 0; k < count; k++) {
+            int i = items == null ? k : items[k];
+            int col0 = column(squares.getX(i));
+            int col1 = column(squares.getX(i) + squares.getSize(i) - 1);
+            int row0 = row(squares.getY(i));
+            int row1 = row(squares.getY(i) + squares.getSize(i) - 1);
+            for (int r = row0; r <= row1; r++)
+                for (int c = col0; c <= col1; c++)
+                    cellItems[cellStart[r * columns + c]++] = i;
+        } // end for
+        for (int c = cells; c > 0; c--)
+            cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
+    } // end build
+
+    // Finds every square recorded in a cell touched by the rectangle from (left, top) to
+    // (right, bottom), inclusive.  Returns the number of candidates found; the candidates
+    // themselves can be read with getResult() and are sorted by increasing index.
+    public int query(int left, int top, int right, int bottom) {
+        return query(left, top, right, bottom, defaultQuery);
+    } // end query
+
+    // Same as above, but puts the candidates in the given Query.  Safe to call from several
+    // threads at once, each with a Query of its own.
+    public int query(int left, int top, int right, int bottom, Query q) {
+        q.count = 0;
+        if (columns == 0)
+            return 0;
+        int col0 = Math.max(0, column(left));
+        int col1 = Math.min(columns - 1, column(right));
+        int row0 = Math.max(0, row(top));
+        int row1 = Math.min(rows - 1, row(bottom));
+        if (col0 > col1 || row0 > row1)
+            return 0;
+
+        int[] result = q.result;
+        int found = 0;
+        for (int r = row0; r <= row1; r++) {
+            for (int c = col0; c <= col1; c++) {
+                int cell = r * columns + c;
+                int start = cellStart[cell], end = cellStart[cell + 1];
+                if (found + end - start > result.length)
+                    result = Arrays.copyOf(result, Math.max(2 * result.length, found + end - start));
+                for (int k = start; k < end; k++)
+                    result[found++] = cellItems[k];
+            } // end for
+        } // end for
+
+        // A square in several of the cells was found several times: sort and drop repeats
+        Arrays.sort(result, 0, found);
+        int unique = 0;
+        for (int k = 0; k < found; k++) {
+            if (unique == 0 || result[k] != result[unique - 1])
+                result[unique++] = result[k];
+        } // end for
+        q.result = result;
+        q.count = unique;
+        return unique;
+    } // end query
+
+    // Returns the candidates found by the last query().  Only the first query() entries are valid.
+    public int[] getResult() {
+        return defaultQuery.result;
+    } // end getResult
+
+    // Returns the current width of a cell, in pixels
+    public int getCellSize() {
+        return cellSize;
+    } // end getCellSize
+
+    // Returns the column holding the horizontal position x.  May be outside the grid.
+    private int column(int x) {
+        return Math.floorDiv(x - originX, cellSize);
+    } // end column
+
+    // Returns the row holding the vertical position y.  May be outside the grid.
+    private int row(int y) {
+        return Math.floorDiv(y - originY, cellSize);
+    } // end row
+
+} // end class SpatialHash
@@ -0,0 +1,264 @@
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.swing.*;
+
+
+/**
+ * A Spectator shows a game played somewhere else, from its SpectatorStream: read from a
+ * socket while the game goes on, or from a file after.  It runs no simulation at all.  A
+ * reader thread rebuilds the squares from each frame (a KEYFRAME replaces them, a DELTA
+ * changes the ones of the frame before) and puts a Snapshot of them in a buffer of
+ * BUFFER_FRAMES frames.
+ *
+ * The window takes a frame from the buffer every TICK_DELAY milliseconds, so frames that
+ * come in bursts are still shown at the pace they were played.  The buffer is bounded, so a
+ * spectator of a live game never falls more than that many frames behind: when the buffer is
+ * full the oldest frame in it is dropped.  A file is just read no faster than it is shown.
+ *
+ * Without a display (-Djava.awt.headless=true) the frames are only read and counted.
+ *
+ */
+public class Spectator extends JFrame {
+
+    // Frames read but not shown yet, at most
+    public static final int BUFFER_FRAMES = 8;
+
+    // A frame ready to be shown
+    private static class Frame {
+        private final Snapshot snapshot;
+        private final int panelWidth, panelHeight;
+
+        private Frame(Snapshot snapshot, int panelWidth, int panelHeight) {
+            this.snapshot = snapshot;
+            this.panelWidth = panelWidth;
+            this.panelHeight = panelHeight;
+        } // end Frame
+    } // end class Frame
+
+    private final StreamReader reader;
+    private final boolean live;
+    private final ArrayBlockingQueue<Frame> buffer = new ArrayBlockingQueue<Frame>(BUFFER_FRAMES);
+
+    private final SquareRenderer renderer = new SquareRenderer(false);
+    private final JPanel panel = new JPanel() {
+        public void paintComponent(Graphics gc) {
+            renderer.paint(gc, getWidth(), getHeight(), getBackground());
+        }
+    };
+
+    public Spectator(StreamReader reader, boolean live, String name) {
+        this.reader = reader;
+        this.live = live;
+        setTitle("Watching " + name);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        panel.setPreferredSize(new Dimension(600, 400));
+        getContentPane().add(panel);
+        pack();
+        new Timer(SimulationEngine.TICK_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showNext();
+            }
+        }).start();
+    } // end Spectator
+
+    // Reads frames into the buffer until the stream ends
+    private void readFrames() {
+        try {
+            while (reader.next()) {
+                if (!reader.isReady())
+                    continue; // joined between two keyframes
+                Frame frame = new Frame(new Snapshot(reader.getTick(), reader.getSquares()),
+                        reader.getPanelWidth(), reader.getPanelHeight());
+                if (!live)
+                    buffer.put(frame);
+                else {
+                    while (!buffer.offer(frame))
+                        buffer.poll(); // too far behind: drop the oldest
+                }
+            } // end while
+        } catch (IOException e) {
+            System.out.println("Lost the game: " + e);
+        } catch (InterruptedException e) {
+            return;
+        }
+        System.out.println("The game is over");
+    } // end readFrames
+
+    // Shows the next frame in the buffer, if there is one.  Called on the Swing thread.
+    private void showNext() {
+        Frame frame = buffer.poll();
+        if (frame == null)
+            return;
+        Dimension size = new Dimension(frame.panelWidth, frame.panelHeight);
+        if (!size.equals(panel.getPreferredSize())) {
+            panel.setPreferredSize(size);
+            pack();
+        }
+        setTitle("Watching tick " + frame.snapshot.getTick() + ", " + frame.snapshot.size() + " squares");
+        Rectangle changed = renderer.update(frame.snapshot);
+        if (changed == null)
+            panel.repaint();
+        else {
+            // one area at a time, as the game's panel does
+            for (int k = 0; k < renderer.getDirtyCount(); k++)
+                panel.paintImmediately(renderer.getDirty(k));
+        }
+    } // end showNext
+
+
+    // Reads the frames of a SpectatorStream from a channel, rebuilding the squares
+    public static class StreamReader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+        private ByteBuffer frame = ByteBuffer.allocateDirect(64 * 1024);
+
+        // The squares of the last frame, and a store to read the next delta into
+        private SquareStore squares = new SquareStore();
+        private SquareStore spare = new SquareStore();
+        private boolean ready = false;
+        private long tick;
+        private int panelWidth, panelHeight;
+        private long frames = 0, bytes = 0;
+
+        // Reads the header of the stream
+        public StreamReader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            ByteBuffer header = ByteBuffer.allocate(8);
+            if (!readFully(header) || header.getInt(0) != SpectatorStream.MAGIC)
+                throw new IOException("Not a spectator stream");
+            if (header.getInt(4) != SpectatorStream.VERSION)
+                throw new IOException("Spectator stream version " + header.getInt(4) + " is not "
+                        + SpectatorStream.VERSION);
+        } // end StreamReader
+
+        // Reads the next frame.  Returns false at the end of the stream.
+        public boolean next() throws IOException {
+            length.clear();
+            if (!readFully(length))
+                return false;
+            int size = length.getInt(0);
+            if (size < SpectatorStream.FRAME_HEADER_SIZE - 4)
+                throw new IOException("Bad frame length " + size);
+            if (frame.capacity() < size)
+                frame = ByteBuffer.allocateDirect(Math.max(size, 2 * frame.capacity()));
+            frame.clear();
+            frame.limit(size);
+            if (!readFully(frame))
+                return false;
+            frame.flip();
+            byte kind = frame.get();
+            tick = frame.getLong();
+            panelWidth = frame.getInt();
+            panelHeight = frame.getInt();
+            if (kind == SpectatorStream.KEYFRAME) {
+                squares.readFrom(frame);
+                ready = true;
+            }
+            else if (kind == SpectatorStream.DELTA && ready) {
+                spare.readDelta(frame, squares);
+                SquareStore swap = squares;
+                squares = spare;
+                spare = swap;
+            }
+            frames++;
+            bytes += 4 + size;
+            return true;
+        } // end next
+
+        // Returns true once a KEYFRAME has been read, so the squares are those of the game
+        public boolean isReady() {
+            return ready;
+        } // end isReady
+
+        // Returns the squares as of the last frame.  They change with the next frame.
+        public SquareStore getSquares() {
+            return squares;
+        } // end getSquares
+
+        public long getTick() {
+            return tick;
+        } // end getTick
+
+        public int getPanelWidth() {
+            return panelWidth;
+        } // end getPanelWidth
+
+        public int getPanelHeight() {
+            return panelHeight;
+        } // end getPanelHeight
+
+        public long getFrames() {
+            return frames;
+        } // end getFrames
+
+        public long getBytes() {
+            return bytes;
+        } // end getBytes
+
+        // Fills the buffer from the channel.  Returns false if the stream ends first.
+        private boolean readFully(ByteBuffer into) throws IOException {
+            while (into.hasRemaining()) {
+                if (channel.read(into) < 0)
+                    return false;
+            } // end while
+            return true;
+        } // end readFully
+    } // end class StreamReader
+
+
+    // Watches a game served on a port (of this machine, or host:port) or written to a file.
+    // Usage: java -cp out Spectator port|host:port|file
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Spectator port|host:port|file");
+            return;
+        }
+        String where = args[0];
+        ReadableByteChannel channel;
+        boolean live = where.matches("([^:]+:)?[0-9]+");
+        if (live) {
+            int colon = where.lastIndexOf(':');
+            InetSocketAddress address = colon < 0
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(where))
+                    : new InetSocketAddress(where.substring(0, colon), Integer.parseInt(where.substring(colon + 1)));
+            channel = SocketChannel.open(address);
+        }
+        else
+            channel = FileChannel.open(new File(where).toPath(), StandardOpenOption.READ);
+        final StreamReader reader = new StreamReader(channel);
+
+        if (GraphicsEnvironment.isHeadless()) {
+            long start = System.nanoTime();
+            while (reader.next()) {
+            } // end while
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(reader.getFrames() + " frames, " + reader.getBytes() + " bytes in "
+                    + seconds + " s; last tick " + reader.getTick() + ", "
+                    + reader.getSquares().size() + " squares, checksum " + reader.getSquares().checksum());
+            return;
+        }
+
+        final Spectator spectator = new Spectator(reader, live, where);
+        spectator.setVisible(true);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                spectator.readFrames();
+            }
+        }, "Spectator");
+        thread.setDaemon(true);
+        thread.start();
+    } // end main
+
+} // end class Spectator
@@ -0,0 +1,236 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+
+/**
+ * A SpectatorStream sends the squares of a game, tick by tick, to a Spectator in another
+ * window or process, so the game can be watched without being run twice.
+ *
+ * The stream is:
+ *
+ *   header   int MAGIC, int VERSION
+ *   frames   int length of the rest of the frame, byte KEYFRAME or DELTA, long tick,
+ *            int panel width, int panel height, then the squares: whole in a KEYFRAME
+ *            (SquareStore.writeTo()), as the changes from the frame before in a DELTA
+ *            (SquareStore.writeDelta()): the squares removed and added, how far each one
+ *            went -- a byte for both coordinates, since a square only goes a pixel or so a
+ *            tick -- and any size, color or direction changed by a collision.
+ *
+ * The first frame is a KEYFRAME, and so is one every keyframeEvery ticks
+ * (DEFAULT_KEYFRAME_EVERY unless told otherwise) and any frame whose squares can't be
+ * written as changes (a game loaded or started over), so a spectator that joins late only
+ * waits for the next one.
+ *
+ * The engine calls tickDone() at the end of every tick, with its lock held.  The frame is
+ * encoded there into a buffer the stream keeps, against a copy of the squares of the last
+ * frame that it keeps too, so once both are big enough a frame allocates nothing.  It is
+ * then written to the channel: a file, or a socket in non-blocking mode.  If the socket
+ * can't take the whole frame, the rest goes out at the next tick, and the ticks that end
+ * while a frame is still going out aren't sent.  The frame after is the changes since the
+ * last one sent, so a slow spectator sees the squares jump but never a wrong board, and
+ * never holds up the game.
+ *
+ * Frames and bytes sent, frames skipped, and the time taken to encode them are counted for
+ * report().
+ *
+ */
+public class SpectatorStream {
+
+    public static final int MAGIC = 0x4d535350; // "MSSP"
+    public static final int VERSION = 1;
+
+    // Kinds of frame
+    public static final byte KEYFRAME = 1;
+    public static final byte DELTA = 2;
+
+    // Bytes of a frame before the squares, the length included
+    public static final int FRAME_HEADER_SIZE = 4 + 1 + 8 + 4 + 4;
+
+    // A KEYFRAME every this many ticks (5 seconds)
+    public static final int DEFAULT_KEYFRAME_EVERY = 250;
+
+    private final int keyframeEvery;
+
+    private WritableByteChannel channel;
+    private String destination;
+
+    // The squares of the last frame sent, and whether they are there at all
+    private final SquareStore previous = new SquareStore();
+    private boolean havePrevious = false;
+    private long lastKeyframe = 0;
+
+    // The frame being written; bytes between its position and its limit haven't gone yet
+    private ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+
+    // Counters
+    private long frames = 0, keyframes = 0, skipped = 0, bytes = 0, squaresSent = 0;
+    private long totalEncodeNanos = 0, maxEncodeNanos = 0;
+    private long started = 0;
+
+    public SpectatorStream() {
+        this(DEFAULT_KEYFRAME_EVERY);
+    } // end SpectatorStream
+
+    // Same as above, with a KEYFRAME every keyframeEvery ticks
+    public SpectatorStream(int keyframeEvery) {
+        this.keyframeEvery = Math.max(1, keyframeEvery);
+        out.limit(0);
+    } // end SpectatorStream
+
+    // Returns a stream to the given place: a port number to serve spectators on that port of
+    // this machine, a file name otherwise
+    public static SpectatorStream open(String where) throws IOException {
+        SpectatorStream stream = new SpectatorStream();
+        if (where.matches("[0-9]+"))
+            stream.listen(Integer.parseInt(where));
+        else
+            stream.setChannel(FileChannel.open(new File(where).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), where);
+        return stream;
+    } // end open
+
+    // Serves the stream on the given port of the loopback address, to one spectator at a
+    // time: a spectator that connects takes over from the one before
+    public void listen(int port) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        SocketChannel spectator = server.accept();
+                        spectator.configureBlocking(false);
+                        spectator.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        setChannel(spectator, spectator.getRemoteAddress().toString());
+                    } catch (IOException e) {
+                        System.out.println("Not serving spectators any more: " + e);
+                        return;
+                    }
+                } // end while
+            }
+        }, "SpectatorStream");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    } // end listen
+
+    // Sends the stream to the given channel from the next tick, starting with the header and
+    // a KEYFRAME.  The channel sent to before is closed.
+    public synchronized void setChannel(WritableByteChannel newChannel, String name) {
+        close();
+        channel = newChannel;
+        destination = name;
+        havePrevious = false;
+        out.clear();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.flip();
+        if (started == 0)
+            started = System.nanoTime();
+    } // end setChannel
+
+    // Stops sending and closes the channel
+    public synchronized void close() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Closing the spectator stream to " + destination + " failed: " + e);
+        }
+        channel = null;
+    } // end close
+
+    // Sends the squares as they are at the end of a tick.  Called by the engine.
+    public synchronized void tickDone(long tick, SquareStore squares, int panelWidth, int panelHeight) {
+        if (channel == null)
+            return;
+        if (out.hasRemaining() && !flush())
+            return;
+        if (out.hasRemaining()) {
+            skipped++; // the spectator is still taking the last frame
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean keyframe = !havePrevious || tick - lastKeyframe >= keyframeEvery;
+        if (!keyframe) {
+            startFrame(DELTA, tick, panelWidth, panelHeight, squares.maxDeltaSize(previous));
+            keyframe = !squares.writeDelta(out, previous);
+        }
+        if (keyframe) {
+            startFrame(KEYFRAME, tick, panelWidth, panelHeight, squares.maxEncodedSize());
+            squares.writeTo(out);
+            lastKeyframe = tick;
+            keyframes++;
+        }
+        out.putInt(0, out.position() - 4);
+        out.flip();
+        previous.copyFrom(squares);
+        havePrevious = true;
+        long took = System.nanoTime() - start;
+        totalEncodeNanos += took;
+        maxEncodeNanos = Math.max(maxEncodeNanos, took);
+        frames++;
+        squaresSent += squares.size();
+        bytes += out.remaining();
+        flush();
+    } // end tickDone
+
+    // Starts a frame of the given kind in the buffer, big enough for maxSize bytes of squares
+    private void startFrame(byte kind, long tick, int panelWidth, int panelHeight, int maxSize) {
+        int needed = FRAME_HEADER_SIZE + maxSize;
+        if (out.capacity() < needed)
+            out = ByteBuffer.allocateDirect(Math.max(needed, 2 * out.capacity()));
+        out.clear();
+        out.putInt(0); // length, filled in when the frame is done
+        out.put(kind);
+        out.putLong(tick);
+        out.putInt(panelWidth);
+        out.putInt(panelHeight);
+    } // end startFrame
+
+    // Writes as much of the frame as the channel takes without blocking.  Returns false if
+    // the channel failed, and is closed.
+    private boolean flush() {
+        try {
+            while (out.hasRemaining()) {
+                if (channel.write(out) == 0)
+                    break; // the socket is full: the rest goes at the next tick
+            } // end while
+            return true;
+        } catch (IOException e) {
+            System.out.println("Spectator stream to " + destination + " closed: " + e);
+            close();
+            return false;
+        }
+    } // end flush
+
+    public synchronized long getFrames() {
+        return frames;
+    } // end getFrames
+
+    public synchronized long getBytes() {
+        return bytes;
+    } // end getBytes
+
+    // Returns the frames sent and skipped, the bytes sent and the time taken to encode them
+    public synchronized String report() {
+        double seconds = started == 0 ? 0 : (System.nanoTime() - started) / 1e9;
+        return String.format(Locale.ROOT, "spectators: %d frames (%d keyframes, %d skipped), %.1f KB"
+                + " (%.1f KB/s, %.2f bytes/square), encode avg %.1f us, max %.1f us%n",
+                frames, keyframes, skipped, bytes / 1024.0, seconds > 0 ? bytes / 1024.0 / seconds : 0,
+                squaresSent > 0 ? (double) bytes / squaresSent : 0,
+                frames > 0 ? totalEncodeNanos / 1000.0 / frames : 0, maxEncodeNanos / 1000.0);
+    } // end report
+
+} // end class SpectatorStream
@@ -0,0 +1,135 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * A SpriteCache keeps copies of one source image already scaled to the sizes the squares
+ * are drawn at, so that painting a square is a plain, unscaled drawImage.
+ *
+ * The source image is loaded on a background thread; until it has arrived get() returns
+ * null and the squares are drawn without it.  The scaled sprites are compatible images
+ * (same pixel layout as the screen), which Java2D can keep in video memory on its own.
+ * Only the most recently used sizes are kept; once the cache is full, the least recently
+ * used sprite is replaced.  Looking a sprite up allocates nothing, so once every size on
+ * screen is cached, painting allocates nothing either.
+ *
+ */
+public class SpriteCache {
+
+    // Number of sizes kept at once.  Squares grow 10 pixels at a time and rarely get past a
+    // few hundred pixels, so this covers every size normally on screen.
+    private static final int DEFAULT_CAPACITY = 32;
+
+    // Loads the source images of every cache, one at a time, off the Swing thread
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SpriteCache loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Callable<Image> source;
+    private Future<Image> pending;
+    private Image image;
+
+    // sizes[k] is the size of sprites[k]; lastUsed[k] is when it was last asked for.
+    // Entries with sprites[k] == null are free.
+    private final int[] sizes;
+    private final BufferedImage[] sprites;
+    private final long[] lastUsed;
+    private long clock = 0;
+
+    public SpriteCache(Callable<Image> source) {
+        this(source, DEFAULT_CAPACITY);
+    } // end SpriteCache
+
+    public SpriteCache(Callable<Image> source, int capacity) {
+        this.source = source;
+        sizes = new int[capacity];
+        sprites = new BufferedImage[capacity];
+        lastUsed = new long[capacity];
+    } // end SpriteCache
+
+    // Starts loading the source image in the background, if that hasn't been done yet
+    public synchronized void preload() {
+        if (pending == null)
+            pending = loader.submit(source);
+    } // end preload
+
+    // Returns the sprite for squares of the given size, or null if the source image isn't
+    // available (yet)
+    public synchronized Image get(int size) {
+        if (image == null && !loaded())
+            return null;
+        clock++;
+        int free = -1, oldest = 0;
+        for (int k = 0; k < sprites.length; k++) {
+            if (sprites[k] == null) {
+                if (free < 0)
+                    free = k;
+            }
+            else if (sizes[k] == size) {
+                lastUsed[k] = clock;
+                return sprites[k];
+            }
+            else if (lastUsed[k] < lastUsed[oldest] || sprites[oldest] == null) {
+                oldest = k;
+            }
+        } // end for
+        int k = free >= 0 ? free : oldest;
+        if (sprites[k] != null)
+            sprites[k].flush();
+        sprites[k] = scale(image, size);
+        sizes[k] = size;
+        lastUsed[k] = clock;
+        return sprites[k];
+    } // end get
+
+    // Returns true while the source image is still being loaded, so that get() may return a
+    // sprite later where it returns null now
+    public synchronized boolean isLoading() {
+        return image == null && (pending == null || !pending.isDone());
+    } // end isLoading
+
+    // Checks whether the background load has finished.  Returns true once the image is here.
+    private boolean loaded() {
+        if (pending == null)
+            preload();
+        if (!pending.isDone())
+            return false;
+        try {
+            image = pending.get();
+        } catch (Exception e) {
+            image = null;
+        }
+        if (image == null || image.getWidth(null) <= 0) {
+            image = null;
+            return false; // the image could not be read: no sprites
+        }
+        return true;
+    } // end loaded
+
+    // Returns a copy of the image scaled to size x size pixels
+    private static BufferedImage scale(Image image, int size) {
+        BufferedImage sprite;
+        if (GraphicsEnvironment.isHeadless()) {
+            sprite = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        }
+        else {
+            sprite = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDefaultConfiguration().createCompatibleImage(size, size);
+        }
+        Graphics2D gc = sprite.createGraphics();
+        gc.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        gc.drawImage(image, 0, 0, size, size, null);
+        gc.dispose();
+        return sprite;
+    } // end scale
+
+} // end class SpriteCache
@@ -0,0 +1,500 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * A SquareRenderer paints snapshots of the game incrementally.
+ *
+ * Each time a new snapshot arrives, update() compares it with the previous one (squares
+ * are matched by id) and finds the areas that need repainting: the old and new bounds of
+ * every square that moved, grew, changed color, appeared or disappeared.  The moving squares
+ * are spread all over the panel, so one rectangle around all of them would be about the
+ * whole panel.  Instead the bounds are gathered into at most MAX_DIRTY areas: bounds that
+ * are close together share an area, and the others are kept apart as long as that saves
+ * more than DIRTY_SLACK pixels.  The panel repaints each area on its own (Swing would merge
+ * them all back into one if they were only handed to repaint()).  Once the areas cover most
+ * of the rectangle around them, that rectangle is repainted instead.
+ *
+ * Stopped squares never move, so they are drawn once, together with the panel background,
+ * into an opaque background layer that is only redrawn when one of them changes (or the
+ * background color does).  Copying that layer is all it takes to clear the clip.  Moving
+ * squares are drawn color by color, so the graphics context changes color five times per
+ * frame instead of once per square, and only the ones that intersect the clip are drawn at
+ * all.
+ *
+ * A render loop that paints more often than the engine ticks can call interpolate() before
+ * each frame to draw the moving squares part of the way between the previous snapshot and
+ * the current one, so they glide instead of jumping once per tick.
+ *
+ * With a Camera, the panel shows part of a world bigger than itself.  Then nothing is
+ * compared between snapshots: each frame paints the window whole, with only the squares
+ * the snapshot's grid finds in view.  The engine's snapshots hold just the squares around
+ * the view (see SimulationEngine.setView()), so the grid and the painting cost what is near
+ * the screen; only taking the snapshot still reads every square's position once.
+ *
+ * All methods must be called on one thread: the Swing thread, or the render loop when the
+ * game is painted actively.
+ *
+ */
+public class SquareRenderer {
+
+    // Where the overlay showing how many pixels were redrawn goes
+    private static final Rectangle OVERLAY = new Rectangle(4, 4, 220, 16);
+
+    // Where the metrics overlay goes, one line every HUD_LINE pixels
+    private static final int HUD_LINE = 14;
+    private static final Rectangle HUD = new Rectangle(4, 24, 360, 5 * HUD_LINE + 4);
+
+    // Most areas update() hands out to repaint, and the pixels two areas may waste by being
+    // merged into the rectangle around both (painting an area on its own costs a little too)
+    private static final int MAX_DIRTY = 16;
+    private static final long DIRTY_SLACK = 32 * 32;
+
+    private Snapshot current;
+
+    // The snapshot before the current one, and where the squares of the current one are
+    // drawn while interpolating between the two
+    private Snapshot before;
+    private boolean interpolating = false;
+    private int[] shownX = new int[0], shownY = new int[0];
+
+    // Whether the squares are drawn as doges
+    private boolean doge = false;
+
+    // The stopped squares of the current snapshot, drawn over the panel background.
+    // staticLayerPartial is set when a doge sprite was still loading as the layer was drawn:
+    // the layer is drawn again, and the panel repainted whole, until it has all of them.
+    private BufferedImage staticLayer;
+    private boolean staticLayerValid = false;
+    private boolean staticLayerPartial = false;
+    private boolean staticLayerDoge = false;
+    private Color staticLayerBackground;
+
+    // Number of stopped squares in the current snapshot.  Without any, the layer is skipped
+    // and the clip is simply filled with the background color, which is cheaper.
+    private int stoppedCount = 0;
+
+    // Indexes of the moving squares of the current snapshot, grouped by color: the squares
+    // of color c are byColor[colorStart[c]] .. byColor[colorStart[c+1]-1]
+    private int[] byColor = new int[0];
+    private final int[] colorStart = new int[SquareStore.COLORS.length + 1];
+
+    // Areas that changed between the last two snapshots: area k is from (dirtyLeft[k],
+    // dirtyTop[k]) to (dirtyRight[k], dirtyBottom[k]) exclusive
+    private final int[] dirtyLeft = new int[MAX_DIRTY], dirtyTop = new int[MAX_DIRTY];
+    private final int[] dirtyRight = new int[MAX_DIRTY], dirtyBottom = new int[MAX_DIRTY];
+    private int dirtyCount = 0;
+
+    // Overlay reporting the pixels redrawn per frame
+    private final boolean showOverlay;
+    private long pixelsThisFrame = 0;
+    private long pixelsLastFrame = 0;
+    private long lastFrameTick = -1;
+
+    // Metrics shown over the squares, if any
+    private TickMetrics hud;
+
+    // Looks at part of a bigger world, if set, and the squares it found in view
+    private Camera camera;
+    private final SpatialHash.Query visible = new SpatialHash.Query();
+
+    public SquareRenderer(boolean showOverlay) {
+        this.showOverlay = showOverlay;
+    } // end SquareRenderer
+
+    // Makes the given snapshot the one to paint.  Returns the rectangle around the areas that
+    // need repainting, which getDirtyCount() and getDirty() give one by one, an empty
+    // rectangle if nothing visible changed, or null if everything must be repainted.
+    public Rectangle update(Snapshot next) {
+        dirtyCount = 0;
+        if (next == null)
+            return new Rectangle();
+        Snapshot previous = current;
+        current = next;
+        before = previous;
+        interpolating = false;
+        if (camera != null)
+            return null; // painted whole
+        groupByColor();
+        if (previous == null || doge != staticLayerDoge || staticLayerPartial) {
+            staticLayerValid = false;
+            return null;
+        }
+
+        // Both snapshots are in id order, so walk them side by side
+        int i = 0, j = 0;
+        while (i < previous.size() || j < next.size()) {
+            int oldId = i < previous.size() ? previous.getId(i) : Integer.MAX_VALUE;
+            int newId = j < next.size() ? next.getId(j) : Integer.MAX_VALUE;
+            if (oldId < newId) {
+                // the square is gone
+                addDirty(previous, i);
+                if (!previous.isMoving(i))
+                    staticLayerValid = false;
+                i++;
+            }
+            else if (newId < oldId) {
+                // the square is new
+                addDirty(next, j);
+                if (!next.isMoving(j))
+                    staticLayerValid = false;
+                j++;
+            }
+            else {
+                if (previous.getX(i) != next.getX(j) || previous.getY(i) != next.getY(j)
+                        || previous.getSize(i) != next.getSize(j)
+                        || previous.getColorIndex(i) != next.getColorIndex(j)
+                        || previous.isMoving(i) != next.isMoving(j)) {
+                    addDirty(previous, i);
+                    addDirty(next, j);
+                    if (!previous.isMoving(i) || !next.isMoving(j))
+                        staticLayerValid = false;
+                }
+                i++;
+                j++;
+            } // end if
+        } // end while
+
+        if (showOverlay)
+            addDirty(OVERLAY.x, OVERLAY.y, OVERLAY.width, OVERLAY.height);
+        if (hud != null)
+            addDirty(HUD.x, HUD.y, HUD.width, HUD.height);
+        if (dirtyCount == 0)
+            return new Rectangle();
+        return coalesceDirty();
+    } // end update
+
+    // Number of areas found by the last update(), 0 if it returned null
+    public int getDirtyCount() {
+        return dirtyCount;
+    } // end getDirtyCount
+
+    // Returns the k-th area found by the last update()
+    public Rectangle getDirty(int k) {
+        return new Rectangle(dirtyLeft[k], dirtyTop[k], dirtyRight[k] - dirtyLeft[k], dirtyBottom[k] - dirtyTop[k]);
+    } // end getDirty
+
+    // Paints the current snapshot, over the given background color, into the part of the
+    // panel selected by the clip of gc.  Every pixel of the clip is painted.
+    public void paint(Graphics gc, int width, int height, Color background) {
+        if (current == null) {
+            gc.setColor(background);
+            gc.fillRect(0, 0, width, height);
+            return;
+        }
+        Rectangle clip = gc.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, width, height);
+        if (current.getTick() != lastFrameTick) {
+            lastFrameTick = current.getTick();
+            pixelsLastFrame = pixelsThisFrame;
+            pixelsThisFrame = 0;
+        }
+        pixelsThisFrame += (long) clip.width * clip.height;
+        if (camera != null)
+            paintThroughCamera(gc, clip, background);
+        else
+            paintPanel(gc, clip, width, height, background);
+
+        if (showOverlay && clip.intersects(OVERLAY)) {
+            gc.setColor(Color.BLACK);
+            gc.drawString("redrawn: " + pixelsLastFrame + " px/frame", OVERLAY.x, OVERLAY.y + OVERLAY.height - 4);
+        }
+        if (hud != null && clip.intersects(HUD)) {
+            gc.setColor(Color.BLACK);
+            String[] lines = hud.hudLines();
+            for (int k = 0; k < lines.length; k++)
+                gc.drawString(lines[k], HUD.x, HUD.y + (k + 1) * HUD_LINE);
+        }
+    } // end paint
+
+    // Paints the squares of a world that is the panel
+    private void paintPanel(Graphics gc, Rectangle clip, int width, int height, Color background) {
+        // background and stopped squares
+        if (stoppedCount == 0) {
+            gc.setColor(background);
+            gc.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+        else {
+            if (!staticLayerValid || !background.equals(staticLayerBackground) || staticLayer == null
+                || staticLayer.getWidth() != width || staticLayer.getHeight() != height)
+                drawStaticLayer(gc, width, height, background);
+            gc.drawImage(staticLayer, 0, 0, null);
+        }
+
+        // moving squares, one color at a time
+        for (int c = 0; c < SquareStore.COLORS.length; c++) {
+            if (colorStart[c] == colorStart[c + 1])
+                continue;
+            gc.setColor(SquareStore.COLORS[c]);
+            for (int k = colorStart[c]; k < colorStart[c + 1]; k++) {
+                int i = byColor[k];
+                int x = interpolating ? shownX[i] : current.getX(i);
+                int y = interpolating ? shownY[i] : current.getY(i);
+                int size = current.getSize(i);
+                if (intersects(clip, x, y, size)) {
+                    gc.fillRect(x, y, size, size);
+                    if (doge) {
+                        Image sprite = MovingShapes.getDogeSprite(size);
+                        if (sprite != null)
+                            gc.drawImage(sprite, x, y, null);
+                    }
+                }
+            } // end for
+        } // end for
+    } // end paintPanel
+
+    // Paints the part of the world the camera looks at: the background, then the squares
+    // found in view by the snapshot's grid, one color at a time
+    private void paintThroughCamera(Graphics gc, Rectangle clip, Color background) {
+        gc.setColor(background);
+        gc.fillRect(clip.x, clip.y, clip.width, clip.height);
+        Rectangle area = camera.getVisibleArea();
+        int found = current.query(area.x, area.y, area.x + area.width, area.y + area.height, visible);
+        int[] index = visible.getResult();
+
+        // counting sort of the squares found by color
+        if (byColor.length < found)
+            byColor = new int[found];
+        for (int c = 0; c < colorStart.length; c++)
+            colorStart[c] = 0;
+        for (int k = 0; k < found; k++)
+            colorStart[current.getColorIndex(index[k]) + 1]++;
+        for (int c = 0; c < SquareStore.COLORS.length; c++)
+            colorStart[c + 1] += colorStart[c];
+        for (int k = 0; k < found; k++)
+            byColor[colorStart[current.getColorIndex(index[k])]++] = index[k];
+        for (int c = SquareStore.COLORS.length; c > 0; c--)
+            colorStart[c] = colorStart[c - 1];
+        colorStart[0] = 0;
+
+        Graphics2D world = (Graphics2D) gc.create();
+        camera.apply(world);
+        for (int c = 0; c < SquareStore.COLORS.length; c++) {
+            if (colorStart[c] == colorStart[c + 1])
+                continue;
+            world.setColor(SquareStore.COLORS[c]);
+            for (int k = colorStart[c]; k < colorStart[c + 1]; k++) {
+                int i = byColor[k];
+                int x = current.getX(i), y = current.getY(i), size = current.getSize(i);
+                if (!intersects(area, x, y, size))
+                    continue;
+                world.fillRect(x, y, size, size);
+                if (doge) {
+                    Image sprite = MovingShapes.getDogeSprite(size);
+                    if (sprite != null)
+                        world.drawImage(sprite, x, y, null);
+                }
+            } // end for
+        } // end for
+        world.dispose();
+    } // end paintThroughCamera
+
+    // Redraws the layer holding the background and the stopped squares
+    private void drawStaticLayer(Graphics gc, int width, int height, Color background) {
+        if (staticLayer == null || staticLayer.getWidth() != width || staticLayer.getHeight() != height) {
+            if (staticLayer != null)
+                staticLayer.flush();
+            GraphicsConfiguration config = ((Graphics2D) gc).getDeviceConfiguration();
+            staticLayer = config.createCompatibleImage(Math.max(1, width), Math.max(1, height));
+        }
+        Graphics2D layer = staticLayer.createGraphics();
+        boolean partial = false;
+        layer.setColor(background);
+        layer.fillRect(0, 0, staticLayer.getWidth(), staticLayer.getHeight());
+        for (int i = 0; i < current.size(); i++) {
+            if (!current.isMoving(i)) {
+                int x = current.getX(i), y = current.getY(i), size = current.getSize(i);
+                layer.setColor(SquareStore.COLORS[current.getColorIndex(i)]);
+                layer.fillRect(x, y, size, size);
+                if (doge) {
+                    Image sprite = MovingShapes.getDogeSprite(size);
+                    if (sprite != null)
+                        layer.drawImage(sprite, x, y, null);
+                    else if (MovingShapes.isDogeLoading())
+                        partial = true;
+                }
+            }
+        } // end for
+        layer.dispose();
+        staticLayerValid = !partial;
+        staticLayerPartial = partial;
+        staticLayerDoge = doge;
+        staticLayerBackground = background;
+    } // end drawStaticLayer
+
+    // Draws the squares alpha of the way from where they were in the snapshot before the
+    // current one (0) to where they are in the current one (1), until the next update().
+    // Squares that weren't in the snapshot before are drawn where they are now, and stopped
+    // squares don't move anyway.
+    public void interpolate(double alpha) {
+        if (current == null || before == null || alpha >= 1 || camera != null) {
+            interpolating = false;
+            return;
+        }
+        alpha = Math.max(0, alpha);
+        int n = current.size();
+        if (shownX.length < n) {
+            shownX = new int[n];
+            shownY = new int[n];
+        }
+        // Both snapshots are in id order, so walk them side by side
+        int i = 0;
+        for (int j = 0; j < n; j++) {
+            int id = current.getId(j);
+            while (i < before.size() && before.getId(i) < id)
+                i++;
+            int x = current.getX(j), y = current.getY(j);
+            if (i < before.size() && before.getId(i) == id) {
+                x = before.getX(i) + (int) Math.round((x - before.getX(i)) * alpha);
+                y = before.getY(i) + (int) Math.round((y - before.getY(i)) * alpha);
+            }
+            shownX[j] = x;
+            shownY[j] = y;
+        } // end for
+        interpolating = true;
+    } // end interpolate
+
+    // Paints through the given camera from the next update() on (null for a world that is
+    // the panel).  Interpolation is off with a camera.
+    public void setCamera(Camera newCamera) {
+        camera = newCamera;
+        staticLayerValid = false;
+    } // end setCamera
+
+    // Shows the given metrics over the squares, or nothing if null
+    public void setHud(TickMetrics metrics) {
+        hud = metrics;
+    } // end setHud
+
+    // Switches doge mode on or off.  Takes effect at the next update().
+    public void setDogeMode(boolean newDoge) {
+        doge = newDoge;
+    } // end setDogeMode
+
+    // Sorts the moving squares of the current snapshot by color (a counting sort)
+    private void groupByColor() {
+        int n = current.size();
+        if (byColor.length < n)
+            byColor = new int[n];
+        for (int c = 0; c < colorStart.length; c++)
+            colorStart[c] = 0;
+        stoppedCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (current.isMoving(i))
+                colorStart[current.getColorIndex(i) + 1]++;
+            else
+                stoppedCount++;
+        } // end for
+        for (int c = 0; c < SquareStore.COLORS.length; c++)
+            colorStart[c + 1] += colorStart[c];
+        // fill, using colorStart[c] as the fill position of color c, then shift back
+        for (int i = 0; i < n; i++) {
+            if (current.isMoving(i))
+                byColor[colorStart[current.getColorIndex(i)]++] = i;
+        } // end for
+        for (int c = SquareStore.COLORS.length; c > 0; c--)
+            colorStart[c] = colorStart[c - 1];
+        colorStart[0] = 0;
+    } // end groupByColor
+
+    // Returns the number of pixels repainted for the last complete frame
+    public long getPixelsLastFrame() {
+        return pixelsLastFrame;
+    } // end getPixelsLastFrame
+
+    // Adds the bounds of square i of the snapshot to the dirty area
+    private void addDirty(Snapshot snapshot, int i) {
+        addDirty(snapshot.getX(i), snapshot.getY(i), snapshot.getSize(i), snapshot.getSize(i));
+    } // end addDirty
+
+    // Adds a rectangle to the area it wastes the fewest pixels joining, if that is few enough
+    // or there is no room for another area, or else as an area of its own
+    private void addDirty(int x, int y, int width, int height) {
+        int right = x + width, bottom = y + height;
+        int best = -1;
+        long bestWaste = Long.MAX_VALUE;
+        for (int k = 0; k < dirtyCount; k++) {
+            long waste = area(Math.min(x, dirtyLeft[k]), Math.min(y, dirtyTop[k]), Math.max(right, dirtyRight[k]),
+                    Math.max(bottom, dirtyBottom[k])) - area(x, y, right, bottom) - dirtyArea(k);
+            if (waste < bestWaste) {
+                best = k;
+                bestWaste = waste;
+            }
+        } // end for
+        if (best >= 0 && (bestWaste <= DIRTY_SLACK || dirtyCount == MAX_DIRTY)) {
+            dirtyLeft[best] = Math.min(dirtyLeft[best], x);
+            dirtyTop[best] = Math.min(dirtyTop[best], y);
+            dirtyRight[best] = Math.max(dirtyRight[best], right);
+            dirtyBottom[best] = Math.max(dirtyBottom[best], bottom);
+        }
+        else {
+            dirtyLeft[dirtyCount] = x;
+            dirtyTop[dirtyCount] = y;
+            dirtyRight[dirtyCount] = right;
+            dirtyBottom[dirtyCount] = bottom;
+            dirtyCount++;
+        }
+    } // end addDirty
+
+    // Merges the areas that have grown into each other since they were started, and returns
+    // the rectangle around all of them.  If the areas cover most of it, it becomes the only
+    // area: painting it whole costs about the same, in one go.
+    private Rectangle coalesceDirty() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int a = 0; a < dirtyCount && !merged; a++) {
+                for (int b = a + 1; b < dirtyCount && !merged; b++) {
+                    int left = Math.min(dirtyLeft[a], dirtyLeft[b]), top = Math.min(dirtyTop[a], dirtyTop[b]);
+                    int right = Math.max(dirtyRight[a], dirtyRight[b]);
+                    int bottom = Math.max(dirtyBottom[a], dirtyBottom[b]);
+                    if (area(left, top, right, bottom) - dirtyArea(a) - dirtyArea(b) <= DIRTY_SLACK) {
+                        dirtyLeft[a] = left;
+                        dirtyTop[a] = top;
+                        dirtyRight[a] = right;
+                        dirtyBottom[a] = bottom;
+                        dirtyCount--;
+                        dirtyLeft[b] = dirtyLeft[dirtyCount];
+                        dirtyTop[b] = dirtyTop[dirtyCount];
+                        dirtyRight[b] = dirtyRight[dirtyCount];
+                        dirtyBottom[b] = dirtyBottom[dirtyCount];
+                        merged = true;
+                    }
+                } // end for
+            } // end for
+        } // end while
+
+        int left = dirtyLeft[0], top = dirtyTop[0], right = dirtyRight[0], bottom = dirtyBottom[0];
+        long covered = 0;
+        for (int k = 0; k < dirtyCount; k++) {
+            left = Math.min(left, dirtyLeft[k]);
+            top = Math.min(top, dirtyTop[k]);
+            right = Math.max(right, dirtyRight[k]);
+            bottom = Math.max(bottom, dirtyBottom[k]);
+            covered += dirtyArea(k);
+        } // end for
+        if (4 * covered >= 3 * area(left, top, right, bottom)) {
+            dirtyLeft[0] = left;
+            dirtyTop[0] = top;
+            dirtyRight[0] = right;
+            dirtyBottom[0] = bottom;
+            dirtyCount = 1;
+        }
+        return new Rectangle(left, top, right - left, bottom - top);
+    } // end coalesceDirty
+
+    private long dirtyArea(int k) {
+        return area(dirtyLeft[k], dirtyTop[k], dirtyRight[k], dirtyBottom[k]);
+    } // end dirtyArea
+
+    private static long area(int left, int top, int right, int bottom) {
+        return (long) (right - left) * (bottom - top);
+    } // end area
+
+    // Returns true if the square at (x, y) touches the clip rectangle
+    private static boolean intersects(Rectangle clip, int x, int y, int size) {
+        return x < clip.x + clip.width && x + size > clip.x && y < clip.y + clip.height && y + size > clip.y;
+    } // end intersects
+
+} // end class SquareRenderer
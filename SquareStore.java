@@ -0,0 +1,867 @@
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A SquareStore holds every square of a game in parallel primitive arrays ("columns")
+ * instead of one object per square.  Square i is described by x[i], y[i], size[i],
+ * direction[i], color[i] (an index into COLORS) and moving[i].  Each square also gets an
+ * id when it is added: ids are never reused and, since squares are only ever added at the
+ * end, increase from the oldest square to the newest.
+ *
+ * A square moves at velocity[i] pixels per tick, in fixed point: PIXEL is one pixel per
+ * tick, and progress[i] carries the fraction of a pixel left over from the last tick.  A
+ * move is always made of whole one-pixel steps, each following the rules of Square.move(),
+ * and the store remembers where each square started and how many steps it took, so that
+ * touched() can tell if two squares met on the way even if they moved several pixels.
+ *
+ * Keeping the columns packed means the per-tick loops walk straight through memory and the
+ * garbage collector has nothing to trace, even with hundreds of thousands of squares.
+ *
+ * The squares are kept in the order they were added, oldest first, because the collision
+ * rules depend on which square is older.  For that reason squares are never removed by
+ * swapping the last one into the hole: remove() shifts the columns down for a single
+ * removal, and kill() marks squares so that compact() can drop all of them in one pass.
+ *
+ * The Square class is still available as a lightweight view of one entry of a store.
+ *
+ */
+public class SquareStore {
+
+    // Sequence of colors for squares -- they start at the first color
+    // and move to the next after each collision until they reach the last
+    public static final Color COLORS[] = {Color.GREEN, Color.BLUE, Color.RED, Color.GRAY, Color.BLACK};
+    public static final int FIRST_COLOR = 0;
+    public static final int LAST_COLOR = COLORS.length - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Velocities are in 1/PIXEL of a pixel per tick
+    public static final int PIXEL_BITS = 8;
+    public static final int PIXEL = 1 << PIXEL_BITS;
+    // Fastest a square can go
+    public static final int MAX_VELOCITY = 64 * PIXEL;
+
+    // number of squares in the store
+    private int count = 0;
+
+    // COLUMNS: one entry per square
+    private int[] id;
+    private int[] x;
+    private int[] y;
+    private int[] size;
+    private byte[] direction;
+    private byte[] color;
+    private boolean[] moving;
+    private int[] velocity;
+    private short[] progress;
+
+    // The last move of each square: its position along its axis of motion, its direction
+    // and its size before the move, and the number of pixels it went
+    private int[] fromPosition;
+    private byte[] fromDirection;
+    private int[] fromSize;
+    private byte[] steps;
+    // Size of the panel of the last move, and highest velocity ever given to a square
+    private int movedWidth = 0, movedHeight = 0;
+    private int maxVelocity = PIXEL;
+
+    // id given to the next square added
+    private int nextId = 0;
+
+    // dead[i] is true if square i has been killed and will be removed by the next compact()
+    private boolean[] dead;
+    private int deadCount = 0;
+    // Lowest index killed since the last compact(): the squares before it stay where they are
+    private int firstDead = 0;
+
+    // Ids of the squares grown since the last clearGrown(), for the indexes kept over the
+    // store from tick to tick (see HitIndex).  Once more have grown than the store holds,
+    // the list is dropped and grownCount is -1 until the next clearGrown().
+    private int grownCount = 0;
+    private int[] grown = new int[16];
+
+    public SquareStore() {
+        this(INITIAL_CAPACITY);
+    } // end SquareStore
+
+    public SquareStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        id = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        size = new int[capacity];
+        direction = new byte[capacity];
+        color = new byte[capacity];
+        moving = new boolean[capacity];
+        velocity = new int[capacity];
+        progress = new short[capacity];
+        fromPosition = new int[capacity];
+        fromDirection = new byte[capacity];
+        fromSize = new int[capacity];
+        steps = new byte[capacity];
+        dead = new boolean[capacity];
+    } // end SquareStore
+
+
+    // Adds a square moving at one pixel per tick at the end of the store and returns its index
+    public int add(int posX, int posY, int squareSize, int squareDirection, int colorIndex) {
+        if (count == x.length)
+            grow(2 * count);
+        id[count] = nextId++;
+        x[count] = posX;
+        y[count] = posY;
+        size[count] = squareSize;
+        direction[count] = (byte) squareDirection;
+        color[count] = (byte) colorIndex;
+        moving[count] = true;
+        velocity[count] = PIXEL;
+        progress[count] = 0;
+        fromPosition[count] = horizontal(squareDirection) ? posX : posY;
+        fromDirection[count] = (byte) squareDirection;
+        fromSize[count] = squareSize;
+        steps[count] = 0;
+        dead[count] = false;
+        return count++;
+    } // end add
+
+    // Adds a copy of the given square at the end of the store and returns its index
+    public int add(Square square) {
+        int index = add(square.getXposition(), square.getYposition(), square.getSize(),
+                square.getDirection(), colorIndex(square.getColor()));
+        moving[index] = square.isMoving();
+        return index;
+    } // end add
+
+    // Removes square i, keeping the others in order
+    public void remove(int i) {
+        int tail = count - i - 1;
+        if (tail > 0) {
+            System.arraycopy(id, i + 1, id, i, tail);
+            System.arraycopy(x, i + 1, x, i, tail);
+            System.arraycopy(y, i + 1, y, i, tail);
+            System.arraycopy(size, i + 1, size, i, tail);
+            System.arraycopy(direction, i + 1, direction, i, tail);
+            System.arraycopy(color, i + 1, color, i, tail);
+            System.arraycopy(moving, i + 1, moving, i, tail);
+            System.arraycopy(velocity, i + 1, velocity, i, tail);
+            System.arraycopy(progress, i + 1, progress, i, tail);
+            System.arraycopy(fromPosition, i + 1, fromPosition, i, tail);
+            System.arraycopy(fromDirection, i + 1, fromDirection, i, tail);
+            System.arraycopy(fromSize, i + 1, fromSize, i, tail);
+            System.arraycopy(steps, i + 1, steps, i, tail);
+            System.arraycopy(dead, i + 1, dead, i, tail);
+        }
+        count--;
+    } // end remove
+
+    // Marks square i for removal by the next compact().  Its index stays valid until then.
+    public void kill(int i) {
+        if (!dead[i]) {
+            dead[i] = true;
+            if (deadCount == 0 || i < firstDead)
+                firstDead = i;
+            deadCount++;
+        }
+    } // end kill
+
+    // Returns true if square i has been killed since the last compact()
+    public boolean isDead(int i) {
+        return dead[i];
+    } // end isDead
+
+    // Removes every killed square in a single pass, keeping the others in order
+    public void compact() {
+        if (deadCount == 0)
+            return;
+        int kept = firstDead;
+        for (int i = firstDead; i < count; i++) {
+            if (!dead[i]) {
+                if (kept != i) {
+                    id[kept] = id[i];
+                    x[kept] = x[i];
+                    y[kept] = y[i];
+                    size[kept] = size[i];
+                    direction[kept] = direction[i];
+                    color[kept] = color[i];
+                    moving[kept] = moving[i];
+                    velocity[kept] = velocity[i];
+                    progress[kept] = progress[i];
+                    fromPosition[kept] = fromPosition[i];
+                    fromDirection[kept] = fromDirection[i];
+                    fromSize[kept] = fromSize[i];
+                    steps[kept] = steps[i];
+                    dead[kept] = false;
+                }
+                kept++;
+            }
+        } // end for
+        count = kept;
+        deadCount = 0;
+    } // end compact
+
+    // Returns a hash of every square in the store, in order.  Two stores with the same
+    // squares have the same checksum.
+    public long checksum() {
+        long hash = count;
+        for (int i = 0; i < count; i++) {
+            hash = hash * 31 + id[i];
+            hash = hash * 31 + x[i];
+            hash = hash * 31 + y[i];
+            hash = hash * 31 + size[i];
+            hash = hash * 31 + color[i];
+            hash = hash * 31 + direction[i];
+            hash = hash * 31 + (moving[i] ? 1 : 0);
+            hash = hash * 31 + velocity[i];
+            hash = hash * 31 + progress[i];
+        } // end for
+        return hash;
+    } // end checksum
+
+    // Returns a new store holding a copy of the squares in this one
+    public SquareStore copy() {
+        SquareStore other = new SquareStore(count);
+        other.copyFrom(this);
+        return other;
+    } // end copy
+
+    // Replaces the squares in this store by a copy of the squares in the other one
+    public void copyFrom(SquareStore other) {
+        if (x.length < other.count)
+            grow(other.count);
+        System.arraycopy(other.id, 0, id, 0, other.count);
+        System.arraycopy(other.x, 0, x, 0, other.count);
+        System.arraycopy(other.y, 0, y, 0, other.count);
+        System.arraycopy(other.size, 0, size, 0, other.count);
+        System.arraycopy(other.direction, 0, direction, 0, other.count);
+        System.arraycopy(other.color, 0, color, 0, other.count);
+        System.arraycopy(other.moving, 0, moving, 0, other.count);
+        System.arraycopy(other.velocity, 0, velocity, 0, other.count);
+        System.arraycopy(other.progress, 0, progress, 0, other.count);
+        System.arraycopy(other.fromPosition, 0, fromPosition, 0, other.count);
+        System.arraycopy(other.fromDirection, 0, fromDirection, 0, other.count);
+        System.arraycopy(other.fromSize, 0, fromSize, 0, other.count);
+        System.arraycopy(other.steps, 0, steps, 0, other.count);
+        System.arraycopy(other.dead, 0, dead, 0, other.count);
+        movedWidth = other.movedWidth;
+        movedHeight = other.movedHeight;
+        maxVelocity = other.maxVelocity;
+        count = other.count;
+        deadCount = other.deadCount;
+        firstDead = other.firstDead;
+        nextId = other.nextId;
+    } // end copyFrom
+
+    // Replaces the squares in this store by a copy of the squares of the other one that reach
+    // into the area from (left, top) to (right, bottom), inclusive.  They stay in id order;
+    // killed squares are left out.
+    public void copyFrom(SquareStore other, int left, int top, int right, int bottom) {
+        count = 0;
+        for (int i = 0; i < other.count; i++) {
+            if (other.dead[i] || other.x[i] > right || other.y[i] > bottom
+                    || other.x[i] + other.size[i] <= left || other.y[i] + other.size[i] <= top)
+                continue;
+            if (count == x.length)
+                grow(2 * count);
+            id[count] = other.id[i];
+            x[count] = other.x[i];
+            y[count] = other.y[i];
+            size[count] = other.size[i];
+            direction[count] = other.direction[i];
+            color[count] = other.color[i];
+            moving[count] = other.moving[i];
+            velocity[count] = other.velocity[i];
+            progress[count] = other.progress[i];
+            fromPosition[count] = other.fromPosition[i];
+            fromDirection[count] = other.fromDirection[i];
+            fromSize[count] = other.fromSize[i];
+            steps[count] = other.steps[i];
+            dead[count] = false;
+            count++;
+        } // end for
+        movedWidth = other.movedWidth;
+        movedHeight = other.movedHeight;
+        maxVelocity = other.maxVelocity;
+        deadCount = 0;
+        nextId = other.nextId;
+    } // end copyFrom
+
+    // BINARY FORM, used by checkpoints.  Only the squares, nextId and the highest velocity
+    // are written, not the record of the last move: a store read back has not moved yet.
+
+    // Bytes of a square written whole: id, x, y, size and velocity, progress, and direction,
+    // color and moving
+    private static final int SQUARE_BYTES = 5 * 4 + 2 + 3;
+    // Most bytes of a square in a delta: flags, x and y as varints, then any of the others
+    private static final int DELTA_SQUARE_BYTES = 1 + 2 * 5 + SQUARE_BYTES - 3 * 4;
+
+    // Bits in the flags of a square in a delta, set for each column that changed, and for a
+    // move of less than 8 pixels each way, which takes one byte for both coordinates
+    private static final int SIZE_CHANGED = 1, DIRECTION_CHANGED = 2, COLOR_CHANGED = 4,
+            MOVING_CHANGED = 8, VELOCITY_CHANGED = 16, PROGRESS_CHANGED = 32, SMALL_MOVE = 64;
+
+    // Returns the most bytes writeTo() can take
+    public int maxEncodedSize() {
+        return 3 * 4 + count * SQUARE_BYTES;
+    } // end maxEncodedSize
+
+    // Returns the most bytes writeDelta() can take with the given base
+    public int maxDeltaSize(SquareStore base) {
+        return 4 * 4 + ((base.count + 7) >> 3) + count * Math.max(SQUARE_BYTES, DELTA_SQUARE_BYTES);
+    } // end maxDeltaSize
+
+    // Writes every square, a column at a time
+    public void writeTo(ByteBuffer out) {
+        checkCompact();
+        out.putInt(count);
+        out.putInt(nextId);
+        out.putInt(maxVelocity);
+        putInts(out, id, count);
+        putInts(out, x, count);
+        putInts(out, y, count);
+        putInts(out, size, count);
+        putInts(out, velocity, count);
+        out.asShortBuffer().put(progress, 0, count);
+        out.position(out.position() + 2 * count);
+        out.put(direction, 0, count);
+        out.put(color, 0, count);
+        for (int i = 0; i < count; i++)
+            out.put((byte) (moving[i] ? 1 : 0));
+    } // end writeTo
+
+    // Replaces the squares in this store by the ones written by writeTo()
+    public void readFrom(ByteBuffer in) {
+        int newCount = readHeader(in);
+        getInts(in, id, newCount);
+        getInts(in, x, newCount);
+        getInts(in, y, newCount);
+        getInts(in, size, newCount);
+        getInts(in, velocity, newCount);
+        in.asShortBuffer().get(progress, 0, newCount);
+        in.position(in.position() + 2 * newCount);
+        in.get(direction, 0, newCount);
+        in.get(color, 0, newCount);
+        for (int i = 0; i < newCount; i++)
+            moving[i] = in.get() != 0;
+        readDone(newCount);
+    } // end readFrom
+
+    // Writes the squares as changes from the squares of base, an earlier copy of this store:
+    // which of base's squares are still here, how far each of them went and which of its
+    // other columns changed, then the squares added since, whole.  From one tick to the next
+    // that is two bytes for most squares.  Returns false, having written nothing, if this
+    // store isn't descended from base.
+    public boolean writeDelta(ByteBuffer out, SquareStore base) {
+        checkCompact();
+        int start = out.position();
+        out.putInt(count);
+        out.putInt(nextId);
+        out.putInt(maxVelocity);
+        // one bit for each square of base, set if it is still here
+        int bitmap = out.position();
+        int bitmapBytes = (base.count + 7) >> 3;
+        for (int k = 0; k < bitmapBytes; k++)
+            out.put((byte) 0);
+        int i = 0;
+        for (int b = 0; b < base.count && i < count; b++) {
+            if (id[i] < base.id[b]) {
+                out.position(start); // a square that base never had
+                return false;
+            }
+            if (id[i] != base.id[b])
+                continue; // removed since
+            out.put(bitmap + (b >> 3), (byte) (out.get(bitmap + (b >> 3)) | (1 << (b & 7))));
+            int flags = 0;
+            if (size[i] != base.size[b])
+                flags |= SIZE_CHANGED;
+            if (direction[i] != base.direction[b])
+                flags |= DIRECTION_CHANGED;
+            if (color[i] != base.color[b])
+                flags |= COLOR_CHANGED;
+            if (moving[i] != base.moving[b])
+                flags |= MOVING_CHANGED;
+            if (velocity[i] != base.velocity[b])
+                flags |= VELOCITY_CHANGED;
+            if (progress[i] != base.progress[b])
+                flags |= PROGRESS_CHANGED;
+            int dx = x[i] - base.x[b], dy = y[i] - base.y[b];
+            if (dx >= -8 && dx < 8 && dy >= -8 && dy < 8) {
+                out.put((byte) (flags | SMALL_MOVE));
+                out.put((byte) ((dx << 4) | (dy & 0xf)));
+            }
+            else {
+                out.put((byte) flags);
+                putSigned(out, dx);
+                putSigned(out, dy);
+            }
+            if ((flags & SIZE_CHANGED) != 0)
+                out.putInt(size[i]);
+            if ((flags & DIRECTION_CHANGED) != 0)
+                out.put(direction[i]);
+            if ((flags & COLOR_CHANGED) != 0)
+                out.put(color[i]);
+            if ((flags & MOVING_CHANGED) != 0)
+                out.put((byte) (moving[i] ? 1 : 0));
+            if ((flags & VELOCITY_CHANGED) != 0)
+                out.putInt(velocity[i]);
+            if ((flags & PROGRESS_CHANGED) != 0)
+                out.putShort(progress[i]);
+            i++;
+        } // end for
+        if (i < count && id[i] < base.nextId) {
+            out.position(start);
+            return false;
+        }
+        out.putInt(count - i);
+        for (; i < count; i++) {
+            out.putInt(id[i]);
+            out.putInt(x[i]);
+            out.putInt(y[i]);
+            out.putInt(size[i]);
+            out.putInt(velocity[i]);
+            out.putShort(progress[i]);
+            out.put(direction[i]);
+            out.put(color[i]);
+            out.put((byte) (moving[i] ? 1 : 0));
+        } // end for
+        return true;
+    } // end writeDelta
+
+    // Replaces the squares in this store by the squares of base (another store) changed as
+    // written by writeDelta()
+    public void readDelta(ByteBuffer in, SquareStore base) {
+        int newCount = readHeader(in);
+        int bitmap = in.position();
+        in.position(bitmap + ((base.count + 7) >> 3));
+        int n = 0;
+        for (int b = 0; b < base.count; b++) {
+            if ((in.get(bitmap + (b >> 3)) & (1 << (b & 7))) == 0)
+                continue;
+            if (n == newCount)
+                throw new IllegalArgumentException("More squares in the delta than it says");
+            int flags = in.get();
+            id[n] = base.id[b];
+            if ((flags & SMALL_MOVE) != 0) {
+                int move = in.get();
+                x[n] = base.x[b] + (move >> 4);
+                y[n] = base.y[b] + ((move << 28) >> 28);
+            }
+            else {
+                x[n] = base.x[b] + getSigned(in);
+                y[n] = base.y[b] + getSigned(in);
+            }
+            size[n] = (flags & SIZE_CHANGED) != 0 ? in.getInt() : base.size[b];
+            direction[n] = (flags & DIRECTION_CHANGED) != 0 ? in.get() : base.direction[b];
+            color[n] = (flags & COLOR_CHANGED) != 0 ? in.get() : base.color[b];
+            moving[n] = (flags & MOVING_CHANGED) != 0 ? in.get() != 0 : base.moving[b];
+            velocity[n] = (flags & VELOCITY_CHANGED) != 0 ? in.getInt() : base.velocity[b];
+            progress[n] = (flags & PROGRESS_CHANGED) != 0 ? in.getShort() : base.progress[b];
+            n++;
+        } // end for
+        int added = in.getInt();
+        if (n + added != newCount)
+            throw new IllegalArgumentException("Delta has " + (n + added) + " squares, not " + newCount);
+        for (; n < newCount; n++) {
+            id[n] = in.getInt();
+            x[n] = in.getInt();
+            y[n] = in.getInt();
+            size[n] = in.getInt();
+            velocity[n] = in.getInt();
+            progress[n] = in.getShort();
+            direction[n] = in.get();
+            color[n] = in.get();
+            moving[n] = in.get() != 0;
+        } // end for
+        readDone(newCount);
+    } // end readDelta
+
+    // Reads what writeTo() and writeDelta() start with and makes room for the squares
+    private int readHeader(ByteBuffer in) {
+        int newCount = in.getInt();
+        if (newCount < 0)
+            throw new IllegalArgumentException("Bad number of squares: " + newCount);
+        if (x.length < newCount)
+            grow(newCount);
+        nextId = in.getInt();
+        maxVelocity = in.getInt();
+        return newCount;
+    } // end readHeader
+
+    // Finishes reading newCount squares: none of them has moved or been killed
+    private void readDone(int newCount) {
+        for (int i = 0; i < newCount; i++) {
+            fromPosition[i] = horizontal(direction[i]) ? x[i] : y[i];
+            fromDirection[i] = direction[i];
+            fromSize[i] = size[i];
+            steps[i] = 0;
+            dead[i] = false;
+        } // end for
+        count = newCount;
+        deadCount = 0;
+        movedWidth = 0;
+        movedHeight = 0;
+    } // end readDone
+
+    private void checkCompact() {
+        if (deadCount != 0)
+            throw new IllegalStateException("Killed squares must be compacted first");
+    } // end checkCompact
+
+    // Removes every square
+    public void clear() {
+        count = 0;
+        deadCount = 0;
+        maxVelocity = PIXEL;
+    } // end clear
+
+    // Moves every square (that is moving) by its velocity, bouncing off the edges of a panel
+    // of the given size.  Each pixel of the way follows the rules of Square.move().
+    public void moveAll(int panelWidth, int panelHeight) {
+        moveRange(0, count, panelWidth, panelHeight);
+    } // end moveAll
+
+    // Same as moveAll(), but only for squares from .. to-1.  Squares move independently, so
+    // separate ranges can be moved by separate threads.  The work is done by the MoveKernel
+    // picked by -Dmove.kernel.
+    public void moveRange(int from, int to, int panelWidth, int panelHeight) {
+        movedWidth = panelWidth;
+        movedHeight = panelHeight;
+        // the walls stopped each square at the size it had then, whatever it grows to later
+        System.arraycopy(size, from, fromSize, from, to - from);
+        MoveKernel.getDefault().move(x, y, size, direction, moving, velocity, progress,
+                fromPosition, fromDirection, steps, from, to, panelWidth, panelHeight);
+    } // end moveRange
+
+    // Moves square i back inside a panel of the given size, changing its direction if it
+    // was heading out.  Same rules as the bounds check at the end of moveAll().
+    public void fixBounds(int i, int panelWidth, int panelHeight) {
+        int dir = direction[i];
+        if (x[i] < 0) {
+            x[i] = 0;
+            if (dir == Square.LEFT)
+                dir = Square.RIGHT;
+        }
+        else if (x[i] > panelWidth - size[i]) {
+            x[i] = panelWidth - size[i];
+            if (dir == Square.RIGHT)
+                dir = Square.LEFT;
+        } // end if
+        if (y[i] < 0) {
+            y[i] = 0;
+            if (dir == Square.UP)
+                dir = Square.DOWN;
+        }
+        else if (y[i] > panelHeight - size[i]) {
+            y[i] = panelHeight - size[i];
+            if (dir == Square.DOWN)
+                dir = Square.UP;
+        } // end if
+        direction[i] = (byte) dir;
+    } // end fixBounds
+
+    // Returns true if squares i and j touch, including their boundary pixels
+    public boolean overlap(int i, int j) {
+        return overlap(i, x[j], y[j], size[j]);
+    } // end overlap
+
+    // Returns true if square i touches the square with the given position and size
+    public boolean overlap(int i, int posX, int posY, int squareSize) {
+        return overlap(x[i], y[i], size[i], posX, posY, squareSize);
+    } // end overlap
+
+    // Returns true if squares i and j touched at any time during the last move: at its end,
+    // or at a point on the way for squares that moved several pixels.  Squares that went m
+    // and n pixels are compared at max(m, n) points of their paths, so neither gets more than
+    // a pixel further between two comparisons and they can't pass through each other unseen.
+    // The paths bounce off the walls as the squares did, at the sizes they had when they
+    // moved, so no point of a path is further than its steps from where the square ended: a
+    // square that has grown since then is drawn at its new size, from the same corner.  Same
+    // as overlap() for squares that moved a pixel or less.
+    public boolean touched(int i, int j) {
+        if (overlap(i, j))
+            return true;
+        int points = Math.max(steps[i], steps[j]);
+        for (int p = 1; p < points; p++) {
+            int stepsI = (p * steps[i] + points - 1) / points;
+            int stepsJ = (p * steps[j] + points - 1) / points;
+            int xi = x[i], yi = y[i], xj = x[j], yj = y[j];
+            if (stepsI < steps[i]) {
+                if (horizontal(fromDirection[i]))
+                    xi = pathPosition(i, stepsI);
+                else
+                    yi = pathPosition(i, stepsI);
+            }
+            if (stepsJ < steps[j]) {
+                if (horizontal(fromDirection[j]))
+                    xj = pathPosition(j, stepsJ);
+                else
+                    yj = pathPosition(j, stepsJ);
+            }
+            if (overlap(xi, yi, size[i], xj, yj, size[j]))
+                return true;
+        } // end for
+        return false;
+    } // end touched
+
+    // Returns where square i was along its axis of motion after the first k steps of its last
+    // move, following the same rules as moveRange()
+    private int pathPosition(int i, int k) {
+        int dir = fromDirection[i];
+        int position = fromPosition[i];
+        int max = (horizontal(dir) ? movedWidth : movedHeight) - fromSize[i];
+        boolean up = dir == Square.RIGHT || dir == Square.DOWN;
+        for (int step = 0; step < k; step++) {
+            position += up ? 1 : -1;
+            if (position < 0) {
+                position = 0;
+                up = true;
+            }
+            else if (position > max) {
+                position = max;
+                up = false;
+            } // end if
+        } // end for
+        return position;
+    } // end pathPosition
+
+    // How far beyond its own bounds a square has to look for the squares it may have touched
+    // during the last move: 0 as long as no square goes more than a pixel per tick.  Each
+    // path point of touched() is within a square's steps of where it ended, at any size.
+    public int getSweepMargin() {
+        int reach = (maxVelocity + PIXEL - 1) >> PIXEL_BITS;
+        return reach > 1 ? 2 * reach : 0;
+    } // end getSweepMargin
+
+    // Returns true if any square in the store touches the square with the given position and size
+    public boolean overlapsAny(int posX, int posY, int squareSize) {
+        for (int i = 0; i < count; i++) {
+            if (overlap(x[i], y[i], size[i], posX, posY, squareSize))
+                return true;
+        } // end for
+        return false;
+    } // end overlapsAny
+
+    // Returns true if the point (px, py) is inside square i, boundary included
+    public boolean inside(int i, int px, int py) {
+        return px >= x[i] && px <= x[i] + size[i] && py >= y[i] && py <= y[i] + size[i];
+    } // end inside
+
+    // "Paints" square i using a graphics context
+    // If the user scores below 0 (doge is true), all the Squares will be replaced with a picture of doge
+    public void paint(Graphics gc, int i, boolean doge) {
+        int px = x[i], py = y[i], s = size[i];
+        gc.setColor(COLORS[color[i]]);
+        gc.fillRect(px, py, s, s);
+        if (doge){ // if score < 0
+            //draws the image, already scaled to the square
+            Image sprite = MovingShapes.getDogeSprite(s);
+            if (sprite != null)
+                gc.drawImage(sprite, px, py, null);
+        }
+    } // end paint
+
+    // Returns a Square that views entry i of this store.  The view follows index i, not the
+    // square, so it should not be kept across removals.
+    public Square get(int i) {
+        return new Square(this, i);
+    } // end get
+
+    // ACCESSORS
+
+    public int size() {
+        return count;
+    } // end size
+
+    public int getId(int i) {
+        return id[i];
+    } // end getId
+
+    // Returns the index of the square with the given id, or -1 if it isn't in the store.
+    // Ids increase along the store, so this is a binary search.
+    public int indexOf(int squareId) {
+        int found = Arrays.binarySearch(id, 0, count, squareId);
+        return found >= 0 ? found : -1;
+    } // end indexOf
+
+    public int getX(int i) {
+        return x[i];
+    } // end getX
+
+    public int getY(int i) {
+        return y[i];
+    } // end getY
+
+    public int getSize(int i) {
+        return size[i];
+    } // end getSize
+
+    public int getDirection(int i) {
+        return direction[i];
+    } // end getDirection
+
+    public int getColorIndex(int i) {
+        return color[i];
+    } // end getColorIndex
+
+    public Color getColor(int i) {
+        return COLORS[color[i]];
+    } // end getColor
+
+    public boolean isMoving(int i) {
+        return moving[i];
+    } // end isMoving
+
+    // Velocity of square i, in 1/PIXEL of a pixel per tick
+    public int getVelocity(int i) {
+        return velocity[i];
+    } // end getVelocity
+
+    // Fraction of a pixel square i carries over to its next move, in 1/PIXEL of a pixel
+    public int getProgress(int i) {
+        return progress[i];
+    } // end getProgress
+
+    // Returns true if some moving square goes slower than the given velocity
+    public boolean hasVelocityBelow(int minimum) {
+        for (int i = 0; i < count; i++) {
+            if (moving[i] && velocity[i] < minimum)
+                return true;
+        } // end for
+        return false;
+    } // end hasVelocityBelow
+
+    public void setPosition(int i, int posX, int posY) {
+        x[i] = posX;
+        y[i] = posY;
+    } // end setPosition
+
+    public void setVelocity(int i, int newVelocity) {
+        velocity[i] = Math.max(0, Math.min(newVelocity, MAX_VELOCITY));
+        maxVelocity = Math.max(maxVelocity, velocity[i]);
+    } // end setVelocity
+
+    // Gives every square the same velocity
+    public void setVelocityAll(int newVelocity) {
+        for (int i = 0; i < count; i++)
+            setVelocity(i, newVelocity);
+    } // end setVelocityAll
+
+    public void setDirection(int i, int newDirection) {
+        direction[i] = (byte) newDirection;
+    } // end setDirection
+
+    public void setColorIndex(int i, int colorIndex) {
+        color[i] = (byte) colorIndex;
+    } // end setColorIndex
+
+    public void grow(int i, int increase) {
+        size[i] += increase;
+        if (grownCount < 0)
+            return;
+        if (grownCount == grown.length) {
+            if (grownCount >= count) {
+                grownCount = -1; // an index is better built again than told of each
+                return;
+            }
+            grown = Arrays.copyOf(grown, 2 * grownCount);
+        }
+        grown[grownCount++] = id[i];
+    } // end grow
+
+    // Number of squares grown since the last clearGrown() (one that grew twice counts twice),
+    // or -1 if there were more than the store holds
+    public int getGrownCount() {
+        return grownCount;
+    } // end getGrownCount
+
+    // Returns the id of the k-th square grown since the last clearGrown()
+    public int getGrownId(int k) {
+        return grown[k];
+    } // end getGrownId
+
+    public void clearGrown() {
+        grownCount = 0;
+    } // end clearGrown
+
+    public void stop(int i) {
+        moving[i] = false;
+    } // end stop
+
+    // CLASS METHODS
+
+    // Returns true if the two squares touch -- in other words, if there are any pixels that
+    // are in both squares, including pixels on the boundary of both squares
+    public static boolean overlap(int x1, int y1, int size1, int x2, int y2, int size2) {
+        boolean horizOverlap = x1 <= x2 + size2 - 1 && x2 <= x1 + size1 - 1;
+        if (!horizOverlap)
+            return false; // no need to check for vertical overlap
+        return y1 <= y2 + size2 - 1 && y2 <= y1 + size1 - 1;
+    } // end overlap
+
+    // Returns true if a square going in the given direction moves along the x axis
+    private static boolean horizontal(int dir) {
+        return dir == Square.LEFT || dir == Square.RIGHT;
+    } // end horizontal
+
+    // Returns the position of the color in COLORS
+    public static int colorIndex(Color c) {
+        for (int i = 0; i < COLORS.length; i++) {
+            if (COLORS[i] == c)
+                return i;
+        } // end for
+        throw new IllegalArgumentException("Not a square color: " + c);
+    } // end colorIndex
+
+    // Writes the first n ints of the array
+    private static void putInts(ByteBuffer out, int[] values, int n) {
+        out.asIntBuffer().put(values, 0, n);
+        out.position(out.position() + 4 * n);
+    } // end putInts
+
+    private static void getInts(ByteBuffer in, int[] values, int n) {
+        in.asIntBuffer().get(values, 0, n);
+        in.position(in.position() + 4 * n);
+    } // end getInts
+
+    // Writes a signed number in as few bytes as it needs (zigzag varint, as in SessionRecorder)
+    private static void putSigned(ByteBuffer out, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7f) != 0) {
+            out.put((byte) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.put((byte) zigzag);
+    } // end putSigned
+
+    private static int getSigned(ByteBuffer in) {
+        int zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get();
+            zigzag |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        } // end for
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    } // end getSigned
+
+    // Makes room for at least the given number of squares
+    private void grow(int capacity) {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        id = Arrays.copyOf(id, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        size = Arrays.copyOf(size, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        color = Arrays.copyOf(color, capacity);
+        moving = Arrays.copyOf(moving, capacity);
+        velocity = Arrays.copyOf(velocity, capacity);
+        progress = Arrays.copyOf(progress, capacity);
+        fromPosition = Arrays.copyOf(fromPosition, capacity);
+        fromDirection = Arrays.copyOf(fromDirection, capacity);
+        fromSize = Arrays.copyOf(fromSize, capacity);
+        steps = Arrays.copyOf(steps, capacity);
+        dead = Arrays.copyOf(dead, capacity);
+    } // end grow
+
+} // end class SquareStore
@@ -0,0 +1,272 @@
+import java.util.Arrays;
+
+
+/**
+ * A StaticLayer indexes the squares that have stopped.  A stopped square never moves again
+ * by itself: it only changes when it absorbs a square (it grows), when it is absorbed or
+ * clicked away, or when a new panel size pushes it back inside.  So unlike SpatialHash,
+ * which is rebuilt on every tick, the layer is kept from one tick to the next and only the
+ * stopped squares that changed are taken out and put back in.
+ *
+ * The layer is a packed grid of CELL_SIZE cells, hashed into a table of buckets so that it
+ * covers a world of any size with a table that only grows with the number of squares.  Each
+ * bucket holds the ids of the squares in the cells hashed to it; squares from other cells
+ * sharing the bucket are just more candidates for the exact test.  The position and size of
+ * each square as it was indexed are kept too (its record), sorted by id like the store.
+ * A square that has grown over more than MAX_CELLS_PER_SQUARE cells is kept in a short list
+ * of large squares that every query looks at, rather than in all of its cells.
+ *
+ * sync() is called at the start of every resolve.  It walks the store and the records side
+ * by side, drops the records of squares that are gone, indexes the squares that have just
+ * stopped and re-indexes the ones whose position or size changed.  Those last two are
+ * "awake" for that tick: GridCollisionEngine tests them against everything, while the
+ * stopped squares that are asleep are never tested against each other.  Two stopped squares
+ * whose records haven't changed were already tested against each other with the same
+ * positions and sizes and didn't touch, so they still don't.
+ *
+ */
+public class StaticLayer {
+
+    // Width and height of one cell of the grid, in pixels.  Most stopped squares are about
+    // this size, so a square covers one to four cells.
+    public static final int CELL_SIZE = 64;
+
+    // Buckets in the table per square indexed, at least
+    private static final int BUCKETS_PER_SQUARE = 2;
+
+    // A square covering more cells than this is kept in a list of large squares instead, so
+    // that a square that has grown bigger than the panel isn't added to thousands of cells
+    private static final int MAX_CELLS_PER_SQUARE = 16;
+
+    // The buckets: bucketIds[b][0 .. bucketCount[b]-1] are the ids of the squares in the
+    // cells hashed to bucket b.  The number of buckets is a power of two.
+    private int[][] bucketIds = new int[64][];
+    private int[] bucketCount = new int[64];
+
+    // Ids of the large squares, in no particular order
+    private int largeCount = 0;
+    private int[] largeIds = new int[4];
+
+    // The records, sorted by id: position and size of each square indexed, and where it is in
+    // the store since the last sync().  The next* arrays are filled by sync() and swapped in.
+    private int recordCount = 0;
+    private int[] recordId = new int[0], recordX = new int[0], recordY = new int[0],
+            recordSize = new int[0], recordIndex = new int[0];
+    private int[] nextId = new int[0], nextX = new int[0], nextY = new int[0],
+            nextSize = new int[0], nextIndex = new int[0];
+
+    // Ids found by the last query(), and the same squares as positions in the store
+    private int[] found = new int[16];
+    private int[] result = new int[16];
+
+    // Brings the layer up to date with the stopped squares of the store.  inLayer[i] is set to
+    // true for every stopped square i and awake[i] to true for the ones that have just stopped
+    // or changed since the last sync(); both are false for the squares that move.
+    public void sync(SquareStore squares, boolean[] inLayer, boolean[] awake) {
+        int count = squares.size();
+        if (nextId.length < count) {
+            int capacity = Math.max(count, 2 * nextId.length);
+            nextId = new int[capacity];
+            nextX = new int[capacity];
+            nextY = new int[capacity];
+            nextSize = new int[capacity];
+            nextIndex = new int[capacity];
+        }
+
+        int r = 0, kept = 0;
+        for (int i = 0; i < count; i++) {
+            inLayer[i] = false;
+            awake[i] = false;
+            if (squares.isMoving(i) || squares.isDead(i))
+                continue;
+            int id = squares.getId(i);
+            int x = squares.getX(i), y = squares.getY(i), size = squares.getSize(i);
+            while (r < recordCount && recordId[r] < id) {
+                unindex(recordId[r], recordX[r], recordY[r], recordSize[r]); // gone, or moving
+                r++;
+            } // end while
+            if (r < recordCount && recordId[r] == id) {
+                if (recordX[r] != x || recordY[r] != y || recordSize[r] != size) {
+                    unindex(id, recordX[r], recordY[r], recordSize[r]);
+                    index(id, x, y, size);
+                    awake[i] = true;
+                }
+                r++;
+            }
+            else {
+                index(id, x, y, size);
+                awake[i] = true;
+            } // end if
+            nextId[kept] = id;
+            nextX[kept] = x;
+            nextY[kept] = y;
+            nextSize[kept] = size;
+            nextIndex[kept] = i;
+            kept++;
+            inLayer[i] = true;
+        } // end for
+        for (; r < recordCount; r++)
+            unindex(recordId[r], recordX[r], recordY[r], recordSize[r]);
+
+        int[] swap = recordId; recordId = nextId; nextId = swap;
+        swap = recordX; recordX = nextX; nextX = swap;
+        swap = recordY; recordY = nextY; nextY = swap;
+        swap = recordSize; recordSize = nextSize; nextSize = swap;
+        swap = recordIndex; recordIndex = nextIndex; nextIndex = swap;
+        recordCount = kept;
+
+        if (bucketCount.length < BUCKETS_PER_SQUARE * recordCount)
+            rehash(Integer.highestOneBit(BUCKETS_PER_SQUARE * recordCount) * 2);
+    } // end sync
+
+    // Finds the stopped squares newer than the square with id afterId that might touch the
+    // rectangle from (left, top) to (right, bottom), inclusive.  Returns the number found;
+    // their positions in the store can be read with getResult(), in increasing order.
+    public int query(int left, int top, int right, int bottom, int afterId) {
+        if (recordCount == 0)
+            return 0;
+        if (cells(left, top, right, bottom) > recordCount)
+            return queryAll(afterId); // looking at every square is quicker
+        int col0 = cell(left), col1 = cell(right);
+        int row0 = cell(top), row1 = cell(bottom);
+        int mask = bucketCount.length - 1;
+        int n = 0;
+        if (found.length < largeCount)
+            found = Arrays.copyOf(found, Math.max(2 * found.length, largeCount));
+        for (int k = 0; k < largeCount; k++) {
+            if (largeIds[k] > afterId)
+                found[n++] = largeIds[k];
+        } // end for
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int b = bucket(col, row) & mask;
+                int inBucket = bucketCount[b];
+                if (inBucket == 0)
+                    continue;
+                int[] ids = bucketIds[b];
+                if (n + inBucket > found.length)
+                    found = Arrays.copyOf(found, Math.max(2 * found.length, n + inBucket));
+                for (int k = 0; k < inBucket; k++) {
+                    if (ids[k] > afterId)
+                        found[n++] = ids[k];
+                } // end for
+            } // end for
+        } // end for
+        if (n == 0)
+            return 0;
+
+        // Squares in several cells, or sharing a bucket, were found several times.  Ids and
+        // store positions are in the same order, so the sorted ids give sorted positions.
+        Arrays.sort(found, 0, n);
+        if (result.length < n)
+            result = new int[Math.max(2 * result.length, n)];
+        int unique = 0, r = 0;
+        for (int k = 0; k < n; k++) {
+            if (k > 0 && found[k] == found[k - 1])
+                continue;
+            r = Arrays.binarySearch(recordId, r, recordCount, found[k]);
+            result[unique++] = recordIndex[r];
+        } // end for
+        return unique;
+    } // end query
+
+    // Same as query(), for a rectangle so big that every square newer than afterId is a
+    // candidate
+    private int queryAll(int afterId) {
+        int r = Arrays.binarySearch(recordId, 0, recordCount, afterId);
+        r = r >= 0 ? r + 1 : -r - 1;
+        if (result.length < recordCount - r)
+            result = new int[recordCount - r];
+        int n = 0;
+        for (; r < recordCount; r++)
+            result[n++] = recordIndex[r];
+        return n;
+    } // end queryAll
+
+    // Returns the squares found by the last query().  Only the first query() entries are valid.
+    public int[] getResult() {
+        return result;
+    } // end getResult
+
+    // Number of stopped squares in the layer
+    public int size() {
+        return recordCount;
+    } // end size
+
+    // Adds the square to every cell it covers
+    private void index(int id, int x, int y, int size) {
+        if (cells(x, y, x + size - 1, y + size - 1) > MAX_CELLS_PER_SQUARE) {
+            if (largeCount == largeIds.length)
+                largeIds = Arrays.copyOf(largeIds, 2 * largeIds.length);
+            largeIds[largeCount++] = id;
+            return;
+        }
+        int mask = bucketCount.length - 1;
+        for (int row = cell(y); row <= cell(y + size - 1); row++) {
+            for (int col = cell(x); col <= cell(x + size - 1); col++) {
+                int b = bucket(col, row) & mask;
+                int[] ids = bucketIds[b];
+                if (ids == null)
+                    ids = bucketIds[b] = new int[4];
+                else if (bucketCount[b] == ids.length)
+                    ids = bucketIds[b] = Arrays.copyOf(ids, 2 * ids.length);
+                ids[bucketCount[b]++] = id;
+            } // end for
+        } // end for
+    } // end index
+
+    // Takes the square, indexed with the given position and size, out of every cell it covers
+    private void unindex(int id, int x, int y, int size) {
+        if (cells(x, y, x + size - 1, y + size - 1) > MAX_CELLS_PER_SQUARE) {
+            for (int k = 0; k < largeCount; k++) {
+                if (largeIds[k] == id) {
+                    largeIds[k] = largeIds[--largeCount];
+                    break;
+                }
+            } // end for
+            return;
+        }
+        int mask = bucketCount.length - 1;
+        for (int row = cell(y); row <= cell(y + size - 1); row++) {
+            for (int col = cell(x); col <= cell(x + size - 1); col++) {
+                int b = bucket(col, row) & mask;
+                int[] ids = bucketIds[b];
+                int last = bucketCount[b] - 1;
+                for (int k = last; k >= 0; k--) {
+                    if (ids[k] == id) {
+                        ids[k] = ids[last];
+                        bucketCount[b] = last;
+                        break; // one copy per cell, even if two cells share the bucket
+                    }
+                } // end for
+            } // end for
+        } // end for
+    } // end unindex
+
+    // Spreads the records over a new table of the given number of buckets
+    private void rehash(int buckets) {
+        bucketIds = new int[buckets][];
+        bucketCount = new int[buckets];
+        largeCount = 0;
+        for (int r = 0; r < recordCount; r++)
+            index(recordId[r], recordX[r], recordY[r], recordSize[r]);
+    } // end rehash
+
+    // Returns the column (or row) of the cell holding the position p.  Squares are never
+    // left of or above the panel, but clamp anyway so that every position has a cell.
+    private static int cell(int p) {
+        return Math.max(0, p) / CELL_SIZE;
+    } // end cell
+
+    // Returns the number of cells under the rectangle from (left, top) to (right, bottom)
+    private static long cells(int left, int top, int right, int bottom) {
+        return (long) (cell(right) - cell(left) + 1) * (cell(bottom) - cell(top) + 1);
+    } // end cells
+
+    // Mixes the column and row of a cell into a bucket number, to be masked by the caller
+    private static int bucket(int column, int row) {
+        int h = column * 0x9E3779B1 + row * 0x85EBCA77;
+        return h ^ (h >>> 15);
+    } // end bucket
+
+} // end class StaticLayer
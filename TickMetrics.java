@@ -0,0 +1,412 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * TickMetrics measures what each tick of a SimulationEngine costs: how long the move,
+ * collision and spawn phases take, how many pairs of squares the collision engine checked
+ * and how many collisions it resolved, how many free places were left for a new square, how
+ * many squares are alive, and how many bytes the tick allocated.  The panel adds the time
+ * it takes to paint each frame, and a RenderLoop the time between two frames shown.
+ *
+ * Every value goes into a Histogram, which can be read at any time from any thread through
+ * the getters (or all at once with report() and hudLines()).  Each tick and each frame is
+ * also emitted as a JFR event (MovingShapes.Tick and MovingShapes.Paint), so a flight
+ * recording started with -XX:StartFlightRecording shows them next to the GC and the JIT.
+ *
+ * Metrics are off unless an engine is given a TickMetrics (the game does it with
+ * -Dmetrics=true).  With none, the engine does nothing but test a null field a few times
+ * per tick.
+ *
+ * The phase methods (tickStarted() .. tickFinished()) must be called by the thread running
+ * the tick, in order; the engine does that while holding its lock.
+ *
+ */
+public class TickMetrics {
+
+    // A histogram of non-negative longs.  Values below 2^SUB_BITS get a bucket each; above
+    // that, every power of two is cut into 2^SUB_BITS buckets, so a percentile is never
+    // more than about 6% above the true value, whatever the range.
+    public static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+        private long count = 0;
+        private long total = 0;
+        private long max = 0;
+
+        public void record(long value) {
+            if (value < 0)
+                value = 0;
+            counts[bucket(value)]++;
+            count++;
+            total += value;
+            if (value > max)
+                max = value;
+        } // end record
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        } // end bucket
+
+        // Largest value that goes into the given bucket
+        private static long highest(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int shift = (bucket >> SUB_BITS) - 1;
+            long mantissa = (bucket & (SUB_BUCKETS - 1)) | SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        } // end highest
+
+        // Returns the value that p percent of the recorded values are at or below
+        public long getPercentile(double p) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank)
+                    return Math.min(highest(b), max);
+            } // end for
+            return max;
+        } // end getPercentile
+
+        public long getCount() {
+            return count;
+        } // end getCount
+
+        public long getTotal() {
+            return total;
+        } // end getTotal
+
+        public long getMax() {
+            return max;
+        } // end getMax
+
+        public double getMean() {
+            return count > 0 ? total / (double) count : 0;
+        } // end getMean
+
+        public Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.total = total;
+            copy.max = max;
+            return copy;
+        } // end copy
+
+        public void clear() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        } // end clear
+    } // end class Histogram
+
+    // JFR event for one tick of the engine
+    @Name("MovingShapes.Tick")
+    @Label("Tick")
+    @Category("MovingShapes")
+    @Description("One tick of the game engine")
+    @StackTrace(false)
+    static class TickEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Move Time") @Timespan(Timespan.NANOSECONDS)
+        long moveTime;
+        @Label("Collision Time") @Timespan(Timespan.NANOSECONDS)
+        long collisionTime;
+        @Label("Spawn Time") @Timespan(Timespan.NANOSECONDS)
+        long spawnTime;
+        @Label("Pair Checks")
+        long pairChecks;
+        @Label("Collisions")
+        long collisions;
+        @Label("Free Places") @Description("Free places for a new square, -1 if none was created")
+        long freePlaces;
+        @Label("Squares")
+        int squares;
+        @Label("Allocated") @DataAmount
+        long allocated;
+    } // end class TickEvent
+
+    // JFR event for one frame painted by the panel
+    @Name("MovingShapes.Paint")
+    @Label("Paint")
+    @Category("MovingShapes")
+    @Description("One frame painted by the game panel")
+    @StackTrace(false)
+    static class PaintEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Pixels")
+        long pixels;
+    } // end class PaintEvent
+
+    // Bytes allocated by a thread, if the JVM keeps count (HotSpot does)
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean))
+                return null;
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (!counter.isThreadAllocatedMemorySupported())
+                return null;
+            counter.setThreadAllocatedMemoryEnabled(true);
+            return counter;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    } // end allocationCounter
+
+    private final Histogram tickTime = new Histogram();
+    private final Histogram moveTime = new Histogram();
+    private final Histogram collisionTime = new Histogram();
+    private final Histogram spawnTime = new Histogram();
+    private final Histogram pairChecks = new Histogram();
+    private final Histogram collisions = new Histogram();
+    private final Histogram freePlaces = new Histogram();
+    private final Histogram squares = new Histogram();
+    private final Histogram allocated = new Histogram();
+    private final Histogram paintTime = new Histogram();
+    private final Histogram frameTime = new Histogram();
+
+    // The tick being measured; only touched by the thread running it
+    private TickEvent event;
+    private long tickStart, moveEnd, collisionEnd, spawnStart, spawnEnd;
+    private long checksBefore, collisionsBefore, checksAfter, collisionsAfter;
+    private long allocatedBefore;
+    private long free;
+
+    // The tick being painted; only touched by the thread painting (the Swing thread, or the
+    // render loop)
+    private PaintEvent paintEvent;
+    private long paintStart;
+
+    // Starts measuring a tick.  The collision engine's counters are read before and after
+    // the collision phase.
+    public void tickStarted(CollisionEngine collisionEngine) {
+        event = new TickEvent();
+        event.begin();
+        checksBefore = collisionEngine.getPairChecks();
+        collisionsBefore = collisionEngine.getCollisions();
+        allocatedBefore = allocatedBytes();
+        free = -1;
+        spawnStart = spawnEnd = 0;
+        tickStart = System.nanoTime();
+    } // end tickStarted
+
+    public void moveFinished() {
+        moveEnd = System.nanoTime();
+    } // end moveFinished
+
+    public void collisionsFinished(CollisionEngine collisionEngine) {
+        collisionEnd = System.nanoTime();
+        checksAfter = collisionEngine.getPairChecks();
+        collisionsAfter = collisionEngine.getCollisions();
+    } // end collisionsFinished
+
+    public void spawnStarted() {
+        spawnStart = System.nanoTime();
+    } // end spawnStarted
+
+    // A new square was placed (or not, if freePlaceCount is 0)
+    public void spawnFinished(long freePlaceCount) {
+        spawnEnd = System.nanoTime();
+        free = freePlaceCount;
+    } // end spawnFinished
+
+    // Ends the tick and records it, with the number of squares it ended with
+    public void tickFinished(long tick, int squareCount) {
+        long end = System.nanoTime();
+        long bytes = allocatedBytes() - allocatedBefore;
+        synchronized (this) {
+            tickTime.record(end - tickStart);
+            moveTime.record(moveEnd - tickStart);
+            collisionTime.record(collisionEnd - moveEnd);
+            if (free >= 0) {
+                spawnTime.record(spawnEnd - spawnStart);
+                freePlaces.record(free);
+            }
+            pairChecks.record(checksAfter - checksBefore);
+            collisions.record(collisionsAfter - collisionsBefore);
+            squares.record(squareCount);
+            if (bytes >= 0)
+                allocated.record(bytes);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tick = tick;
+            event.moveTime = moveEnd - tickStart;
+            event.collisionTime = collisionEnd - moveEnd;
+            event.spawnTime = spawnEnd - spawnStart;
+            event.pairChecks = checksAfter - checksBefore;
+            event.collisions = collisionsAfter - collisionsBefore;
+            event.freePlaces = free;
+            event.squares = squareCount;
+            event.allocated = bytes;
+            event.commit();
+        }
+        event = null;
+    } // end tickFinished
+
+    // Called by the panel (or the render loop) around each paint
+    public void paintStarted() {
+        paintEvent = new PaintEvent();
+        paintEvent.begin();
+        paintStart = System.nanoTime();
+    } // end paintStarted
+
+    public void paintFinished(long tick, long pixels) {
+        long took = System.nanoTime() - paintStart;
+        synchronized (this) {
+            paintTime.record(took);
+        }
+        paintEvent.end();
+        if (paintEvent.shouldCommit()) {
+            paintEvent.tick = tick;
+            paintEvent.pixels = pixels;
+            paintEvent.commit();
+        }
+        paintEvent = null;
+    } // end paintFinished
+
+    // Called by the render loop when it has shown a frame, with the time since the last one
+    public synchronized void frameShown(long nanos) {
+        frameTime.record(nanos);
+    } // end frameShown
+
+    // Returns the bytes allocated so far by the calling thread, or -1 if unknown
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    } // end allocatedBytes
+
+    // The histograms, as copies taken now.  Times are in nanoseconds.
+    public synchronized Histogram getTickTime() {
+        return tickTime.copy();
+    } // end getTickTime
+
+    public synchronized Histogram getMoveTime() {
+        return moveTime.copy();
+    } // end getMoveTime
+
+    public synchronized Histogram getCollisionTime() {
+        return collisionTime.copy();
+    } // end getCollisionTime
+
+    // Only counts the ticks that tried to create a square
+    public synchronized Histogram getSpawnTime() {
+        return spawnTime.copy();
+    } // end getSpawnTime
+
+    public synchronized Histogram getPairChecks() {
+        return pairChecks.copy();
+    } // end getPairChecks
+
+    public synchronized Histogram getCollisions() {
+        return collisions.copy();
+    } // end getCollisions
+
+    // Free places found for each new square; 0 ended the game
+    public synchronized Histogram getFreePlaces() {
+        return freePlaces.copy();
+    } // end getFreePlaces
+
+    public synchronized Histogram getSquares() {
+        return squares.copy();
+    } // end getSquares
+
+    public synchronized Histogram getAllocatedBytes() {
+        return allocated.copy();
+    } // end getAllocatedBytes
+
+    public synchronized Histogram getPaintTime() {
+        return paintTime.copy();
+    } // end getPaintTime
+
+    // Time between two frames shown by a render loop
+    public synchronized Histogram getFrameTime() {
+        return frameTime.copy();
+    } // end getFrameTime
+
+    // Forgets everything recorded so far
+    public synchronized void clear() {
+        tickTime.clear();
+        moveTime.clear();
+        collisionTime.clear();
+        spawnTime.clear();
+        pairChecks.clear();
+        collisions.clear();
+        freePlaces.clear();
+        squares.clear();
+        allocated.clear();
+        paintTime.clear();
+        frameTime.clear();
+    } // end clear
+
+    // Returns a few short lines for an overlay on the game panel
+    public synchronized String[] hudLines() {
+        return new String[] {
+            String.format(Locale.ROOT, "tick %s us p50, %s p99, %s max", micros(tickTime.getPercentile(50)),
+                    micros(tickTime.getPercentile(99)), micros(tickTime.getMax())),
+            String.format(Locale.ROOT, "move %s us, collide %s us, spawn %s us (p50)",
+                    micros(moveTime.getPercentile(50)), micros(collisionTime.getPercentile(50)),
+                    micros(spawnTime.getPercentile(50))),
+            String.format(Locale.ROOT, "%d squares, %d pair checks, %d collisions /tick (p50)",
+                    squares.getPercentile(50), pairChecks.getPercentile(50), collisions.getPercentile(50)),
+            String.format(Locale.ROOT, "%d free places, %d bytes allocated /tick (p50)",
+                    freePlaces.getPercentile(50), allocated.getPercentile(50)),
+            String.format(Locale.ROOT, "paint %s us p50, %s p99; frame %s us p50, %s p99",
+                    micros(paintTime.getPercentile(50)), micros(paintTime.getPercentile(99)),
+                    micros(frameTime.getPercentile(50)), micros(frameTime.getPercentile(99))),
+        };
+    } // end hudLines
+
+    // Returns every histogram as a table, one line each
+    public synchronized String report() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-16s %10s %12s %12s %12s %12s%n",
+                "", "count", "mean", "p50", "p99", "max"));
+        line(text, "tick (us)", tickTime, true);
+        line(text, "move (us)", moveTime, true);
+        line(text, "collide (us)", collisionTime, true);
+        line(text, "spawn (us)", spawnTime, true);
+        line(text, "paint (us)", paintTime, true);
+        line(text, "frame (us)", frameTime, true);
+        line(text, "pair checks", pairChecks, false);
+        line(text, "collisions", collisions, false);
+        line(text, "free places", freePlaces, false);
+        line(text, "squares", squares, false);
+        line(text, "allocated (B)", allocated, false);
+        return text.toString();
+    } // end report
+
+    private static void line(StringBuilder text, String name, Histogram h, boolean nanos) {
+        double scale = nanos ? 1000.0 : 1.0;
+        text.append(String.format(Locale.ROOT, "%-16s %10d %12.1f %12.1f %12.1f %12.1f%n", name, h.getCount(),
+                h.getMean() / scale, h.getPercentile(50) / scale, h.getPercentile(99) / scale, h.getMax() / scale));
+    } // end line
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    } // end micros
+
+} // end class TickMetrics
@@ -0,0 +1,355 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * A World is one whole game: the SimulationEngine with its squares and panel bounds, plus
+ * the player's side of it (score, best score, name, doge mode).  Nothing about a game lives
+ * in static fields, so any number of worlds can run side by side in one JVM, each shown in a
+ * MovingShapes window or run headless by a WorldScheduler.
+ *
+ * Clicks don't touch the squares straight away: click() only queues the point, and the
+ * engine takes the queue at the start of its next tick (the world is its InputSource).  So a
+ * burst of mouse events never waits for a tick to finish, and is applied in one go between
+ * two ticks, each click removing the topmost square under it.
+ *
+ * The whole state of a world can be taken at a tick boundary as a State, and put back with
+ * loadState(); a CheckpointFile set on the world writes one every so many ticks, from a
+ * thread of its own, so the game can pick up where it was after a restart.
+ *
+ * Besides playing, a world keeps timings of its own ticks (count, total, longest, and how
+ * late the scheduler started them) for the scheduler's report.
+ *
+ * A world can be used from the Swing thread while another thread ticks it.  Its own lock is
+ * never held while calling the engine, since the engine calls back into the world with its
+ * lock held.
+ *
+ */
+public class World implements SimulationEngine.InputSource {
+
+    // Points for clicking a square of each color (in the order of SquareStore.COLORS)
+    public static final int SCORES[] = {1, 2, 3, 4, -1};
+
+    private final SimulationEngine engine;
+
+    // Clicks waiting for the next tick
+    private int[] clickX = new int[16], clickY = new int[16];
+    private int clicks = 0;
+    // The queue being applied, swapped with the one above
+    private int[] applyX = new int[16], applyY = new int[16];
+
+    private boolean doge = false;
+    private int finalScore = 0;
+    private int highestScore = 0;
+    private String name = null;
+
+    // Where the state is saved, and every how many ticks
+    private CheckpointFile checkpoints;
+    private int checkpointTicks = 1;
+
+    // Tick timings
+    private long ticks = 0;
+    private long totalTickNanos = 0;
+    private long maxTickNanos = 0;
+    private long maxLagNanos = 0;
+
+    // The state of a world after some tick: its engine's keyframe plus the player's side
+    public static class State {
+        private final SimulationEngine.Keyframe keyframe;
+        private final int finalScore, highestScore;
+        private final boolean doge;
+        private final String name;
+
+        private State(SimulationEngine.Keyframe keyframe, World world) {
+            this.keyframe = keyframe;
+            finalScore = world.finalScore;
+            highestScore = world.highestScore;
+            doge = world.doge;
+            name = world.name;
+        } // end State
+
+        // Reads the player's side written by writePlayer(), after the keyframe
+        private State(ByteBuffer in, SimulationEngine.Keyframe keyframe) {
+            this.keyframe = keyframe;
+            finalScore = in.getInt();
+            highestScore = in.getInt();
+            doge = in.get() != 0;
+            int length = in.getShort();
+            if (length < 0)
+                name = null;
+            else {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                name = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } // end State
+
+        public SimulationEngine.Keyframe getKeyframe() {
+            return keyframe;
+        } // end getKeyframe
+
+        public long getTick() {
+            return keyframe.getTick();
+        } // end getTick
+
+        // Returns the most bytes writeTo() can take
+        public int maxEncodedSize() {
+            return playerSize() + keyframe.maxEncodedSize();
+        } // end maxEncodedSize
+
+        // Returns the most bytes writeDelta() can take with the given base
+        public int maxDeltaSize(State base) {
+            return playerSize() + keyframe.maxDeltaSize(base.keyframe);
+        } // end maxDeltaSize
+
+        // Writes the whole state
+        public void writeTo(ByteBuffer out) {
+            keyframe.writeTo(out);
+            writePlayer(out);
+        } // end writeTo
+
+        // Writes the state with its squares as the changes from base's.  Returns false,
+        // having written nothing, if base isn't an earlier state of the same game.
+        public boolean writeDelta(ByteBuffer out, State base) {
+            if (!keyframe.writeDelta(out, base.keyframe))
+                return false;
+            writePlayer(out);
+            return true;
+        } // end writeDelta
+
+        // Reads a state written by writeTo()
+        public static State readFrom(ByteBuffer in) {
+            return new State(in, SimulationEngine.Keyframe.readFrom(in));
+        } // end readFrom
+
+        // Reads a state written by writeDelta() with the given base
+        public static State readDelta(ByteBuffer in, State base) {
+            return new State(in, SimulationEngine.Keyframe.readDelta(in, base.keyframe));
+        } // end readDelta
+
+        private void writePlayer(ByteBuffer out) {
+            out.putInt(finalScore);
+            out.putInt(highestScore);
+            out.put((byte) (doge ? 1 : 0));
+            if (name == null)
+                out.putShort((short) -1);
+            else {
+                byte[] bytes = nameBytes();
+                out.putShort((short) bytes.length);
+                out.put(bytes);
+            }
+        } // end writePlayer
+
+        private int playerSize() {
+            return 4 + 4 + 1 + 2 + (name == null ? 0 : nameBytes().length);
+        } // end playerSize
+
+        // The name in UTF-8, cut short to fit its length field
+        private byte[] nameBytes() {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            return bytes.length <= Short.MAX_VALUE ? bytes : Arrays.copyOf(bytes, Short.MAX_VALUE);
+        } // end nameBytes
+    } // end class State
+
+
+    public World(CollisionEngine collisionEngine, long seed) {
+        this(new SimulationEngine(collisionEngine, seed));
+    } // end World
+
+    public World(SimulationEngine engine) {
+        this.engine = engine;
+        engine.setInputSource(this);
+    } // end World
+
+    // Returns the engine running the squares of this world
+    public SimulationEngine getEngine() {
+        return engine;
+    } // end getEngine
+
+    // Runs one tick and records how long it took.  Returns false once the game is over.
+    public boolean tick() {
+        long start = System.nanoTime();
+        boolean alive = engine.tick();
+        long took = System.nanoTime() - start;
+        synchronized (this) {
+            ticks++;
+            totalTickNanos += took;
+            maxTickNanos = Math.max(maxTickNanos, took);
+        }
+        return alive;
+    } // end tick
+
+    // Returns the state of the world as it is now, between two ticks
+    public State saveState() {
+        synchronized (engine) {
+            SimulationEngine.Keyframe keyframe = engine.saveKeyframe();
+            synchronized (this) {
+                return new State(keyframe, this);
+            }
+        }
+    } // end saveState
+
+    // Puts the world back in the given state.  Clicks still waiting are dropped.
+    public void loadState(State state) {
+        if (state.keyframe.getSeed() != engine.getSeed())
+            throw new IllegalArgumentException("State is from a game with another seed");
+        synchronized (this) {
+            clicks = 0;
+            finalScore = state.finalScore;
+            highestScore = state.highestScore;
+            doge = state.doge;
+            name = state.name;
+        }
+        engine.loadKeyframe(state.keyframe);
+    } // end loadState
+
+    // Saves the state of the world to the given file every so many ticks (null to stop)
+    public synchronized void setCheckpoints(CheckpointFile file, int everyTicks) {
+        if (everyTicks <= 0)
+            throw new IllegalArgumentException("Bad checkpoint interval: " + everyTicks);
+        checkpoints = file;
+        checkpointTicks = everyTicks;
+    } // end setCheckpoints
+
+    // Records that a tick due at the given time (System.nanoTime()) started late
+    public synchronized void lateBy(long nanos) {
+        maxLagNanos = Math.max(maxLagNanos, nanos);
+    } // end lateBy
+
+    // The player clicked at (x, y).  The click is applied at the start of the next tick;
+    // it is dropped if the game is paused.
+    public void click(int x, int y) {
+        if (engine.isPaused())
+            return;
+        synchronized (this) {
+            if (clicks == clickX.length) {
+                clickX = Arrays.copyOf(clickX, 2 * clicks);
+                clickY = Arrays.copyOf(clickY, 2 * clicks);
+            }
+            clickX[clicks] = x;
+            clickY[clicks] = y;
+            clicks++;
+        }
+    } // end click
+
+    // Called by the engine at the start of each tick: saves a checkpoint if one is due (the
+    // state being the one the last tick left), then removes the squares under the queued
+    // clicks, scores them (publishing a SCORE event for each, if the engine has events) and
+    // speeds the game up to match
+    public void applyInput(SimulationEngine ticking) {
+        CheckpointFile saving;
+        int every;
+        synchronized (this) {
+            saving = checkpoints;
+            every = checkpointTicks;
+        }
+        long tick = ticking.getTickCount();
+        if (saving != null && tick > 0 && tick % every == 0)
+            saving.save(saveState());
+
+        int count;
+        synchronized (this) {
+            count = clicks;
+            if (count == 0)
+                return;
+            int[] swapX = applyX, swapY = applyY;
+            applyX = clickX;
+            applyY = clickY;
+            clickX = swapX.length >= applyX.length ? swapX : new int[applyX.length];
+            clickY = swapY.length >= applyY.length ? swapY : new int[applyY.length];
+            clicks = 0;
+        }
+        int[] hits = ticking.click(applyX, applyY, count);
+        GameEvents events = ticking.getEvents();
+        for (int i = 0; i < count; i++) {
+            if (hits[i] < 0)
+                continue;
+            int newScore;
+            synchronized (this) {
+                newScore = score(hits[i]);
+            }
+            if (events != null)
+                events.publish(GameEvents.SCORE, -1, SCORES[hits[i]], 0, newScore);
+            // makes the squares go faster and appear more often as the score goes up
+            ticking.speedUp(newScore);
+        } // end for
+    } // end applyInput
+
+    // Adds what a square of the given color is worth to the score and returns the new score
+    private int score(int colorIndex) {
+        finalScore += SCORES[colorIndex];
+        //if you get negative points, you will go into "doge mode"
+        if (finalScore < 0)
+            doge = true;
+        if (finalScore > highestScore)
+            highestScore = finalScore;
+        return finalScore;
+    } // end score
+
+    // Pauses or resumes the game.  Clicks still waiting are dropped when it pauses.
+    public void setPaused(boolean newPaused) {
+        if (newPaused) {
+            synchronized (this) {
+                clicks = 0;
+            }
+        }
+        engine.setPaused(newPaused);
+    } // end setPaused
+
+    public boolean isPaused() {
+        return engine.isPaused();
+    } // end isPaused
+
+    // Tells the game its panel has a new size
+    public void resize(int panelWidth, int panelHeight) {
+        engine.resize(panelWidth, panelHeight);
+    } // end resize
+
+    public void setName(String newName) {
+        synchronized (this) {
+            name = newName;
+        }
+        engine.nameEntered(newName);
+    } // end setName
+
+    public synchronized String getName() {
+        return name;
+    } // end getName
+
+    public synchronized int getScore() {
+        return finalScore;
+    } // end getScore
+
+    public synchronized int getHighestScore() {
+        return highestScore;
+    } // end getHighestScore
+
+    // Returns true once the score has gone below 0: the squares are drawn as doges
+    public synchronized boolean isDogeMode() {
+        return doge;
+    } // end isDogeMode
+
+    public boolean isGameOver() {
+        return engine.isGameOver();
+    } // end isGameOver
+
+    public synchronized long getTicks() {
+        return ticks;
+    } // end getTicks
+
+    // Average time of a tick, in microseconds
+    public synchronized double getAverageTickMicros() {
+        return ticks > 0 ? totalTickNanos / 1000.0 / ticks : 0;
+    } // end getAverageTickMicros
+
+    public synchronized double getMaxTickMicros() {
+        return maxTickNanos / 1000.0;
+    } // end getMaxTickMicros
+
+    // Longest a tick started after it was due, in microseconds
+    public synchronized double getMaxLagMicros() {
+        return maxLagNanos / 1000.0;
+    } // end getMaxLagMicros
+
+} // end class World
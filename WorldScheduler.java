@@ -0,0 +1,278 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A WorldScheduler runs a fleet of headless worlds at once, to see how many game sessions
+ * one machine can carry.
+ *
+ * Each world is driven by a task that ticks it.  Paced, a world ticks every tick delay
+ * milliseconds like a real game; unpaced, as fast as it can.  A simple bot clicks a random
+ * spot of each world every so often, so the worlds score, speed up and end the way played
+ * games do.  When a game ends a new world takes its place, so the fleet stays the same size.
+ *
+ * The tasks run on virtual threads, one per world, when the JVM has them (Java 21 and up);
+ * otherwise, or with -Dfleet.threads=n, they share a bounded pool of n carrier threads and
+ * reschedule themselves after each tick (paced) or each slice of SLICE_TICKS ticks.
+ *
+ * Usage: java -Djava.awt.headless=true -cp out WorldScheduler [worlds [seconds]]
+ * with the optional settings
+ *   fleet.threads      "virtual" (default when available) or a number of carrier threads
+ *   fleet.paced        false to tick as fast as possible (default true)
+ *   fleet.clickEvery   ticks between two clicks of the bot, 0 for none (default 50)
+ *   collisions         collision engine of every world (default grid)
+ * Once a second it prints the ticks per second of the whole fleet and the tick latency of
+ * the worlds: how long their ticks take, and how late paced ticks start.
+ *
+ * Every world and every bot draws from random streams of its own (see GameRandom).  The
+ * seed of the g-th world to play in slot k is stream g of stream k of the fleet's seed, and
+ * its bot clicks from the BOT_STREAM of the world's seed, so the games of a fleet don't
+ * depend on which world finishes first or on which thread.
+ *
+ */
+public class WorldScheduler {
+
+    // Ticks a task runs in a row before letting other worlds have the carrier (unpaced)
+    private static final int SLICE_TICKS = 50;
+
+    private final AtomicReferenceArray<World> worlds;
+    private final boolean paced;
+    private final int clickEvery;
+    private final String collisions;
+    private final long seed;
+
+    // Exactly one of these runs the tasks
+    private final ExecutorService virtualThreads;
+    private final ScheduledThreadPoolExecutor pool;
+
+    private volatile boolean running = false;
+
+    // Fleet totals
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder gamesOver = new LongAdder();
+    private final AtomicInteger activeTasks = new AtomicInteger(); // virtual threads still running
+
+    // threads is the number of carrier threads, or 0 for one virtual thread per world
+    public WorldScheduler(int worldCount, int threads, boolean paced, int clickEvery, String collisions, long seed) {
+        this.worlds = new AtomicReferenceArray<World>(worldCount);
+        this.paced = paced;
+        this.clickEvery = clickEvery;
+        this.collisions = collisions;
+        this.seed = seed;
+        for (int k = 0; k < worldCount; k++)
+            worlds.set(k, newWorld(k, 0));
+        ExecutorService virtual = threads <= 0 ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            virtualThreads = virtual;
+            pool = null;
+        }
+        else {
+            virtualThreads = null;
+            pool = new ScheduledThreadPoolExecutor(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private int count = 0;
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "WorldScheduler carrier " + count++);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    } // end WorldScheduler
+
+    // Returns an executor starting a virtual thread per task, or null if this JVM has no
+    // virtual threads.  Looked up by reflection so this still compiles and runs on older JDKs.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    } // end newVirtualThreadExecutor
+
+    // Returns the given game (0 for the first) of the given slot
+    private World newWorld(int slot, long game) {
+        return new World(CollisionEngine.create(collisions, SimulationEngine.SIZE_INCREMENT),
+                GameRandom.streamSeed(GameRandom.streamSeed(seed, slot), game));
+    } // end newWorld
+
+    // Returns true if the worlds run on virtual threads
+    public boolean usesVirtualThreads() {
+        return virtualThreads != null;
+    } // end usesVirtualThreads
+
+    public int getCarrierThreads() {
+        return pool != null ? pool.getCorePoolSize() : 0;
+    } // end getCarrierThreads
+
+    // Starts ticking every world
+    public void start() {
+        running = true;
+        for (int k = 0; k < worlds.length(); k++) {
+            final WorldTask task = new WorldTask(k);
+            if (virtualThreads != null) {
+                activeTasks.incrementAndGet();
+                virtualThreads.execute(new Runnable() {
+                    public void run() {
+                        task.loop();
+                    }
+                });
+            }
+            else {
+                pool.execute(task);
+            }
+        } // end for
+    } // end start
+
+    // Stops every world and waits for the tasks to finish
+    public void stop() throws InterruptedException {
+        running = false;
+        if (virtualThreads != null) {
+            while (activeTasks.get() > 0)
+                Thread.sleep(1);
+            virtualThreads.shutdown();
+        }
+        else {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    } // end stop
+
+    public long getTicks() {
+        return ticks.sum();
+    } // end getTicks
+
+    public long getGamesOver() {
+        return gamesOver.sum();
+    } // end getGamesOver
+
+    // Returns the tick latency of the worlds as they are now, on one line
+    public String latencyReport() {
+        int count = worlds.length();
+        double[] average = new double[count];
+        double max = 0, lag = 0;
+        for (int k = 0; k < count; k++) {
+            World world = worlds.get(k);
+            average[k] = world.getAverageTickMicros();
+            max = Math.max(max, world.getMaxTickMicros());
+            lag = Math.max(lag, world.getMaxLagMicros());
+        } // end for
+        Arrays.sort(average);
+        return String.format(Locale.ROOT,
+                "tick per world: median %.1f us, p99 %.1f us, longest %.1f us; latest start %.1f us",
+                average[count / 2], average[Math.min(count - 1, (int) (count * 0.99))], max, lag);
+    } // end latencyReport
+
+    // Ticks one world, taking its place with a new one when its game is over
+    private class WorldTask implements Runnable {
+        private final int slot;
+        private World world;
+        private long game = 0;
+        private SplittableRandom bot;
+        private long due;
+
+        WorldTask(int slot) {
+            this.slot = slot;
+            setWorld(worlds.get(slot));
+            due = System.nanoTime();
+        } // end WorldTask
+
+        private void setWorld(World newWorld) {
+            world = newWorld;
+            worlds.set(slot, newWorld);
+            bot = GameRandom.stream(newWorld.getEngine().getSeed(), GameRandom.BOT_STREAM);
+        } // end setWorld
+
+        // Runs one tick of the world, with a click of the bot first if it's time for one
+        private void step() {
+            SimulationEngine engine = world.getEngine();
+            if (clickEvery > 0 && bot.nextInt(clickEvery) == 0)
+                world.click(bot.nextInt(engine.getPanelWidth()), bot.nextInt(engine.getPanelHeight()));
+            boolean alive = world.tick();
+            ticks.increment();
+            if (!alive) {
+                gamesOver.increment();
+                setWorld(newWorld(slot, ++game));
+            }
+            due += SimulationEngine.TICK_DELAY * 1000000L;
+        } // end step
+
+        // Pool mode: runs the tick(s) due, then schedules the next run
+        public void run() {
+            if (!running)
+                return;
+            if (paced) {
+                long now = System.nanoTime();
+                world.lateBy(now - due);
+                if (now - due > SimulationEngine.TICK_DELAY * 1000000L)
+                    due = now; // too far behind: forget the missed ticks
+                step();
+                if (running)
+                    pool.schedule(this, Math.max(0, due - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            else {
+                for (int t = 0; t < SLICE_TICKS && running; t++)
+                    step();
+                if (running)
+                    pool.execute(this);
+            }
+        } // end run
+
+        // Virtual thread mode: ticks the world until the scheduler stops
+        public void loop() {
+            while (running) {
+                if (paced) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        LockSupport.parkNanos(wait);
+                    long now = System.nanoTime();
+                    world.lateBy(now - due);
+                    if (now - due > SimulationEngine.TICK_DELAY * 1000000L)
+                        due = now;
+                }
+                step();
+            } // end while
+            activeTasks.decrementAndGet();
+        } // end loop
+    } // end class WorldTask
+
+    public static void main(String args[]) throws InterruptedException {
+        int worldCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String threads = System.getProperty("fleet.threads", "virtual");
+        WorldScheduler scheduler = new WorldScheduler(worldCount,
+                "virtual".equals(threads) ? 0 : Integer.parseInt(threads),
+                !"false".equals(System.getProperty("fleet.paced")),
+                Integer.getInteger("fleet.clickEvery", 50),
+                System.getProperty("collisions", CollisionEngine.GRID),
+                Long.getLong("seed", new Random().nextLong()));
+        System.out.println(worldCount + " worlds on " + (scheduler.usesVirtualThreads() ? "virtual threads"
+                : scheduler.getCarrierThreads() + " carrier threads"));
+
+        scheduler.start();
+        long last = 0;
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(1000);
+            long total = scheduler.getTicks();
+            System.out.println(String.format(Locale.ROOT, "%3d s: %d ticks/s, %d games over; %s",
+                    s, total - last, scheduler.getGamesOver(), scheduler.latencyReport()));
+            last = total;
+        } // end for
+        scheduler.stop();
+        System.out.println(String.format(Locale.ROOT, "average %.0f ticks/s over %d worlds",
+                scheduler.getTicks() / (double) seconds, worldCount));
+    } // end main
+
+} // end class WorldScheduler
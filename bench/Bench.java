@@ -0,0 +1,111 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
+
+/**
+ * A very small benchmark harness in the spirit of JMH, so the benchmarks can run with
+ * nothing but a JDK.  Each benchmark is warmed up, then measured over several timed
+ * iterations; the score is the average time per operation and the error is the standard
+ * deviation between iterations.
+ *
+ * Results are printed as a table and can be written as JSON (one object per benchmark,
+ * in the same shape as JMH's -rf json output: benchmark, params, mode, primaryMetric) so
+ * that runs from different commits can be compared with the usual tools.
+ *
+ * Settings, all optional system properties:
+ *   bench.warmup      number of warmup iterations (default 3)
+ *   bench.iterations  number of measured iterations (default 5)
+ *   bench.time        milliseconds per iteration (default 1000)
+ *   bench.filter      only run benchmarks whose name contains this text
+ *
+ */
+public class Bench {
+
+    // One benchmarked operation.  setup() is called before every run() and is not timed.
+    public interface Op {
+        void setup();
+        void run();
+    } // end Op
+
+    private final int warmupIterations = Integer.getInteger("bench.warmup", 3);
+    private final int measuredIterations = Integer.getInteger("bench.iterations", 5);
+    private final long iterationNanos = Long.getLong("bench.time", 1000) * 1000000L;
+    private final String filter = System.getProperty("bench.filter", "");
+
+    private final ArrayList<String> json = new ArrayList<String>();
+
+    // Keeps the JIT from throwing away results nobody reads
+    private long blackhole;
+
+    // Measures the operation and records the result under the given name and parameters
+    // (for example "n=1000").  Returns the average time per operation in microseconds.
+    public double measure(String name, String params, Op op) {
+        if (!name.contains(filter))
+            return Double.NaN;
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(op);
+        double[] scores = new double[measuredIterations];
+        double total = 0;
+        for (int i = 0; i < measuredIterations; i++) {
+            scores[i] = iteration(op);
+            total += scores[i];
+        } // end for
+        double mean = total / measuredIterations;
+        double variance = 0;
+        for (int i = 0; i < measuredIterations; i++)
+            variance += (scores[i] - mean) * (scores[i] - mean);
+        double error = measuredIterations > 1 ? Math.sqrt(variance / (measuredIterations - 1)) : 0;
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %-14s %14.3f +- %10.3f us/op",
+                name, params, mean, error));
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < measuredIterations; i++)
+            raw.append(i == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", scores[i]));
+        json.add(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"params\": \"%s\", \"mode\": \"avgt\", \"measurementIterations\": %d, "
+                + "\"primaryMetric\": {\"score\": %.3f, \"scoreError\": %.3f, \"scoreUnit\": \"us/op\", \"rawData\": [[%s]]}}",
+                name, params, measuredIterations, mean, error, raw));
+        return mean;
+    } // end measure
+
+    // Runs the operation for one iteration and returns the average time per operation in
+    // microseconds.  Only run() is timed.
+    private double iteration(Op op) {
+        long timed = 0;
+        long ops = 0;
+        long deadline = System.nanoTime() + iterationNanos;
+        while (ops == 0 || System.nanoTime() < deadline) {
+            op.setup();
+            long start = System.nanoTime();
+            op.run();
+            timed += System.nanoTime() - start;
+            ops++;
+        } // end while
+        blackhole += ops;
+        return timed / 1000.0 / ops;
+    } // end iteration
+
+    // Lets a benchmark hand over a value so its computation can't be optimized away
+    public void consume(long value) {
+        blackhole += value;
+    } // end consume
+
+    // Writes the results of every benchmark measured so far as a JSON array
+    public void writeJson(String fileName) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        try {
+            out.println("[");
+            for (int i = 0; i < json.size(); i++)
+                out.println(json.get(i) + (i < json.size() - 1 ? "," : ""));
+            out.println("]");
+        } finally {
+            out.close();
+        }
+        if (blackhole == 42)
+            System.out.println();
+    } // end writeJson
+
+} // end class Bench
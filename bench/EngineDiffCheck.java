@@ -0,0 +1,249 @@
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks that every collision engine plays the same game as the naive one.  For each seed it
+ * plays a game with each engine side by side with the naive engine, giving both the same
+ * input, and compares the squares after every tick.  The input is what makes the squares
+ * fast and makes them jump: clicks on squares, which score and speed the game up, and
+ * resizes of the panel, smaller and bigger, some made while the game is paused and some
+ * while it runs.  The first tick where an engine differs is printed, and the run fails.
+ *
+ * Before the games, each engine plays one tick of a board made for it: a fast square
+ * bounces off a wall and eats five squares there, and another square lies just out of the
+ * way it went, though not out of the way it would have gone at the size it grows to.
+ * Squares that grow a lot on one tick are where the engines have gone apart before, and
+ * random games only get there now and then.  A few ticks of another board follow: a fast
+ * square turns at a wall halfway through a tick, and the square it touches there is only
+ * in reach at the point where it turns, which an engine that predicts contacts from where
+ * squares end their ticks would miss.
+ *
+ * The naive engine and every other one also resolve a tick whose result is known: one
+ * square absorbs four others (the last two only within reach once it has grown) and goes
+ * from its color to black and stops, and elsewhere two squares merge.  The squares left,
+ * their ids, sizes, colors and whether they still move must be exactly as expected.
+ *
+ * Run from the top of the repository (no display needed):
+ *   java -cp out EngineDiffCheck [seeds [ticks]]
+ *
+ * -Dcheck.engines changes the engines compared with the naive one (default
+ * grid,parallel,kinetic).  The parallel engine is run with a threshold of 0, so it splits
+ * every tick however few the squares.
+ *
+ */
+public class EngineDiffCheck {
+
+    // A click every this many ticks, and a resize every this many
+    private static final int CLICK_EVERY = 5;
+    private static final int RESIZE_EVERY = 60;
+
+    // Odd seeds start with this many squares, at the speed of this score
+    private static final int CROWD = 150;
+    private static final int FULL_SPEED_SCORE = 81;
+
+    public static void main(String args[]) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        String[] engines = System.getProperty("check.engines", "grid,parallel,kinetic").split(",");
+
+        int failures = 0;
+        String naiveWhy = mergeCluster(CollisionEngine.NAIVE);
+        if (naiveWhy != null) {
+            System.out.println(CollisionEngine.NAIVE + ", merges of one tick: " + naiveWhy);
+            failures++;
+        }
+        for (String name : engines) {
+            int diverged = 0;
+            String why = mergeCluster(name.trim());
+            if (why != null) {
+                System.out.println(name.trim() + ", merges of one tick: " + why);
+                failures++;
+            }
+            why = wallPileUp(name.trim());
+            if (why != null) {
+                System.out.println(name.trim() + ", pile-up at a wall: " + why);
+                failures++;
+            }
+            why = turnAtWall(name.trim());
+            if (why != null) {
+                System.out.println(name.trim() + ", turn at a wall: " + why);
+                failures++;
+            }
+            for (int seed = 0; seed < seeds; seed++) {
+                why = compare(name.trim(), seed, ticks);
+                if (why != null) {
+                    System.out.println(name.trim() + ", seed " + seed + ": " + why);
+                    diverged++;
+                }
+            } // end for
+            System.out.println(name.trim() + ": " + (seeds - diverged) + "/" + seeds + " seeds play the same game as "
+                    + CollisionEngine.NAIVE);
+            failures += diverged;
+        } // end for
+        if (failures > 0)
+            System.exit(1);
+    } // end main
+
+    // Plays the game of the given seed with the naive engine and the named one.  Returns null
+    // if they stay the same to the end, or where they differed.
+    private static String compare(String name, long seed, int ticks) {
+        World naive = new World(CollisionEngine.create(CollisionEngine.NAIVE, SimulationEngine.SIZE_INCREMENT), seed);
+        World other = new World(create(name), seed);
+        Random input = new Random(seed);
+        int width = SimulationEngine.DEFAULT_PANEL_WIDTH, height = SimulationEngine.DEFAULT_PANEL_HEIGHT;
+        if (seed % 2 == 1) {
+            // a crowded board already at full speed, so that resizes pile squares up
+            for (World world : new World[] {naive, other}) {
+                world.getEngine().populate(CROWD);
+                world.getEngine().speedUp(FULL_SPEED_SCORE);
+            } // end for
+        }
+        for (int tick = 0; tick < ticks; tick++) {
+            if (tick % CLICK_EVERY == CLICK_EVERY - 1) {
+                // on a square of the board, so that it scores
+                SquareStore squares = naive.getEngine().copySquares();
+                if (squares.size() > 0) {
+                    int i = input.nextInt(squares.size());
+                    int x = squares.getX(i) + squares.getSize(i) / 2, y = squares.getY(i) + squares.getSize(i) / 2;
+                    naive.click(x, y);
+                    other.click(x, y);
+                }
+            }
+            if (tick % RESIZE_EVERY == RESIZE_EVERY - 1) {
+                width = 150 + input.nextInt(600);
+                height = 100 + input.nextInt(400);
+                boolean paused = input.nextBoolean();
+                for (World world : new World[] {naive, other}) {
+                    if (paused)
+                        world.setPaused(true);
+                    world.resize(width, height);
+                    if (paused)
+                        world.setPaused(false);
+                } // end for
+            }
+            boolean naiveAlive = naive.tick();
+            boolean otherAlive = other.tick();
+            if (naive.getEngine().getChecksum() != other.getEngine().getChecksum())
+                return "squares differ after tick " + (tick + 1) + " (panel " + width + "x" + height + ", "
+                        + naive.getEngine().getSquareCount() + " squares with naive, "
+                        + other.getEngine().getSquareCount() + " with " + name + ")";
+            if (naiveAlive != otherAlive)
+                return "only one game ended, at tick " + (tick + 1);
+            if (!naiveAlive)
+                return null;
+        } // end for
+        return null;
+    } // end compare
+
+    // Plays one tick of the pile-up at a wall with the naive engine and the named one.
+    // Returns null if they end it the same, or how they differ.
+    private static String wallPileUp(String name) {
+        SquareStore board = new SquareStore();
+        // 2 pixels from the right wall: it bounces off it and ends the tick at x = 238
+        int wall = board.add(238, 50, 20, Square.RIGHT, SquareStore.FIRST_COLOR);
+        board.setVelocity(wall, 5 * SquareStore.PIXEL);
+        // five squares where it ends, which it eats: it grows to 70
+        for (int k = 0; k < 5; k++)
+            board.stop(board.add(245, 45 + 6 * k, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        // out of its way at the size it moved at, in its way at the size it grows to
+        board.stop(board.add(180, 55, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        // stopped squares below, far from the rest, so that the indexes have more than a
+        // handful of cells and the one above isn't found by chance
+        for (int y = 200; y < 590; y += 40) {
+            for (int x = 0; x < 250; x += 40)
+                board.stop(board.add(x, y, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        } // end for
+
+        World naive = new World(CollisionEngine.create(CollisionEngine.NAIVE, SimulationEngine.SIZE_INCREMENT), 0);
+        World other = new World(create(name), 0);
+        for (World world : new World[] {naive, other}) {
+            world.getEngine().resize(260, 600);
+            world.getEngine().loadSquares(board);
+            world.tick();
+        } // end for
+        if (naive.getEngine().getChecksum() != other.getEngine().getChecksum())
+            return "squares differ after the tick (" + naive.getEngine().getSquareCount() + " squares with naive, "
+                    + other.getEngine().getSquareCount() + " with " + name + ")";
+        return null;
+    } // end wallPileUp
+
+    // Plays a few ticks of a board where a fast square touches another only while it turns
+    // at a wall, halfway through a tick, with the naive engine and the named one.  Returns
+    // null if the naive engine merged the two and the named one played the same ticks.  (The
+    // world spawns a square of its own on the first tick.)
+    private static String turnAtWall(String name) {
+        SquareStore board = new SquareStore();
+        // 5 pixels a tick to the right of a panel 100 wide: 77, 82, 87, then 88, 89, 90,
+        // 90 (where it turns) and back to 89 on the fourth tick
+        int fast = board.add(72, 40, 10, Square.RIGHT, SquareStore.FIRST_COLOR);
+        board.setVelocity(fast, 5 * SquareStore.PIXEL);
+        // against the wall: only in reach of the fast square at x = 90
+        board.stop(board.add(99, 45, 1, Square.LEFT, SquareStore.FIRST_COLOR));
+
+        CollisionEngine reference = CollisionEngine.create(CollisionEngine.NAIVE, SimulationEngine.SIZE_INCREMENT);
+        World naive = new World(reference, 0);
+        World other = new World(create(name), 0);
+        for (World world : new World[] {naive, other}) {
+            world.getEngine().resize(100, 100);
+            world.getEngine().loadSquares(board);
+        } // end for
+        for (int tick = 0; tick < 8; tick++) {
+            naive.tick();
+            other.tick();
+            if (naive.getEngine().getChecksum() != other.getEngine().getChecksum())
+                return "squares differ after tick " + (tick + 1);
+        } // end for
+        if (reference.getCollisions() != 1)
+            return "the naive engine merged " + reference.getCollisions() + " pairs, expected 1";
+        return null;
+    } // end turnAtWall
+
+    // Resolves one tick of a board whose merges are known with the named engine.  Returns
+    // null if the squares left are the ones expected, or the first one that isn't.
+    private static String mergeCluster(String name) {
+        SquareStore squares = new SquareStore();
+        // id 0: moves a pixel to the right, to (101, 100), and absorbs ids 1, 2, 4 and 5
+        squares.add(100, 100, 20, Square.RIGHT, 2);
+        // ids 1 and 2 overlap it where it ends, and it grows to 40
+        squares.stop(squares.add(115, 105, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        squares.stop(squares.add(95, 95, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        // id 3: far from everything
+        squares.stop(squares.add(300, 300, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        // ids 4 and 5: below it, in reach at 40 and at 50
+        squares.stop(squares.add(110, 125, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        squares.stop(squares.add(112, 133, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        // ids 6 and 7: 6 absorbs 7
+        squares.stop(squares.add(200, 200, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+        squares.stop(squares.add(205, 205, 10, Square.LEFT, SquareStore.FIRST_COLOR));
+
+        CollisionEngine engine = create(name);
+        engine.move(squares, SimulationEngine.DEFAULT_PANEL_WIDTH, SimulationEngine.DEFAULT_PANEL_HEIGHT);
+        engine.resolve(squares);
+
+        // id, x, y, size, color, moving
+        int[][] expected = {
+            {0, 101, 100, 60, SquareStore.LAST_COLOR, 0},
+            {3, 300, 300, 10, SquareStore.FIRST_COLOR, 0},
+            {6, 200, 200, 20, SquareStore.FIRST_COLOR + 1, 0},
+        };
+        if (squares.size() != expected.length)
+            return squares.size() + " squares left, expected " + expected.length;
+        for (int i = 0; i < expected.length; i++) {
+            int[] square = {squares.getId(i), squares.getX(i), squares.getY(i), squares.getSize(i),
+                    squares.getColorIndex(i), squares.isMoving(i) ? 1 : 0};
+            if (!Arrays.equals(square, expected[i]))
+                return "square " + i + " is " + Arrays.toString(square) + ", expected "
+                        + Arrays.toString(expected[i]) + " (id, x, y, size, color, moving)";
+        } // end for
+        return null;
+    } // end mergeCluster
+
+    private static CollisionEngine create(String name) {
+        if (CollisionEngine.PARALLEL.equals(name))
+            return new ParallelCollisionEngine(SimulationEngine.SIZE_INCREMENT,
+                    Integer.getInteger("tick.threads", 4), 0);
+        return CollisionEngine.create(name, SimulationEngine.SIZE_INCREMENT);
+    } // end create
+
+} // end class EngineDiffCheck
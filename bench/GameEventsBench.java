@@ -0,0 +1,119 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Stress test and benchmark for GameEvents.  A producer publishes events as fast as it can,
+ * a tick's worth at a time, to three consumers: one that only checks what it reads, one that
+ * sleeps a millisecond per batch as a slow sound or disk consumer might, and one that stalls
+ * for longer now and then.  The ring is kept small so the slow ones are lapped often.
+ *
+ * Every event carries its own sequence number in all four of its fields, so each consumer
+ * checks that every event it is given is whole (no field from another event written over it)
+ * and in order, and that the events it missed are the ones it was told were dropped.  Any
+ * failure stops the run.  Then it prints how long publishing took per event and what each
+ * consumer got, dropped and held up.
+ *
+ * Run from the top of the repository:
+ *   java -cp out GameEventsBench [ticks [events per tick [ring capacity]]]
+ *
+ */
+public class GameEventsBench {
+
+    private static final AtomicBoolean failed = new AtomicBoolean(false);
+
+    // Checks the events of each batch and then takes the given time over it
+    private static class Checker implements GameEvents.Consumer {
+        private final String name;
+        private final long sleepNanos;
+        private final int stallEvery;
+        private long expected = -1;
+        private long batches = 0;
+
+        Checker(String name, long sleepNanos, int stallEvery) {
+            this.name = name;
+            this.sleepNanos = sleepNanos;
+            this.stallEvery = stallEvery;
+        } // end Checker
+
+        public void eventsArrived(GameEvents.Batch batch) {
+            if (batch.size() > 0 && expected >= 0 && batch.getSequence(0) != expected + batch.getDropped())
+                fail("batch starts at " + batch.getSequence(0) + ", expected " + expected + " + "
+                        + batch.getDropped() + " dropped");
+            for (int k = 0; k < batch.size(); k++) {
+                long sequence = batch.getSequence(k);
+                if (batch.getSquare(k) != (int) sequence || batch.getX(k) != (int) (sequence * 31)
+                        || batch.getY(k) != ~(int) sequence || batch.getValue(k) != (int) (sequence >>> 7)
+                        || batch.getType(k) != type(sequence))
+                    fail("event " + sequence + " is torn");
+            } // end for
+            if (batch.size() > 0)
+                expected = batch.getSequence(batch.size() - 1) + 1;
+            batches++;
+            if (sleepNanos > 0)
+                LockSupport.parkNanos(sleepNanos);
+            if (stallEvery > 0 && batches % stallEvery == 0)
+                LockSupport.parkNanos(50000000L);
+        } // end eventsArrived
+
+        private void fail(String why) {
+            System.out.println(name + ": " + why);
+            failed.set(true);
+        } // end fail
+    } // end class Checker
+
+    private static byte type(long sequence) {
+        return (byte) (GameEvents.SPAWN + sequence % GameEvents.GAME_OVER);
+    } // end type
+
+    public static void main(String args[]) throws Exception {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int perTick = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 12;
+
+        GameEvents events = new GameEvents(capacity);
+        GameEvents.Subscription[] consumers = {
+            events.subscribe("checker", new Checker("checker", 0, 0)),
+            events.subscribe("slow", new Checker("slow", 1000000L, 0)),
+            events.subscribe("stalling", new Checker("stalling", 0, 100)),
+        };
+
+        long sequence = 0;
+        long start = System.nanoTime();
+        for (int tick = 0; tick < ticks && !failed.get(); tick++) {
+            events.setTick(tick);
+            for (int k = 0; k < perTick; k++, sequence++)
+                events.publish(type(sequence), (int) sequence, (int) (sequence * 31), ~(int) sequence,
+                        (int) (sequence >>> 7));
+            events.flush();
+            if (tick % 64 == 0)
+                Thread.yield(); // on one processor, let the consumers run now and then
+        } // end for
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // let the consumers catch up with the end
+        long deadline = System.nanoTime() + 5000000000L;
+        for (GameEvents.Subscription consumer : consumers) {
+            while (consumer.getDelivered() + consumer.getDropped() < sequence && System.nanoTime() < deadline)
+                LockSupport.parkNanos(1000000L);
+        } // end for
+
+        System.out.println(String.format(Locale.ROOT, "%d events in %d ticks: %.1f ns per event published, "
+                + "%.1f M events/s", sequence, ticks, seconds * 1e9 / sequence, sequence / seconds / 1e6));
+        System.out.print(events.report());
+        for (GameEvents.Subscription consumer : consumers)
+            consumer.close();
+        for (GameEvents.Subscription consumer : consumers) {
+            if (consumer.getDelivered() + consumer.getDropped() != sequence) {
+                System.out.println(consumer.getName() + " accounted for " + (consumer.getDelivered()
+                        + consumer.getDropped()) + " events of " + sequence);
+                failed.set(true);
+            }
+        } // end for
+        if (failed.get())
+            System.exit(1);
+        System.out.println("Every event delivered was whole and in order, and every one missed was reported");
+    } // end main
+
+} // end class GameEventsBench
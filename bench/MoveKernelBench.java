@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks the move kernels against Square.move() and against each other, then measures them.
+ *
+ * The check runs every kernel for CHECK_TICKS ticks over squares picked to hit every case
+ * (stopped, heading into a wall, bigger than the panel, outside it after a resize) and
+ * compares the columns after each tick, bit for bit: at one pixel per tick with
+ * Square.move(), at other velocities with ScalarMoveKernel (which is Square.move() once per
+ * pixel).  Any difference stops the run.
+ *
+ * The measurement is one tick of n squares, all at one pixel per tick as in most of a game,
+ * and once the squares have sped up to between one and four.
+ *
+ * Build and run from the top of the repository (no display needed):
+ *   javac -d out *.java bench/*.java
+ *   javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorMoveKernel.java
+ *   java --add-modules jdk.incubator.vector -cp out MoveKernelBench [results.json]
+ *
+ * Without the vector kernel only the scalar one is checked and measured.  -Dbench.sizes
+ * changes the square counts (default 10000,100000,1000000); see Bench for the other settings.
+ *
+ */
+public class MoveKernelBench {
+
+    private static final int CHECK_SQUARES = 1000;
+    private static final int CHECK_TICKS = 2000;
+
+    private static final int PANEL_WIDTH = 1024, PANEL_HEIGHT = 768;
+
+    private static final long SEED = Long.getLong("bench.seed", 42);
+
+    // The columns a kernel works on, for n squares
+    private static class Columns {
+        final int n;
+        final int[] x, y, size, velocity, fromPosition;
+        final byte[] direction, fromDirection, steps;
+        final boolean[] moving;
+        final short[] progress;
+
+        Columns(int n) {
+            this.n = n;
+            x = new int[n];
+            y = new int[n];
+            size = new int[n];
+            velocity = new int[n];
+            fromPosition = new int[n];
+            direction = new byte[n];
+            fromDirection = new byte[n];
+            steps = new byte[n];
+            moving = new boolean[n];
+            progress = new short[n];
+        } // end Columns
+
+        Columns copy() {
+            Columns c = new Columns(n);
+            c.copyFrom(this);
+            return c;
+        } // end copy
+
+        void copyFrom(Columns o) {
+            System.arraycopy(o.x, 0, x, 0, n);
+            System.arraycopy(o.y, 0, y, 0, n);
+            System.arraycopy(o.size, 0, size, 0, n);
+            System.arraycopy(o.velocity, 0, velocity, 0, n);
+            System.arraycopy(o.fromPosition, 0, fromPosition, 0, n);
+            System.arraycopy(o.direction, 0, direction, 0, n);
+            System.arraycopy(o.fromDirection, 0, fromDirection, 0, n);
+            System.arraycopy(o.steps, 0, steps, 0, n);
+            System.arraycopy(o.moving, 0, moving, 0, n);
+            System.arraycopy(o.progress, 0, progress, 0, n);
+        } // end copyFrom
+
+        void move(MoveKernel kernel, int panelWidth, int panelHeight) {
+            kernel.move(x, y, size, direction, moving, velocity, progress, fromPosition, fromDirection,
+                    steps, 0, n, panelWidth, panelHeight);
+        } // end move
+
+        boolean sameAs(Columns o) {
+            return Arrays.equals(x, o.x) && Arrays.equals(y, o.y) && Arrays.equals(direction, o.direction)
+                    && Arrays.equals(progress, o.progress) && Arrays.equals(fromPosition, o.fromPosition)
+                    && Arrays.equals(fromDirection, o.fromDirection) && Arrays.equals(steps, o.steps);
+        } // end sameAs
+    } // end class Columns
+
+    public static void main(String args[]) throws Exception {
+        String fileName = args.length > 0 ? args[0] : "move-kernel-results.json";
+        MoveKernel scalar = MoveKernel.create(MoveKernel.SCALAR);
+        MoveKernel vector = MoveKernel.create(MoveKernel.VECTOR);
+        MoveKernel[] kernels = MoveKernel.VECTOR.equals(vector.getName())
+                ? new MoveKernel[] {scalar, vector} : new MoveKernel[] {scalar};
+
+        for (MoveKernel kernel : kernels) {
+            if (!matchesSquareMove(kernel) || !matchesScalar(kernel, scalar))
+                System.exit(1);
+        } // end for
+        System.out.println("Every kernel matches Square.move() bit for bit");
+
+        String[] sizes = System.getProperty("bench.sizes", "10000,100000,1000000").split(",");
+        Bench bench = new Bench();
+        for (String size : sizes) {
+            int n = Integer.parseInt(size.trim());
+            for (MoveKernel kernel : kernels) {
+                benchMove(bench, kernel, n, false);
+                benchMove(bench, kernel, n, true);
+            } // end for
+        } // end for
+        bench.writeJson(fileName);
+        System.out.println("Results written to " + fileName);
+    } // end main
+
+    // One tick of n squares
+    private static void benchMove(final Bench bench, final MoveKernel kernel, int n, boolean fast) {
+        final Columns squares = columns(n, new Random(SEED), fast, false);
+        bench.measure("move." + kernel.getName() + (fast ? ".fast" : ""), "n=" + n, new Bench.Op() {
+            public void setup() {
+            }
+            public void run() {
+                squares.move(kernel, PANEL_WIDTH, PANEL_HEIGHT);
+                bench.consume(squares.x[0]);
+            }
+        });
+    } // end benchMove
+
+    // At one pixel per tick, the kernel must do what Square.move() does to each square
+    private static boolean matchesSquareMove(MoveKernel kernel) {
+        Random random = new Random(SEED);
+        Columns columns = columns(CHECK_SQUARES, random, false, true);
+        SquareStore store = new SquareStore(CHECK_SQUARES);
+        for (int i = 0; i < CHECK_SQUARES; i++) {
+            store.add(columns.x[i], columns.y[i], columns.size[i], columns.direction[i], SquareStore.FIRST_COLOR);
+            if (!columns.moving[i])
+                store.stop(i);
+        } // end for
+
+        int width = PANEL_WIDTH, height = PANEL_HEIGHT;
+        for (int tick = 0; tick < CHECK_TICKS; tick++) {
+            if (tick % 500 == 499) {
+                // a new panel size leaves squares outside it
+                width = 100 + random.nextInt(PANEL_WIDTH);
+                height = 100 + random.nextInt(PANEL_HEIGHT);
+            }
+            columns.move(kernel, width, height);
+            for (int i = 0; i < CHECK_SQUARES; i++) {
+                store.get(i).move(width, height);
+                if (store.getX(i) != columns.x[i] || store.getY(i) != columns.y[i]
+                        || store.getDirection(i) != columns.direction[i]) {
+                    System.out.println(kernel.getName() + " kernel: square " + i + " differs from Square.move()"
+                            + " at tick " + tick);
+                    return false;
+                }
+            } // end for
+        } // end for
+        return true;
+    } // end matchesSquareMove
+
+    // At any velocity, the kernel must leave the columns as the scalar kernel does
+    private static boolean matchesScalar(MoveKernel kernel, MoveKernel scalar) {
+        Random random = new Random(SEED + 1);
+        Columns expected = columns(CHECK_SQUARES, random, true, true);
+        Columns actual = expected.copy();
+        int width = PANEL_WIDTH, height = PANEL_HEIGHT;
+        for (int tick = 0; tick < CHECK_TICKS; tick++) {
+            if (tick % 500 == 499) {
+                width = 100 + random.nextInt(PANEL_WIDTH);
+                height = 100 + random.nextInt(PANEL_HEIGHT);
+            }
+            expected.move(scalar, width, height);
+            actual.move(kernel, width, height);
+            if (!actual.sameAs(expected)) {
+                System.out.println(kernel.getName() + " kernel differs from the scalar one at tick " + tick);
+                return false;
+            }
+        } // end for
+        return true;
+    } // end matchesScalar
+
+    // Makes n squares spread over the panel.  fast ones go between one and four pixels per
+    // tick; with oddities, some are stopped, some are bigger than the panel and some start
+    // outside it.
+    private static Columns columns(int n, Random random, boolean fast, boolean oddities) {
+        Columns c = new Columns(n);
+        for (int i = 0; i < n; i++) {
+            c.size[i] = SimulationEngine.INITIAL_SQUARE_SIZE + 10 * random.nextInt(5);
+            c.x[i] = random.nextInt(PANEL_WIDTH - c.size[i]);
+            c.y[i] = random.nextInt(PANEL_HEIGHT - c.size[i]);
+            c.direction[i] = (byte) random.nextInt(4);
+            c.moving[i] = true;
+            c.velocity[i] = fast ? SquareStore.PIXEL + random.nextInt(3 * SquareStore.PIXEL + 1) : SquareStore.PIXEL;
+            if (oddities) {
+                int odd = random.nextInt(20);
+                if (odd == 0)
+                    c.moving[i] = false;
+                else if (odd == 1)
+                    c.size[i] = PANEL_WIDTH + random.nextInt(100);
+                else if (odd == 2)
+                    c.x[i] = -random.nextInt(50);
+                else if (odd == 3)
+                    c.y[i] = PANEL_HEIGHT + random.nextInt(50);
+            } // end if
+        } // end for
+        return c;
+    } // end columns
+
+} // end class MoveKernelBench
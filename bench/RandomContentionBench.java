@@ -0,0 +1,96 @@
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Contention benchmark for random numbers drawn by many threads at once, as when many
+ * worlds run side by side or a board is placed by several threads.  Each thread places
+ * squares the way the game does (three doubles a square) from:
+ *
+ *   math.random     Math.random(), one generator shared by the whole JVM (how squares used
+ *                   to be placed)
+ *   shared.random   one java.util.Random shared by all the threads
+ *   gameRandom      a GameRandom of its own, as every world has
+ *   stream          a stream of its own, GameRandom.stream(seed, thread)
+ *
+ * and the run prints the squares placed per second by all the threads together.  The shared
+ * generators advance their seed with a compare-and-set, so threads keep failing and
+ * retrying each other's updates; the others share nothing.
+ *
+ * Run from the top of the repository:
+ *   java -cp out RandomContentionBench [max threads [squares per thread]]
+ *
+ * Threads go from 1 to max threads (default twice the number of processors), doubling.
+ *
+ */
+public class RandomContentionBench {
+
+    private static final String[] KINDS = {"math.random", "shared.random", "gameRandom", "stream"};
+
+    private static final long SEED = Long.getLong("bench.seed", 42);
+
+    // Rounds of each case; the best one is printed
+    private static final int ROUNDS = 5;
+
+    public static void main(String args[]) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + perThread
+                + " squares per thread");
+        System.out.println(String.format(Locale.ROOT, "%-8s %16s %16s %16s %16s", "threads",
+                KINDS[0], KINDS[1], KINDS[2], KINDS[3]));
+        for (int threads = 1; threads <= Math.max(1, maxThreads); threads *= 2) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-8d", threads));
+            for (String kind : KINDS) {
+                double best = 0;
+                for (int round = 0; round < ROUNDS; round++)
+                    best = Math.max(best, run(kind, threads, perThread));
+                line.append(String.format(Locale.ROOT, " %11.1f M/s", best / 1e6));
+            } // end for
+            System.out.println(line);
+        } // end for
+    } // end main
+
+    // Places perThread squares on each of the threads and returns the squares placed per second
+    private static double run(final String kind, int threads, final int perThread) throws InterruptedException {
+        final Random shared = new Random(SEED);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final double[] sums = new double[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    GameRandom own = new GameRandom(GameRandom.streamSeed(SEED, thread));
+                    SplittableRandom stream = GameRandom.stream(SEED, thread);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    double sum = 0;
+                    for (int k = 0; k < perThread; k++) {
+                        if (kind.equals(KINDS[0]))
+                            sum += Math.random() + Math.random() + Math.random();
+                        else if (kind.equals(KINDS[1]))
+                            sum += shared.nextDouble() + shared.nextDouble() + shared.nextDouble();
+                        else if (kind.equals(KINDS[2]))
+                            sum += own.nextDouble() + own.nextDouble() + own.nextDouble();
+                        else
+                            sum += stream.nextDouble() + stream.nextDouble() + stream.nextDouble();
+                    } // end for
+                    sums[thread] = sum; // keeps the JIT from dropping the draws
+                    done.countDown();
+                }
+            }).start();
+        } // end for
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return (double) threads * perThread / seconds;
+    } // end run
+
+} // end class RandomContentionBench
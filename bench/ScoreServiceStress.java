@@ -0,0 +1,82 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Stress run for ScoreService: thousands of threads, each playing the part of a game that
+ * hands in a few scores, all submitting to one service at once.  At the end it checks that
+ * every score reached the log, that the top scores of the service are the best of all the
+ * scores submitted, and that a log opened again from disk agrees, then prints the counters.
+ *
+ * Run from the top of the repository:
+ *   java -cp out ScoreServiceStress [threads [scores per thread]]
+ *
+ * The log is written to a temporary file, which is deleted afterwards.
+ *
+ */
+public class ScoreServiceStress {
+
+    public static void main(String args[]) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final int topSize = 10;
+        File file = File.createTempFile("scores", ".log");
+        file.delete();
+
+        final ScoreService service = new ScoreService(new ScoreLog(file, null, topSize), topSize);
+        final int[] all = new int[threads * perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(thread);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int k = 0; k < perThread; k++) {
+                        int score = random.nextInt(1000000);
+                        all[thread * perThread + k] = score;
+                        service.submit("game" + thread, score);
+                    } // end for
+                    done.countDown();
+                }
+            }).start();
+        } // end for
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long submitted = System.nanoTime() - begin;
+        service.close();
+        long written = System.nanoTime() - begin;
+
+        System.out.println(threads + " threads x " + perThread + " scores: submitted in "
+                + submitted / 1000000 + " ms, all written in " + written / 1000000 + " ms");
+        System.out.println(service.getStatistics());
+
+        boolean ok = service.getWritten() == all.length && service.getFailed() == 0;
+        Arrays.sort(all);
+        ArrayList<ScoreObject> top = service.top();
+        for (int k = 0; k < topSize; k++)
+            ok &= top.get(k).getScore() == all[all.length - 1 - k];
+
+        ScoreLog reopened = new ScoreLog(file, null, topSize);
+        reopened.open();
+        for (int k = 0; k < topSize; k++)
+            ok &= reopened.getTopScore(k) == all[all.length - 1 - k];
+        reopened.close();
+        file.delete();
+
+        System.out.println(ok ? "ok" : "FAILED");
+        if (!ok)
+            System.exit(1);
+    } // end main
+
+} // end class ScoreServiceStress
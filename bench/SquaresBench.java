@@ -0,0 +1,398 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+/**
+ * Benchmarks for the hot paths of the game: a full tick, a run of ticks on a board left to
+ * play on (from the start, or late in a game when most squares have stopped), collision
+ * detection alone, a burst of clicks, the spawn-retry loop on a nearly
+ * full panel, painting into an offscreen image (whole, what changed, or what a camera on a
+ * big world sees), and taking, writing and reading back a
+ * checkpoint of the game.  Every
+ * board is built from a fixed seed, so two runs measure exactly the same work.
+ *
+ * Build and run from the top of the repository (no display needed):
+ *   javac -d out *.java bench/*.java
+ *   java -Djava.awt.headless=true -cp out SquaresBench [results.json]
+ *
+ * See Bench for the settings.  -Dbench.seed changes the seed (default 42) and
+ * -Dbench.sizes the square counts (default 100,1000,10000,100000).  The parallel cases use
+ * -Dtick.threads threads (default: one per processor).
+ *
+ */
+public class SquaresBench {
+
+    // Boards are laid out on a lattice of CELL x CELL pixel cells, one square per cell at a
+    // random offset, so they start with no overlaps and stay about 11% covered
+    private static final int CELL = 60;
+
+    // Largest offscreen image painted into, in pixels along each side
+    private static final int MAX_IMAGE = 2048;
+
+    // Size of the window looking at a board through a camera
+    private static final int VIEW_WIDTH = 1024, VIEW_HEIGHT = 768;
+
+    // Velocity of the squares once the game has sped up past a score of 27: two and a half
+    // pixels per tick
+    private static final int FAST_VELOCITY = SquareStore.PIXEL * SimulationEngine.TICK_DELAY / 8;
+
+    private static final long SEED = Long.getLong("bench.seed", 42);
+
+    public static void main(String args[]) throws Exception {
+        String fileName = args.length > 0 ? args[0] : "bench-results.json";
+        String[] sizes = System.getProperty("bench.sizes", "100,1000,10000,100000").split(",");
+        Bench bench = new Bench();
+
+        for (String size : sizes) {
+            int n = Integer.parseInt(size.trim());
+            benchTick(bench, n, CollisionEngine.GRID);
+            benchCollisions(bench, n, CollisionEngine.GRID);
+            benchSteadyTicks(bench, n, CollisionEngine.GRID);
+            // the kinetic engine only pays off once its predictions have been made, so it
+            // is measured on a board that keeps playing, at the start and once sped up
+            benchSteadyTicks(bench, n, CollisionEngine.KINETIC);
+            benchSteadyTicks(bench, n, CollisionEngine.GRID, FAST_VELOCITY);
+            benchSteadyTicks(bench, n, CollisionEngine.KINETIC, FAST_VELOCITY);
+            benchLateTicks(bench, n);
+            if (n <= 10000) {
+                // the pairwise loop is far too slow beyond that
+                benchTick(bench, n, CollisionEngine.NAIVE);
+                benchCollisions(bench, n, CollisionEngine.NAIVE);
+            }
+            if (n >= 10000) {
+                // below that the parallel engine just does what the grid engine does
+                benchTick(bench, n, CollisionEngine.PARALLEL);
+                benchCollisions(bench, n, CollisionEngine.PARALLEL);
+            }
+            // a single click, and a burst of them
+            benchClicks(bench, n, 1);
+            benchClicks(bench, n, 64);
+            benchPaint(bench, n);
+            benchDirtyPaint(bench, n);
+            benchCameraPaint(bench, n);
+            benchCheckpoint(bench, n);
+        } // end for
+        benchSpawnWhenFull(bench);
+
+        bench.writeJson(fileName);
+        System.out.println("Results written to " + fileName);
+    } // end main
+
+    // One whole tick of the engine: move, collide and (every so often) spawn
+    private static void benchTick(final Bench bench, int n, String collisions) {
+        final SquareStore board = board(n);
+        final SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(collisions, SimulationEngine.SIZE_INCREMENT), SEED);
+        engine.resize(boardWidth(n), boardHeight(n));
+        bench.measure("tick." + collisions, "n=" + n, new Bench.Op() {
+            public void setup() {
+                engine.loadSquares(board);
+            }
+            public void run() {
+                engine.tick();
+            }
+        });
+    } // end benchTick
+
+    // Ticks in a row on the same game, as it plays: the board is only loaded again if the
+    // game ends
+    private static void benchSteadyTicks(final Bench bench, int n, String collisions) {
+        benchSteadyTicks(bench, n, collisions, SquareStore.PIXEL);
+    } // end benchSteadyTicks
+
+    // The same with the squares of the board going at the given velocity ("fast" when it
+    // isn't a pixel per tick); the squares spawned on the way still start at a pixel per tick
+    private static void benchSteadyTicks(final Bench bench, int n, String collisions, int velocity) {
+        final SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(collisions, SimulationEngine.SIZE_INCREMENT), SEED);
+        engine.resize(boardWidth(n), boardHeight(n));
+        SquareStore board = board(n);
+        board.setVelocityAll(velocity);
+        engine.loadSquares(board);
+        final SimulationEngine.Keyframe start = engine.saveKeyframe();
+        String name = "ticks.steady." + collisions + (velocity != SquareStore.PIXEL ? ".fast" : "");
+        bench.measure(name, "n=" + n, new Bench.Op() {
+            public void setup() {
+                if (engine.isGameOver())
+                    engine.loadKeyframe(start);
+            }
+            public void run() {
+                engine.tick();
+            }
+        });
+    } // end benchSteadyTicks
+
+    // Ticks in a row late in a game, when nine squares in ten have stopped: the cost should
+    // follow the squares still moving
+    private static void benchLateTicks(final Bench bench, int n) {
+        final SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(CollisionEngine.GRID, SimulationEngine.SIZE_INCREMENT), SEED);
+        engine.resize(boardWidth(n), boardHeight(n));
+        SquareStore board = board(n);
+        for (int i = 0; i < n; i++) {
+            if (i % 10 != 0) {
+                board.setColorIndex(i, SquareStore.LAST_COLOR);
+                board.stop(i);
+            }
+        } // end for
+        engine.loadSquares(board);
+        final SimulationEngine.Keyframe start = engine.saveKeyframe();
+        bench.measure("ticks.late." + CollisionEngine.GRID, "n=" + n, new Bench.Op() {
+            public void setup() {
+                if (engine.isGameOver())
+                    engine.loadKeyframe(start);
+            }
+            public void run() {
+                engine.tick();
+            }
+        });
+    } // end benchLateTicks
+
+    // Collision detection and resolution alone, on a board that has just moved
+    private static void benchCollisions(final Bench bench, int n, String collisions) {
+        final SquareStore board = board(n);
+        board.moveAll(boardWidth(n), boardHeight(n));
+        final SquareStore work = new SquareStore(n);
+        final CollisionEngine engine = CollisionEngine.create(collisions, SimulationEngine.SIZE_INCREMENT);
+        bench.measure("collisions." + collisions, "n=" + n, new Bench.Op() {
+            public void setup() {
+                work.copyFrom(board);
+            }
+            public void run() {
+                engine.resolve(work);
+                bench.consume(work.size());
+            }
+        });
+    } // end benchCollisions
+
+    // A burst of clicks applied at a tick boundary, as queued by a World, on a board of n
+    // squares.  Half of them are on squares and half on random spots (a lone click is on a
+    // square).  click.burst is the first burst on a board, which puts it in the hit index;
+    // click.tick is one on a board already in it that has just played a tick, as while the
+    // game is playing.
+    private static void benchClicks(final Bench bench, int n, final int clicks) {
+        final SquareStore board = board(n);
+        final SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(CollisionEngine.GRID, SimulationEngine.SIZE_INCREMENT), SEED);
+        engine.resize(boardWidth(n), boardHeight(n));
+        final int[] xs = new int[clicks], ys = new int[clicks];
+        Random random = new Random(SEED);
+        for (int c = 0; c < clicks; c++) {
+            if (c % 2 == 0) {
+                int i = random.nextInt(n);
+                xs[c] = board.getX(i) + board.getSize(i) / 2;
+                ys[c] = board.getY(i) + board.getSize(i) / 2;
+            }
+            else {
+                xs[c] = random.nextInt(boardWidth(n));
+                ys[c] = random.nextInt(boardHeight(n));
+            }
+        } // end for
+        bench.measure("click.burst", "n=" + n + ",clicks=" + clicks, new Bench.Op() {
+            public void setup() {
+                engine.loadSquares(board);
+            }
+            public void run() {
+                bench.consume(engine.click(xs, ys, clicks).length);
+            }
+        });
+        bench.measure("click.tick", "n=" + n + ",clicks=" + clicks, new Bench.Op() {
+            public void setup() {
+                engine.loadSquares(board);
+                engine.click(-1, -1); // on no square, but the board is in the index from now on
+                engine.tick();
+            }
+            public void run() {
+                bench.consume(engine.click(xs, ys, clicks).length);
+            }
+        });
+    } // end benchClicks
+
+    // Painting a window of VIEW_WIDTH x VIEW_HEIGHT through a camera on a board of n squares:
+    // a new snapshot of the squares around the view, as the engine publishes after each tick,
+    // with the first frame painted from it (which builds its grid), and the frames after
+    private static void benchCameraPaint(final Bench bench, int n) {
+        final SquareStore board = board(n);
+        final Camera camera = new Camera(boardWidth(n), boardHeight(n));
+        camera.setViewSize(VIEW_WIDTH, VIEW_HEIGHT);
+        camera.scrollBy(boardWidth(n) / 2, boardHeight(n) / 2);
+        final Rectangle area = SimulationEngine.snapshotArea(camera.getVisibleArea());
+        BufferedImage image = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D gc = image.createGraphics();
+        final SquareRenderer renderer = new SquareRenderer(false);
+        renderer.setCamera(camera);
+        bench.measure("paint.camera.first", "n=" + n, new Bench.Op() {
+            public void setup() {
+            }
+            public void run() {
+                renderer.update(new Snapshot(0, board, area));
+                renderer.paint(gc, VIEW_WIDTH, VIEW_HEIGHT, Color.WHITE);
+            }
+        });
+        bench.measure("paint.camera", "n=" + n, new Bench.Op() {
+            public void setup() {
+            }
+            public void run() {
+                renderer.paint(gc, VIEW_WIDTH, VIEW_HEIGHT, Color.WHITE);
+            }
+        });
+        gc.dispose();
+    } // end benchCameraPaint
+
+    // Checkpoints of a world of n squares, in memory: taking its state at a tick boundary
+    // (the only part done on the ticking thread), writing it whole, writing it as a delta
+    // from the state 50 ticks before, and reading both back into the world
+    private static void benchCheckpoint(final Bench bench, int n) {
+        final World world = new World(CollisionEngine.create(CollisionEngine.GRID,
+                SimulationEngine.SIZE_INCREMENT), SEED);
+        world.resize(boardWidth(n), boardHeight(n));
+        world.getEngine().loadSquares(board(n));
+        final World.State base = world.saveState();
+        world.getEngine().runTicks(50);
+        final World.State state = world.saveState();
+        final ByteBuffer full = ByteBuffer.allocateDirect(base.maxEncodedSize());
+        final ByteBuffer delta = ByteBuffer.allocateDirect(state.maxDeltaSize(base));
+        bench.measure("checkpoint.capture", "n=" + n, new Bench.Op() {
+            public void setup() {
+            }
+            public void run() {
+                bench.consume(world.saveState().getTick());
+            }
+        });
+        bench.measure("checkpoint.full", "n=" + n, new Bench.Op() {
+            public void setup() {
+                full.clear();
+            }
+            public void run() {
+                base.writeTo(full);
+                bench.consume(full.position());
+            }
+        });
+        bench.measure("checkpoint.delta", "n=" + n, new Bench.Op() {
+            public void setup() {
+                delta.clear();
+            }
+            public void run() {
+                state.writeDelta(delta, base);
+                bench.consume(delta.position());
+            }
+        });
+        full.flip();
+        delta.flip();
+        System.out.println("checkpoint n=" + n + ": full " + full.remaining() + " bytes, delta "
+                + delta.remaining() + " bytes");
+        bench.measure("checkpoint.restore", "n=" + n, new Bench.Op() {
+            public void setup() {
+                full.rewind();
+                delta.rewind();
+            }
+            public void run() {
+                world.loadState(World.State.readDelta(delta, World.State.readFrom(full)));
+            }
+        });
+    } // end benchCheckpoint
+
+    // Painting the background and every square into an offscreen image the size of the
+    // panel (at most MAX_IMAGE pixels wide and high; squares outside the image are clipped
+    // by Java2D)
+    private static void benchPaint(final Bench bench, int n) {
+        final Snapshot snapshot = new Snapshot(0, board(n));
+        BufferedImage image = new BufferedImage(Math.min(MAX_IMAGE, boardWidth(n)),
+                Math.min(MAX_IMAGE, boardHeight(n)), BufferedImage.TYPE_INT_RGB);
+        final Graphics2D gc = image.createGraphics();
+        final int width = image.getWidth(), height = image.getHeight();
+        bench.measure("paint", "n=" + n, new Bench.Op() {
+            public void setup() {
+            }
+            public void run() {
+                gc.setColor(Color.WHITE);
+                gc.fillRect(0, 0, width, height);
+                snapshot.paint(gc, false);
+            }
+        });
+        gc.dispose();
+    } // end benchPaint
+
+    // Repainting only what changed during one tick, the way the panel does
+    private static void benchDirtyPaint(final Bench bench, int n) {
+        SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(CollisionEngine.GRID, SimulationEngine.SIZE_INCREMENT), SEED);
+        engine.resize(boardWidth(n), boardHeight(n));
+        engine.loadSquares(board(n));
+        final Snapshot before = new Snapshot(0, engine.copySquares());
+        engine.tick();
+        final Snapshot after = new Snapshot(1, engine.copySquares());
+        final int width = Math.min(MAX_IMAGE, boardWidth(n));
+        final int height = Math.min(MAX_IMAGE, boardHeight(n));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D gc = image.createGraphics();
+        final SquareRenderer renderer = new SquareRenderer(false);
+        bench.measure("paint.dirty", "n=" + n, new Bench.Op() {
+            public void setup() {
+                renderer.update(before);
+                gc.setClip(null);
+                renderer.paint(gc, width, height, Color.WHITE);
+            }
+            public void run() {
+                renderer.update(after);
+                for (int k = 0; k < renderer.getDirtyCount(); k++) {
+                    Rectangle changed = renderer.getDirty(k);
+                    gc.setClip(changed.x, changed.y, changed.width, changed.height);
+                    renderer.paint(gc, width, height, Color.WHITE);
+                } // end for
+            }
+        });
+        gc.dispose();
+    } // end benchDirtyPaint
+
+    // Placing a new square on a 600x400 panel that is nearly full
+    private static void benchSpawnWhenFull(final Bench bench) {
+        final SimulationEngine engine = new SimulationEngine(
+                CollisionEngine.create(CollisionEngine.GRID, SimulationEngine.SIZE_INCREMENT), SEED);
+        while (engine.spawnSquare())
+            ; // fill the panel until there is no room left
+        SquareStore filled = engine.copySquares();
+        filled.remove(filled.size() - 1); // leave room for exactly one more
+        final SquareStore full = filled;
+        bench.measure("spawn.full", "n=" + full.size(), new Bench.Op() {
+            public void setup() {
+                engine.loadSquares(full);
+            }
+            public void run() {
+                bench.consume(engine.spawnSquare() ? 1 : 0);
+            }
+        });
+    } // end benchSpawnWhenFull
+
+    // Builds a board of n squares of the initial size that don't overlap, on a panel of
+    // boardWidth(n) x boardHeight(n), just big enough for them
+    private static SquareStore board(int n) {
+        int columns = boardColumns(n);
+        Random random = new Random(SEED);
+        int size = SimulationEngine.INITIAL_SQUARE_SIZE;
+        SquareStore board = new SquareStore(n);
+        for (int i = 0; i < n; i++) {
+            int x = (i % columns) * CELL + random.nextInt(CELL - size);
+            int y = (i / columns) * CELL + random.nextInt(CELL - size);
+            board.add(x, y, size, random.nextInt(4), SquareStore.FIRST_COLOR);
+        } // end for
+        return board;
+    } // end board
+
+    private static int boardColumns(int n) {
+        return (int) Math.ceil(Math.sqrt(n * 1.5));
+    } // end boardColumns
+
+    private static int boardWidth(int n) {
+        return boardColumns(n) * CELL;
+    } // end boardWidth
+
+    private static int boardHeight(int n) {
+        return (n + boardColumns(n) - 1) / boardColumns(n) * CELL;
+    } // end boardHeight
+
+} // end class SquaresBench
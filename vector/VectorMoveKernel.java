@@ -0,0 +1,127 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * A MoveKernel that moves a whole vector of squares at a time with the incubating Vector
+ * API (jdk.incubator.vector), as many as the processor's widest int vector holds.
+ *
+ * There is no branch per square: the lanes that aren't moving or have already gone their
+ * pixels are masked out, and a lane at a wall is clamped and turned around by blending.  A
+ * pixel of the way is +1 for RIGHT and DOWN and -1 for LEFT and UP, worked out from the bit
+ * that tells those directions apart (Square.RIGHT and Square.DOWN are odd), and goes along
+ * x or y depending on the axis of the direction.  Squares faster than a pixel a tick take as
+ * many passes as the fastest lane of their vector; the clamping after each pass is the same
+ * as after each pixel of ScalarMoveKernel, so the result is bit for bit the same.  The
+ * squares left over after the last whole vector are moved by the scalar kernel.
+ *
+ * The columns of bytes and shorts are widened to ints on the way in and narrowed on the way
+ * out, and only the lanes of this range are stored, so ranges moved by separate threads
+ * never write over each other.
+ *
+ * Not built with the rest of the game.  Build and run it with:
+ *   javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorMoveKernel.java
+ *   java --add-modules jdk.incubator.vector -Dmove.kernel=vector -cp out MovingShapes
+ *
+ */
+public class VectorMoveKernel extends MoveKernel {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = INTS.length();
+
+    // Byte and short vectors with (at least) as many lanes, and masks of the first LANES of
+    // them for storing
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, 8 * LANES)));
+    private static final VectorSpecies<Short> SHORTS =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(Math.max(64, 16 * LANES)));
+    private static final VectorMask<Byte> BYTE_LANES = BYTES.indexInRange(0, LANES);
+    private static final VectorMask<Short> SHORT_LANES = SHORTS.indexInRange(0, LANES);
+
+    // Squares taken at each pass of the loop: the widest of the vectors loaded
+    private static final int STRIDE = Math.max(LANES, Math.max(BYTES.length(), SHORTS.length()));
+
+    private final ScalarMoveKernel tail = new ScalarMoveKernel();
+
+    public String getName() {
+        return VECTOR;
+    } // end getName
+
+    // Returns the number of squares moved at once
+    public int getLanes() {
+        return LANES;
+    } // end getLanes
+
+    public void move(int[] x, int[] y, int[] size, byte[] direction, boolean[] moving,
+            int[] velocity, short[] progress, int[] fromPosition, byte[] fromDirection, byte[] steps,
+            int from, int to, int panelWidth, int panelHeight) {
+        int i = from;
+        for (; i + STRIDE <= to; i += LANES) {
+            IntVector px = IntVector.fromArray(INTS, x, i);
+            IntVector py = IntVector.fromArray(INTS, y, i);
+            IntVector side = IntVector.fromArray(INTS, size, i);
+            IntVector dir = (IntVector) ByteVector.fromArray(BYTES, direction, i)
+                    .convertShape(VectorOperators.B2I, INTS, 0);
+            VectorMask<Integer> going = VectorMask.fromArray(INTS, moving, i);
+
+            // Pixels to go this tick, and the fraction of a pixel left for the next
+            IntVector carried = (IntVector) ShortVector.fromArray(SHORTS, progress, i)
+                    .convertShape(VectorOperators.S2I, INTS, 0);
+            IntVector travel = carried.add(IntVector.fromArray(INTS, velocity, i));
+            IntVector pixels = travel.lanewise(VectorOperators.ASHR, SquareStore.PIXEL_BITS)
+                    .blend(0, going.not());
+            carried = carried.blend(travel.and(SquareStore.PIXEL - 1), going);
+            ((ShortVector) carried.convertShape(VectorOperators.I2S, SHORTS, 0))
+                    .intoArray(progress, i, SHORT_LANES);
+
+            VectorMask<Integer> horizontal = dir.compare(VectorOperators.LT, Square.UP);
+            px.blend(py, horizontal.not()).intoArray(fromPosition, i);
+            ((ByteVector) dir.convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(fromDirection, i, BYTE_LANES);
+            ((ByteVector) pixels.convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(steps, i, BYTE_LANES);
+
+            IntVector maxX = side.neg().add(panelWidth);
+            IntVector maxY = side.neg().add(panelHeight);
+            IntVector passes = pixels.max(1);
+            int most = passes.reduceLanes(VectorOperators.MAX);
+            int step = 0;
+            do {
+                // A pixel along the direction, for the lanes that still have one to go
+                VectorMask<Integer> stepping = pixels.compare(VectorOperators.GT, step);
+                IntVector delta = dir.and(1).lanewise(VectorOperators.LSHL, 1).sub(1);
+                px = px.add(delta, stepping.and(horizontal));
+                py = py.add(delta, stepping.andNot(horizontal));
+
+                // Back inside, turning around a square that was heading out.  Only for the
+                // lanes still in their pixels (or their one check if they don't move): a square
+                // bigger than the panel is never inside it, and each check moves it.
+                VectorMask<Integer> checking = passes.compare(VectorOperators.GT, step);
+                VectorMask<Integer> below = px.compare(VectorOperators.LT, 0).and(checking);
+                VectorMask<Integer> above = px.compare(VectorOperators.GT, maxX).andNot(below).and(checking);
+                dir = dir.blend(Square.RIGHT, below.and(dir.compare(VectorOperators.EQ, Square.LEFT)));
+                dir = dir.blend(Square.LEFT, above.and(dir.compare(VectorOperators.EQ, Square.RIGHT)));
+                px = px.blend(0, below).blend(maxX, above);
+                below = py.compare(VectorOperators.LT, 0).and(checking);
+                above = py.compare(VectorOperators.GT, maxY).andNot(below).and(checking);
+                dir = dir.blend(Square.DOWN, below.and(dir.compare(VectorOperators.EQ, Square.UP)));
+                dir = dir.blend(Square.UP, above.and(dir.compare(VectorOperators.EQ, Square.DOWN)));
+                py = py.blend(0, below).blend(maxY, above);
+                step++;
+            } while (step < most);
+
+            px.intoArray(x, i);
+            py.intoArray(y, i);
+            ((ByteVector) dir.convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(direction, i, BYTE_LANES);
+        } // end for
+        tail.move(x, y, size, direction, moving, velocity, progress, fromPosition, fromDirection, steps,
+                i, to, panelWidth, panelHeight);
+    } // end move
+
+} // end class VectorMoveKernel